@@ -0,0 +1,84 @@
+package ivan.vocabulary.DB;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares per-operation latency of opening the database for every call with the shared connection.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConnectionBenchmark {
+    private static final String TAG = "ConnectionBenchmark";
+    private static final String DATABASE_NAME = "ConnectionBenchmark";
+    private static final String TABLE = "words";
+    private static final int OPERATIONS = 1000;
+    private Context context;
+    private SQLiteOpenHelper helper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        helper = new SQLiteOpenHelper(context, DATABASE_NAME, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE " + TABLE + " (_id INTEGER PRIMARY KEY, word TEXT, meanings TEXT)");
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+        };
+        helper.setWriteAheadLoggingEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void openPerCallVersusSharedConnection() {
+        long perCall = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < OPERATIONS; i++) {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.insert(TABLE, null, values(i));
+            db.close();
+        }
+        perCall = SystemClock.elapsedRealtimeNanos() - perCall;
+
+        ConnectionManager connections = new ConnectionManager(helper);
+        long shared = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < OPERATIONS; i++) {
+            SQLiteDatabase db = connections.acquire();
+            db.insert(TABLE, null, values(i));
+            connections.release(db);
+        }
+        shared = SystemClock.elapsedRealtimeNanos() - shared;
+
+        Log.i(TAG, String.format("open per call: %d us/op, shared connection: %d us/op",
+                perCall / OPERATIONS / 1000, shared / OPERATIONS / 1000));
+        assertEquals(0, connections.getOpenHandles());
+        connections.shutdown();
+    }
+
+    private ContentValues values(int i) {
+        ContentValues values = new ContentValues();
+        values.put("word", "word" + i);
+        values.put("meanings", "meaning" + i);
+        return values;
+    }
+}
@@ -4,23 +4,34 @@
  */
 package ivan.vocabulary.CSV;
 
+import android.database.Cursor;
 import android.os.Environment;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 import ivan.vocabulary.DB.DB;
+import ivan.vocabulary.DB.Metrics;
 import ivan.vocabulary.DB.Vocabulary;
-import ivan.vocabulary.DB.Word;
+import ivan.vocabulary.core.CsvCodec;
+import ivan.vocabulary.core.Meanings;
 
 
 /**
  * The CSV class manages vocabulary exports into the .csv format.
+ * Rows are written according to RFC 4180 by the CsvCodec class of the core module.
+ * A delta export writes only the changes since the previous delta export of the vocabulary, one row per changed word:
+ * "+,id,word,meanings" for a new or updated word and "-,id,," for a deleted one. The first delta export of a
+ * vocabulary holds all its words, so applying the delta files in order rebuilds the vocabulary.
  */
 public class CSV {
-    private static FileWriter writer = null;
-    private static File root = Environment.getExternalStorageDirectory(); // Get file system root dir
-    private static String lastFilePath = null;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_STEP = 500; // Rows between progress reports
+    private static volatile String lastFilePath = null;
 
     /**
      * This function generates a .csv file from a Vocabulary object.
@@ -29,35 +40,171 @@ public class CSV {
      * @return (boolean) - return true on success.
      */
     public static boolean writeCSV(String fileName, Vocabulary vocab){
-        // Create new file and open writer
-        File gpxfile;
+        return writeCSV(fileName, vocab, null);
+    }
+
+    /**
+     * Streams the words of a vocabulary from a database cursor straight into a buffered file writer,
+     * so memory use stays flat regardless of the vocabulary size.
+     * @param fileName (String) - the name of the future file
+     * @param vocab (Vocabulary) - a vocab to export
+     * @param task (CSVExporter) - task to report progress to and check for cancellation, can be null
+     * @return (boolean) - return true on success.
+     */
+    static boolean writeCSV(String fileName, Vocabulary vocab, final CSVExporter task){
+        long start = Metrics.start();
+        File gpxfile = new File(Environment.getExternalStorageDirectory(), fileName + ".csv"); // Looked up on every export, the storage may be remounted
+        Writer writer = null;
+        int rows = 0;
         try {
-            gpxfile = new File(root, fileName + ".csv");
-            writer = new FileWriter(gpxfile);
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(gpxfile), "UTF-8"), WRITE_BUFFER_SIZE);
+            rows = writeRows(vocab, writer, task == null ? null : new RowCallback() {
+                @Override
+                public boolean onRows(int rows) {
+                    if (task.isCancelled()) {
+                        return false;
+                    }
+                    task.reportProgress(rows);
+                    return true;
+                }
+            });
+            writer.flush();
         } catch (IOException e) {
             e.printStackTrace();
+            Metrics.record(Metrics.Op.WRITE_CSV, start, rows);
             return false;
+        } finally {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-        // Generate data
-        String text = "";
-        List<Word> words = DB.getInstance(null).getWords(vocab.getTable());
-        for(Word word: words){
-            text += String.format("%s,%s\n", word.getWord(),word.getMeanings());
+        if (task != null) {
+            if (task.isCancelled()) {
+                gpxfile.delete(); // Don't leave incomplete files behind
+                Metrics.record(Metrics.Op.WRITE_CSV, start, rows);
+                return false;
+            }
+            task.reportProgress(rows);
         }
+        lastFilePath = gpxfile.getPath();
+        Metrics.record(Metrics.Op.WRITE_CSV, start, rows);
+        return true;
+    }
 
-        // Write to the file
+    /**
+     * Exports the changes of a vocabulary since its previous delta export into fileName-N.delta.csv, where N is the
+     * sequence number of the last change included, so successive files sort in the order they apply. The watermark
+     * of the vocabulary moves only once the file is complete, then the change journal is compacted.
+     * @param fileName (String) - the name of the future file, without the suffix
+     * @param vocab (Vocabulary) - a vocab to export
+     * @param task (CSVExporter) - task to report progress to and check for cancellation, can be null
+     * @return (boolean) - return true on success.
+     */
+    static boolean writeDelta(String fileName, Vocabulary vocab, final CSVExporter task){
+        long start = Metrics.start();
+        DB db = DB.getInstance(null);
+        File dir = Environment.getExternalStorageDirectory();
+        File partial = new File(dir, fileName + ".delta.csv.part");
+        Writer writer = null;
+        final int[] rows = {0};
+        long head;
         try {
-        writer.write(text);
-        writer.flush();
-        writer.close();
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), "UTF-8"), WRITE_BUFFER_SIZE);
+            final Writer out = writer;
+            head = db.writeChanges(vocab.getTable(), new DB.ChangeVisitor() {
+                @Override
+                public void upsert(int id, String word, String meanings) throws IOException {
+                    CsvCodec.writeField(out, "+");
+                    out.write(',');
+                    CsvCodec.writeField(out, String.valueOf(id));
+                    out.write(',');
+                    CsvCodec.writeRow(out, word, Meanings.decode(meanings));
+                    step();
+                }
+
+                @Override
+                public void delete(int id) throws IOException {
+                    CsvCodec.writeField(out, "-");
+                    out.write(',');
+                    CsvCodec.writeField(out, String.valueOf(id));
+                    out.write(",,\r\n");
+                    step();
+                }
+
+                private void step() throws IOException {
+                    rows[0]++;
+                    if (task != null && rows[0] % PROGRESS_STEP == 0) {
+                        if (task.isCancelled()) {
+                            throw new InterruptedIOException("Cancelled");
+                        }
+                        task.reportProgress(rows[0]);
+                    }
+                }
+            });
+            writer.close();
+            writer = null;
         } catch (IOException e) {
             e.printStackTrace();
+            close(writer);
+            partial.delete(); // Don't leave incomplete files behind
+            Metrics.record(Metrics.Op.WRITE_CSV, start, rows[0]);
             return false;
         }
+        File gpxfile = new File(dir, fileName + "-" + head + ".delta.csv");
+        if (!partial.renameTo(gpxfile)) {
+            partial.delete();
+            Metrics.record(Metrics.Op.WRITE_CSV, start, rows[0]);
+            return false;
+        }
+        db.markExported(vocab.getTable(), head);
+        db.compactJournal();
+        if (task != null) {
+            task.reportProgress(rows[0]);
+        }
         lastFilePath = gpxfile.getPath();
+        Metrics.record(Metrics.Op.WRITE_CSV, start, rows[0]);
         return true;
     }
 
+    /**
+     * Streams the words of a vocabulary from a database cursor into a writer, one CSV row per word.
+     * Safe to call from several threads at once, each cursor reads on its own WAL connection.
+     * @param vocab (Vocabulary) - a vocab to export
+     * @param writer (Writer) - destination, should be buffered. It isn't flushed nor closed.
+     * @param callback (RowCallback) - called every PROGRESS_STEP rows, can be null
+     * @return (int) number of rows written, less than the word count if the callback stopped the export
+     * @throws IOException if the writer fails
+     */
+    static int writeRows(Vocabulary vocab, Writer writer, RowCallback callback) throws IOException {
+        Cursor cursor = DB.getInstance(null).getWordsCursor(vocab.getTable());
+        int rows = 0;
+        try {
+            while (cursor.moveToNext()) {
+                CsvCodec.writeRow(writer, cursor.getString(1), Meanings.decode(cursor.getString(2)));
+                rows++;
+                if (callback != null && rows % PROGRESS_STEP == 0 && !callback.onRows(rows)) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Splits a row into fields according to RFC 4180, see CsvCodec.
+     * @param row (String) - a row, possibly spanning several lines joined with line breaks
+     * @return (List<String>) fields or null if the row ends inside a quoted field and needs more lines
+     */
+    public static List<String> decodeRow(String row){
+        return CsvCodec.decodeRow(row);
+    }
+
 
     /**
      * Returns path to the previously-generated csv.
@@ -68,4 +215,29 @@ public class CSV {
     }
 
 
+    /**
+     * Helper function to close a writer after a failure.
+     */
+    private static void close(Writer writer){
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Progress callback of writeRows(), called on the exporting thread.
+     */
+    interface RowCallback {
+        /**
+         * @param rows (int) - number of rows written so far
+         * @return (boolean) false to stop the export
+         */
+        boolean onRows(int rows);
+    }
+
 }
@@ -0,0 +1,80 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.CSV;
+
+import android.os.AsyncTask;
+import ivan.vocabulary.DB.Vocabulary;
+
+
+/**
+ * The CSVExporter class runs CSV.writeCSV(), or CSV.writeDelta() for a delta export, on a background thread
+ * and reports progress to the UI thread.
+ */
+public class CSVExporter extends AsyncTask<Void, Integer, Boolean> {
+    private final String fileName;
+    private final Vocabulary vocab;
+    private final ProgressListener listener;
+    private final boolean delta;
+    private int exported = 0;
+
+    /**
+     * Constructor
+     * @param fileName (String) - the name of the future file
+     * @param vocab (Vocabulary) - a vocab to export
+     * @param listener (ProgressListener) - progress callback, can be null
+     */
+    public CSVExporter(String fileName, Vocabulary vocab, ProgressListener listener){
+        this(fileName, vocab, false, listener);
+    }
+
+    /**
+     * Constructor
+     * @param fileName (String) - the name of the future file
+     * @param vocab (Vocabulary) - a vocab to export
+     * @param delta (boolean) - true to export only the changes since the previous delta export
+     * @param listener (ProgressListener) - progress callback, can be null
+     */
+    public CSVExporter(String fileName, Vocabulary vocab, boolean delta, ProgressListener listener){
+        this.fileName = fileName;
+        this.vocab = vocab;
+        this.delta = delta;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        return delta ? CSV.writeDelta(fileName, vocab, this) : CSV.writeCSV(fileName, vocab, this);
+    }
+
+    /**
+     * Called by CSV.writeCSV() and CSV.writeDelta() from the background thread.
+     * @param rows (int) - number of rows written so far
+     */
+    void reportProgress(int rows){
+        exported = rows;
+        publishProgress(rows);
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (listener != null) {
+            listener.onProgress(values[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean success) {
+        if (listener != null) {
+            listener.onFinished(exported, success);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Boolean success) {
+        if (listener != null) {
+            listener.onFinished(exported, false);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.CSV;
+
+import android.os.AsyncTask;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import ivan.vocabulary.DB.DB;
+import ivan.vocabulary.DB.DuplicateFilter;
+import ivan.vocabulary.DB.Word;
+import ivan.vocabulary.core.ImportParser;
+
+
+/**
+ * The CSVImporter class streams a .csv file of "word,meanings" rows (plain or RFC 4180 quoted) into a vocabulary on a background thread.
+ * The file is parsed row by row by the ImportParser class of the core module and written in fixed-size chunks, each chunk in its own transaction,
+ * so memory use doesn't depend on the size of the file. Chunks committed before a cancellation are kept.
+ * Words that are already in the vocabulary, or earlier in the file, are handled by a DuplicateFilter shared by all the chunks.
+ * Rows with a quote that is never closed are imported as plain rows and reported by getMalformedRows() and getFirstMalformedLine().
+ */
+public class CSVImporter extends AsyncTask<Void, Integer, Integer> {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    private final InputStream input;
+    private final String tableName;
+    private final int chunkSize;
+    private final ProgressListener listener;
+    private final DuplicateFilter filter;
+    private int imported = 0;
+    private boolean failed = false;
+    private int malformedRows = 0;
+    private int firstMalformedLine = 0;
+
+    /**
+     * Constructor
+     * @param input (InputStream) - .csv data, closed once the import is over
+     * @param tableName (String) - vocab table to import into
+     * @param listener (ProgressListener) - progress callback, can be null
+     */
+    public CSVImporter(InputStream input, String tableName, ProgressListener listener){
+        this(input, tableName, DEFAULT_CHUNK_SIZE, DuplicateFilter.Policy.MERGE, listener);
+    }
+
+    /**
+     * Constructor
+     * @param input (InputStream) - .csv data, closed once the import is over
+     * @param tableName (String) - vocab table to import into
+     * @param policy (DuplicateFilter.Policy) - what to do with words the vocabulary has already
+     * @param listener (ProgressListener) - progress callback, can be null
+     */
+    public CSVImporter(InputStream input, String tableName, DuplicateFilter.Policy policy, ProgressListener listener){
+        this(input, tableName, DEFAULT_CHUNK_SIZE, policy, listener);
+    }
+
+    /**
+     * Constructor
+     * @param input (InputStream) - .csv data, closed once the import is over
+     * @param tableName (String) - vocab table to import into
+     * @param chunkSize (int) - number of rows written per transaction
+     * @param listener (ProgressListener) - progress callback, can be null
+     */
+    public CSVImporter(InputStream input, String tableName, int chunkSize, ProgressListener listener){
+        this(input, tableName, chunkSize, DuplicateFilter.Policy.MERGE, listener);
+    }
+
+    /**
+     * Constructor
+     * @param input (InputStream) - .csv data, closed once the import is over
+     * @param tableName (String) - vocab table to import into
+     * @param chunkSize (int) - number of rows written per transaction
+     * @param policy (DuplicateFilter.Policy) - what to do with words the vocabulary has already
+     * @param listener (ProgressListener) - progress callback, can be null
+     */
+    public CSVImporter(InputStream input, String tableName, int chunkSize, DuplicateFilter.Policy policy, ProgressListener listener){
+        this.input = input;
+        this.tableName = tableName;
+        this.chunkSize = chunkSize;
+        this.filter = new DuplicateFilter(policy);
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the filter of the import, e.g. to tell how many duplicates were found.
+     * @return (DuplicateFilter) filter
+     */
+    public DuplicateFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns the number of rows with a quote that is never closed, valid once the import is over.
+     * @return (int) malformed rows
+     */
+    public int getMalformedRows() {
+        return malformedRows;
+    }
+
+    /**
+     * Returns the line number of the first row with a quote that is never closed, valid once the import is over.
+     * @return (int) 1-based line number, 0 if there is none
+     */
+    public int getFirstMalformedLine() {
+        return firstMalformedLine;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        DB db = DB.getInstance(null);
+        List<Word> chunk = new ArrayList<>(chunkSize);
+        try {
+            ImportParser parser = new ImportParser(new InputStreamReader(input, "UTF-8"));
+            ImportParser.Row row;
+            while (!isCancelled() && (row = parser.next()) != null) {
+                chunk.add(toWord(row));
+                if (chunk.size() >= chunkSize) { // Flush a full chunk
+                    imported += db.addWords(chunk, tableName, chunkSize, Long.MAX_VALUE, filter);
+                    chunk.clear();
+                    publishProgress(imported);
+                }
+            }
+            if (!isCancelled() && !chunk.isEmpty()) { // Flush what is left
+                imported += db.addWords(chunk, tableName, chunkSize, Long.MAX_VALUE, filter);
+                publishProgress(imported);
+            }
+            malformedRows = parser.getMalformedRows();
+            firstMalformedLine = parser.getFirstMalformedLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return imported;
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (listener != null) {
+            listener.onProgress(values[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Integer rows) {
+        if (listener != null) {
+            listener.onFinished(rows, !failed);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Integer rows) {
+        if (listener != null) {
+            listener.onFinished(imported, false);
+        }
+    }
+
+
+    /**
+     * Parses a single "word,meanings" line, following the rules used by Helper.populate().
+     * @param line (String) - a line of the file
+     * @return (Word) parsed word or null if the line is blank or ends inside a quoted field
+     */
+    public static Word parseLine(String line){
+        ImportParser.Row row = ImportParser.parseLine(line);
+        return row == null ? null : toWord(row);
+    }
+
+    /**
+     * Builds a word from a parsed row.
+     */
+    private static Word toWord(ImportParser.Row row){
+        return row.meanings == null ? new Word(row.word) : new Word(row.word, row.meanings);
+    }
+}
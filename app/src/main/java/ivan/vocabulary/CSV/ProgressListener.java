@@ -0,0 +1,23 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.CSV;
+
+/**
+ * Callback interface for long-running CSV operations. All the methods are called on the UI thread.
+ */
+public interface ProgressListener {
+    /**
+     * Called every time a chunk of rows has been processed.
+     * @param rows (int) - number of rows processed so far
+     */
+    void onProgress(int rows);
+
+    /**
+     * Called once the operation is over.
+     * @param rows (int) - total number of rows processed
+     * @param success (boolean) - false if the operation failed or was cancelled
+     */
+    void onFinished(int rows, boolean success);
+}
@@ -0,0 +1,288 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.CSV;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Environment;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import ivan.vocabulary.DB.Metrics;
+import ivan.vocabulary.DB.Vocabulary;
+import ivan.vocabulary.core.RawZipWriter;
+
+
+/**
+ * The ZipExporter class exports several vocabularies into a single .zip archive, one .csv entry per vocabulary.
+ * Vocabularies are read and compressed in parallel by a bounded pool of workers, each on its own cursor, as the WAL
+ * mode lets reads run concurrently. Every worker deflates its vocabulary into a temporary file of the cache directory;
+ * the task thread copies finished entries into the archive in the order they complete and removes the temporary files.
+ */
+public class ZipExporter extends AsyncTask<Void, Integer, Boolean> {
+    private static final int MAX_WORKERS = 4; // Size of the WAL reader pool of SQLiteDatabase on most devices
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int STATE_PROGRESS = 0, STATE_DONE = 1, STATE_FAILED = 2; // Kinds of progress updates
+    private final String fileName;
+    private final List<Vocabulary> vocabs;
+    private final File stagingDir;
+    private final ZipProgressListener listener;
+    private final AtomicInteger exported = new AtomicInteger(0);
+    private volatile String filePath = null;
+
+    /**
+     * Constructor
+     * @param context (Context) - context, its cache directory keeps the entries being compressed
+     * @param fileName (String) - the name of the future file
+     * @param vocabs (List<Vocabulary>) - vocabularies to export
+     * @param listener (ZipProgressListener) - progress callback, can be null
+     */
+    public ZipExporter(Context context, String fileName, List<Vocabulary> vocabs, ZipProgressListener listener){
+        this.fileName = fileName;
+        this.vocabs = new ArrayList<>(vocabs);
+        this.stagingDir = context.getCacheDir();
+        this.listener = listener;
+    }
+
+    /**
+     * Returns path to the generated archive.
+     * @return (String) path or null if the export hasn't succeeded
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        long start = Metrics.start();
+        File zip = new File(Environment.getExternalStorageDirectory(), fileName + ".zip");
+        int workers = Math.max(1, Math.min(Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKERS), vocabs.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vocabulary-export-" + count.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1); // Below the UI thread
+                return thread;
+            }
+        });
+        CompletionService<RawZipWriter.StagedEntry> completion = new ExecutorCompletionService<>(pool);
+        List<String> names = entryNames(vocabs);
+        for (int i = 0; i < vocabs.size(); i++) {
+            completion.submit(new Stage(i, names.get(i)));
+        }
+        OutputStream out = null;
+        boolean success = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(zip), WRITE_BUFFER_SIZE);
+            RawZipWriter writer = new RawZipWriter(out);
+            int added = 0;
+            for (; added < vocabs.size(); added++) {
+                RawZipWriter.StagedEntry entry = take(completion);
+                if (entry == null) { // Cancelled
+                    break;
+                }
+                try {
+                    writer.put(entry);
+                } finally {
+                    entry.delete();
+                }
+            }
+            if (added == vocabs.size() && !isCancelled()) {
+                writer.finish();
+                success = true;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            stop(pool, completion);
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+            if (!success) {
+                zip.delete(); // Don't leave incomplete files behind
+            }
+        }
+        if (success) {
+            filePath = zip.getPath();
+        }
+        Metrics.record(Metrics.Op.WRITE_ZIP, start, exported.get());
+        return success;
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (listener == null) {
+            return;
+        }
+        switch (values[0]) {
+            case STATE_PROGRESS:
+                listener.onProgress(values[1], values[2]);
+                break;
+            case STATE_DONE:
+                listener.onVocabularyFinished(values[1], values[2], true);
+                break;
+            default:
+                listener.onVocabularyFinished(values[1], values[2], false);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean success) {
+        if (listener != null) {
+            listener.onFinished(exported.get(), success);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Boolean success) {
+        if (listener != null) {
+            listener.onFinished(exported.get(), false);
+        }
+    }
+
+
+    /**
+     * Helper function to wait for the next compressed entry.
+     * @return staged entry or null if the export was cancelled
+     */
+    private RawZipWriter.StagedEntry take(CompletionService<RawZipWriter.StagedEntry> completion) throws IOException {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Helper function to stop the workers and remove the entries that were compressed but not added to the archive.
+     */
+    private static void stop(ExecutorService pool, CompletionService<RawZipWriter.StagedEntry> completion){
+        pool.shutdownNow(); // Running workers see the interrupt at their next progress step
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Future<RawZipWriter.StagedEntry> future;
+        while ((future = completion.poll()) != null) {
+            try {
+                RawZipWriter.StagedEntry entry = future.get();
+                if (entry != null) {
+                    entry.delete();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                // A failed worker has removed its file already
+            }
+        }
+    }
+
+    /**
+     * Helper function to name the entries after the vocabularies, without path separators and without duplicates.
+     */
+    private static List<String> entryNames(List<Vocabulary> vocabs){
+        List<String> names = new ArrayList<>(vocabs.size());
+        Set<String> used = new HashSet<>();
+        for (Vocabulary vocab : vocabs) {
+            String base = vocab.getName().replace('/', '_').replace('\\', '_');
+            String name = base + ".csv";
+            for (int n = 2; !used.add(name.toLowerCase(Locale.ROOT)); n++) { // Archives are often unpacked on case-insensitive file systems
+                name = base + " (" + n + ").csv";
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+
+    /**
+     * Work of a worker: writes one vocabulary as CSV into a staged entry of the archive.
+     * Returns the closed entry, or null if the export was cancelled.
+     */
+    private class Stage implements Callable<RawZipWriter.StagedEntry> {
+        private final int index;
+        private final String name;
+
+        Stage(int index, String name){
+            this.index = index;
+            this.name = name;
+        }
+
+        @Override
+        public RawZipWriter.StagedEntry call() throws IOException {
+            File file = File.createTempFile("export", ".deflate", stagingDir);
+            RawZipWriter.StagedEntry entry;
+            try {
+                entry = new RawZipWriter.StagedEntry(name, file, Deflater.DEFAULT_COMPRESSION);
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+            int rows = 0;
+            boolean staged = false;
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(entry, "UTF-8"), WRITE_BUFFER_SIZE);
+                rows = CSV.writeRows(vocabs.get(index), writer, new CSV.RowCallback() {
+                    @Override
+                    public boolean onRows(int written) {
+                        if (stopped()) {
+                            return false;
+                        }
+                        publishProgress(STATE_PROGRESS, index, written);
+                        return true;
+                    }
+                });
+                writer.flush();
+                entry.close();
+                if (stopped()) {
+                    return null;
+                }
+                staged = true;
+            } finally {
+                if (!staged) {
+                    entry.delete();
+                    publishProgress(STATE_FAILED, index, rows);
+                }
+            }
+            exported.addAndGet(rows);
+            publishProgress(STATE_DONE, index, rows);
+            return entry;
+        }
+
+        private boolean stopped(){
+            return isCancelled() || Thread.currentThread().isInterrupted();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.CSV;
+
+/**
+ * Callback interface for the export of several vocabularies into one archive, see ZipExporter.
+ * Vocabularies are identified by their position in the exported list. All the methods are called on the UI thread.
+ */
+public interface ZipProgressListener {
+    /**
+     * Called every time a chunk of rows of a vocabulary has been written.
+     * @param index (int) - position of the vocabulary
+     * @param rows (int) - number of rows of the vocabulary written so far
+     */
+    void onProgress(int index, int rows);
+
+    /**
+     * Called once a vocabulary has been compressed, before it's added to the archive.
+     * @param index (int) - position of the vocabulary
+     * @param rows (int) - total number of rows of the vocabulary
+     * @param success (boolean) - false if the vocabulary failed or was cancelled
+     */
+    void onVocabularyFinished(int index, int rows, boolean success);
+
+    /**
+     * Called once the archive is over.
+     * @param rows (int) - total number of rows of all the vocabularies
+     * @param success (boolean) - false if the export failed or was cancelled, no archive is left then
+     */
+    void onFinished(int rows, boolean success);
+}
@@ -0,0 +1,35 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+/**
+ * The word that was queued by DB.queueAddWord(): the new word, or the word of the vocabulary it was merged into.
+ */
+public class AddedWord {
+    private final Word word;
+    private final boolean merged;
+
+    /**
+     * Constructor
+     * @param word (Word) - the word with its id, and the merged meanings if it was merged
+     * @param merged (boolean) - true if the vocabulary had the word already
+     */
+    AddedWord(Word word, boolean merged){
+        this.word = word;
+        this.merged = merged;
+    }
+
+    public Word getWord() {
+        return word;
+    }
+
+    /**
+     * Returns true if no word was added, the meanings went to a word the vocabulary had already.
+     * @return (boolean) true if merged
+     */
+    public boolean isMerged() {
+        return merged;
+    }
+}
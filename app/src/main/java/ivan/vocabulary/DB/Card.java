@@ -0,0 +1,43 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import ivan.vocabulary.core.ReviewScheduler;
+
+/**
+ * A word together with its review state, see ReviewScheduler. Returned by DB.getDueCards().
+ */
+public class Card {
+    private final Word word;
+    private final ReviewScheduler.State state;
+
+    /**
+     * Constructor
+     * @param word (Word) - the word
+     * @param state (ReviewScheduler.State) - its review state
+     */
+    public Card(Word word, ReviewScheduler.State state){
+        this.word = word;
+        this.state = state;
+    }
+
+    public Word getWord() {
+        return word;
+    }
+
+    public ReviewScheduler.State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the card after an answer, see ReviewScheduler.review().
+     * @param grade (int) - grade of the answer, 0 to 5
+     * @param now (long) - time of the answer, ms since the epoch
+     * @return (Card) the same word with the new state
+     */
+    public Card review(int grade, long now){
+        return new Card(word, ReviewScheduler.review(state, grade, now));
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ConnectionManager class keeps a single SQLite connection open for the lifetime of the process.
+ * Callers acquire a reference-counted handle, use it and release it. The underlying connection is opened once,
+ * runs in write-ahead logging mode and is shared between threads, so no call pays the cost of reopening the database.
+ */
+class ConnectionManager {
+    private final SQLiteOpenHelper helper;
+    private SQLiteDatabase database = null;
+    private final AtomicInteger handles = new AtomicInteger(0);
+
+    /**
+     * Constructor
+     * @param helper (SQLiteOpenHelper) - helper used to open the database
+     */
+    ConnectionManager(SQLiteOpenHelper helper) {
+        this.helper = helper;
+    }
+
+    /**
+     * Returns a handle to the shared connection, opening it on the first call.
+     * Every handle must be given back with release().
+     * @return (SQLiteDatabase) open database
+     */
+    SQLiteDatabase acquire() {
+        SQLiteDatabase db;
+        synchronized (this) {
+            if (database == null || !database.isOpen()) {
+                database = helper.getWritableDatabase();
+            }
+            db = database;
+            db.acquireReference(); // Keeps the connection alive until the handle is released
+        }
+        handles.incrementAndGet();
+        return db;
+    }
+
+    /**
+     * Gives back a handle obtained with acquire(). The connection itself stays open.
+     * @param db (SQLiteDatabase) handle to release
+     */
+    void release(SQLiteDatabase db) {
+        if (db != null) {
+            handles.decrementAndGet();
+            db.releaseReference();
+        }
+    }
+
+    /**
+     * Returns the number of handles that are currently in use.
+     * @return (int) number of handles
+     */
+    int getOpenHandles() {
+        return handles.get();
+    }
+
+    /**
+     * Closes the shared connection. Only meant to be used when the process is about to finish or in tests.
+     */
+    synchronized void shutdown() {
+        if (database != null && database.isOpen()) {
+            helper.close();
+        }
+        database = null;
+    }
+}
@@ -7,29 +7,91 @@ package ivan.vocabulary.DB;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import ivan.vocabulary.core.Meanings;
+import ivan.vocabulary.core.ReviewScheduler;
+import ivan.vocabulary.core.SectionIndex;
+import ivan.vocabulary.core.Snapshot;
+import ivan.vocabulary.core.SortKeys;
+import ivan.vocabulary.core.TableNames;
+import ivan.vocabulary.core.WordKeys;
+
+import static ivan.vocabulary.DB.Schema.*;
 
 /**
  * The DB class manages interactions with the SQLite database.
+ * Vocabularies are identified by their table name (t_name), while all the words are kept in a single table.
+ * See the Schema class for the layout.
  */
 public class DB extends SQLiteOpenHelper{
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 9;
     private static final String DATABASE_NAME = "Vocabularies";
-    private static final String VOCAB_METADATA_TABLE = "vocab_metadata";
-    private static final String META_KEY_ID = "_id";
-    private static final String META_KEY_NAME = "name";
-    private static final String META_KEY_TABLE_NAME = "t_name";
-    private static final String WORD_KEY_ID = "_id";
-    private static final String WORD_KEY_WORD = "word";
-    private static final String WORD_KEY_MEANINGS = "meanings";
+    public static final int DEFAULT_BATCH_SIZE = 500; // Rows written per transaction by the bulk API
+    public static final long DEFAULT_COMMIT_INTERVAL = 1000; // Max time (ms) a bulk transaction stays open
+    private static final int MERGE_BATCH_SIZE = 500; // Words read by one query when meanings are merged, below SQLite's limits
     private static DB instance = null;
     private Context context;
+    private final ConnectionManager connections;
+    private final Map<String, Long> vocabIds = new ConcurrentHashMap<>(); // t_name -> vocab_metadata._id
+    private final Map<Long, SortKeys> sortKeys = new ConcurrentHashMap<>(); // vocab_metadata._id -> keys of its locale
+    private final WordCache cache = new WordCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16)); // Sorted words of recently used vocabs
+    private final WriteBehindQueue writes;
+    private final StatementCache statements; // Compiled statements of the single-row operations
+    // SQL of the cached statements and of the frequent queries, built once
+    private static final String SQL_INSERT_WORD = "INSERT INTO " + WORDS_TABLE + " (" + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ", " + WORD_KEY_SORT_KEY + ", " + WORD_KEY_DEDUP_KEY + ") VALUES (?, ?, ?, ?, ?)";
+    private static final String SQL_INSERT_WORD_OR_IGNORE = "INSERT OR IGNORE INTO " + WORDS_TABLE + " (" + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ", " + WORD_KEY_SORT_KEY + ", " + WORD_KEY_DEDUP_KEY + ") VALUES (?, ?, ?, ?, ?)";
+    private static final String SQL_FIND_ID = "SELECT IFNULL(MAX(" + WORD_KEY_ID + "), -1) FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_VOCAB_ID + "=? AND " + WORD_KEY_DEDUP_KEY + "=?";
+    private static final String SQL_UPDATE_WORD = "UPDATE " + WORDS_TABLE + " SET " + WORD_KEY_WORD + "=?, " + WORD_KEY_MEANINGS + "=?, " + WORD_KEY_SORT_KEY + "=?, " + WORD_KEY_DEDUP_KEY + "=? WHERE " + WORD_KEY_ID + "=? AND " + WORD_KEY_VOCAB_ID + "=?";
+    private static final String SQL_DELETE_WORD = "DELETE FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID + "=? AND " + WORD_KEY_VOCAB_ID + "=?";
+    private static final String SQL_WORDS_COUNT = "SELECT IFNULL(MAX(" + META_KEY_WORD_COUNT + "), 0) FROM " + VOCAB_METADATA_TABLE + " WHERE " + META_KEY_TABLE_NAME + "=?";
+    private static final String SQL_VOCAB_ID = "SELECT IFNULL(MAX(" + META_KEY_ID + "), -1) FROM " + VOCAB_METADATA_TABLE + " WHERE " + META_KEY_TABLE_NAME + "=?";
+    private static final String SQL_VOCAB_LOCALE = "SELECT IFNULL(MAX(" + META_KEY_LOCALE + "), '') FROM " + VOCAB_METADATA_TABLE + " WHERE " + META_KEY_ID + "=?";
+    private static final String SQL_GET_WORD = "SELECT " + WORD_KEY_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID + "=? AND " + WORD_KEY_VOCAB_ID + "=?";
+    private static final String SQL_DUE_CARDS = "SELECT w." + WORD_KEY_ID + ", w." + WORD_KEY_WORD + ", w." + WORD_KEY_MEANINGS + ", r." + REVIEW_KEY_EASE + ", r." + REVIEW_KEY_INTERVAL
+            + ", r." + REVIEW_KEY_REPETITIONS + ", r." + REVIEW_KEY_DUE + " FROM " + REVIEWS_TABLE + " r JOIN " + WORDS_TABLE + " w ON w." + WORD_KEY_ID + " = r." + REVIEW_KEY_WORD_ID
+            + " WHERE r." + REVIEW_KEY_VOCAB_ID + "=? AND r." + REVIEW_KEY_DUE + " BETWEEN ? AND ? AND (r." + REVIEW_KEY_DUE + " > ? OR r." + REVIEW_KEY_WORD_ID + " > ?)"
+            + " ORDER BY r." + REVIEW_KEY_DUE + ", r." + REVIEW_KEY_WORD_ID + " LIMIT ?";
+    private static final String SQL_SAVE_REVIEW = "UPDATE " + REVIEWS_TABLE + " SET " + REVIEW_KEY_EASE + "=?, " + REVIEW_KEY_INTERVAL + "=?, " + REVIEW_KEY_REPETITIONS + "=?, "
+            + REVIEW_KEY_DUE + "=? WHERE " + REVIEW_KEY_WORD_ID + "=?";
+    private static final String SQL_FIND_DUPLICATE = "SELECT " + WORD_KEY_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_VOCAB_ID + "=? AND " + WORD_KEY_DEDUP_KEY + "=? AND " + WORD_KEY_ID + "<>? LIMIT 1";
+
+
+    /**
+     * Unit of work to be executed inside a single database transaction. See runInTransaction().
+     */
+    public interface Transaction {
+        void run(SQLiteDatabase db);
+    }
+
+    /**
+     * Receives the changes of a vocabulary, see writeChanges().
+     */
+    public interface ChangeVisitor {
+        void upsert(int id, String word, String meanings) throws IOException;
+
+        void delete(int id) throws IOException;
+    }
 
 
     /**
@@ -37,8 +99,29 @@ public class DB extends SQLiteOpenHelper{
      * Make call to static factory method "getInstance()" instead.
      */
     private DB(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION); // The helper keeps it, so don't hold on to an activity
         this.context = context.getApplicationContext();
+        setWriteAheadLoggingEnabled(true); // Readers don't block the writer and vice versa
+        connections = new ConnectionManager(this);
+        statements = new StatementCache(connections);
+        writes = new WriteBehindQueue(new WriteBehindQueue.Sink() {
+            @Override
+            public void apply(Map<String, LinkedHashMap<Integer, WriteBehindQueue.Write>> queued) {
+                applyWrites(queued);
+            }
+
+            @Override
+            public long maxWordId() {
+                SQLiteDatabase db = connections.acquire();
+                long max;
+                try {
+                    max = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + WORD_KEY_ID + "), 0) FROM " + WORDS_TABLE, null);
+                } finally {
+                    connections.release(db);
+                }
+                return max;
+            }
+        });
     }
 
     /**
@@ -53,31 +136,91 @@ public class DB extends SQLiteOpenHelper{
         return instance;
     }
 
+    /**
+     * Closes the database and drops the instance, so the next getInstance() opens a fresh one. Meant for tests.
+     */
+    @VisibleForTesting
+    static synchronized void resetInstance() {
+        if (instance != null) {
+            instance.writes.shutdown();
+            instance.statements.clear();
+            instance.connections.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the manager of the shared connection.
+     * @return (ConnectionManager) connection manager
+     */
+    ConnectionManager getConnections() {
+        return connections;
+    }
+
     @Override
-    public void onCreate (SQLiteDatabase database) {}
+    public void onConfigure (SQLiteDatabase database) {
+        database.setForeignKeyConstraintsEnabled(true); // Words are removed together with their vocabulary
+        database.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE); // Prepared statements kept by the connection
+    }
+
+    @Override
+    public void onCreate (SQLiteDatabase database) {
+        Schema.create(database);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase database, int i, int i1) {
+        Schema.upgrade(database, i);
+    }
 
     @Override
-    public void onUpgrade(SQLiteDatabase database, int i, int i1) {}
+    public void onOpen (SQLiteDatabase database) {
+        if (!database.isReadOnly()) {
+            Schema.refreshSortKeys(database); // After an OS update, before any word is read or added
+        }
+    }
 
 
     /**
-     * Creates new vocabulary table
-     * @param name (String) - name of the table
+     * Creates new vocabulary. Its table name is derived from the name and made unique.
+     * @param name (String) - name of the vocabulary
+     * @return (String) table name of the new vocabulary or null if it wasn't created
      */
-    public void createVocabulary(String name){
-        if(name != "") {
-            SQLiteDatabase db = instance.getWritableDatabase();
-            String tableName = removeSpecialChars(name);
-            // Save metadata
-            ContentValues values = new ContentValues();
-            values.put(META_KEY_NAME, name);
-            values.put(META_KEY_TABLE_NAME, tableName);
-            db.insert(VOCAB_METADATA_TABLE, null, values);
-
-            //Create new vocab table
-            db.execSQL("CREATE TABLE IF NOT EXISTS " + tableName + " (" + WORD_KEY_ID + " INTEGER PRIMARY KEY, " + WORD_KEY_WORD + " TEXT, " + WORD_KEY_MEANINGS + " TEXT)");
-            db.close();
+    public String createVocabulary(String name){
+        if(name == null || name.equals("")) {
+            return null;
         }
+        long start = Metrics.start();
+        String base = TableNames.sanitize(name);
+        String tableName = base;
+        long id = -1;
+        SQLiteDatabase db = connections.acquire();
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                for (int i = 2; DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + VOCAB_METADATA_TABLE + " WHERE " + META_KEY_TABLE_NAME + "=?", new String[]{tableName}) > 0; i++) {
+                    tableName = base + "_" + i; // Names are truncated, so different vocabularies can clash
+                }
+                // Save metadata
+                ContentValues values = new ContentValues();
+                values.put(META_KEY_NAME, name);
+                values.put(META_KEY_TABLE_NAME, tableName);
+                SortKeys keys = sortKeysFor(Locale.getDefault().toLanguageTag()); // Words are sorted the way the user reads
+                values.put(META_KEY_LOCALE, keys.getLocale());
+                values.put(META_KEY_COLLATOR, keys.getVersion());
+                id = db.insert(VOCAB_METADATA_TABLE, null, values);
+                if (id != -1) {
+                    vocabIds.put(tableName, id);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.CREATE_VOCABULARY, start, id != -1 ? 1 : 0);
+        return tableName;
     }
 
     /**
@@ -86,11 +229,51 @@ public class DB extends SQLiteOpenHelper{
      * @param newName (String) - new name
      */
     public void changeVocabName(int id, String newName){
-        SQLiteDatabase db = instance.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(META_KEY_NAME, newName);
-        db.update(VOCAB_METADATA_TABLE, values, WORD_KEY_ID + "=?",new String []{String.valueOf(id)});
-        db.close();
+        long start = Metrics.start();
+        SQLiteDatabase db = connections.acquire();
+        int updated;
+        try {
+            ContentValues values = new ContentValues();
+            values.put(META_KEY_NAME, newName);
+            updated = db.update(VOCAB_METADATA_TABLE, values, WORD_KEY_ID + "=?",new String []{String.valueOf(id)});
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.CHANGE_VOCAB_NAME, start, updated);
+    }
+
+    /**
+     * Changes the locale the words of a vocabulary are sorted by. The sort keys of all its words are computed again
+     * in one transaction, so it takes a while for a large vocabulary.
+     * @param tableName (String) - vocab table name
+     * @param locale (String) - BCP 47 language tag, e.g. "es", null or empty for the root locale
+     */
+    public void setVocabLocale(String tableName, String locale){
+        long start = Metrics.start();
+        writes.flush(); // Queued words get their keys in the old locale
+        long vocabId = vocabId(tableName);
+        SortKeys keys = sortKeysFor(locale == null ? "" : locale);
+        int updated = 0;
+        SQLiteDatabase db = connections.acquire();
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                ContentValues values = new ContentValues();
+                values.put(META_KEY_LOCALE, keys.getLocale());
+                values.put(META_KEY_COLLATOR, keys.getVersion());
+                if (db.update(VOCAB_METADATA_TABLE, values, META_KEY_ID + "=?", new String[]{String.valueOf(vocabId)}) > 0) {
+                    updated = Schema.fillSortKeys(db, keys, WORD_KEY_VOCAB_ID + "=?", new String[]{String.valueOf(vocabId)});
+                    sortKeys.put(vocabId, keys);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                cache.invalidate(tableName); // The order changed
+            }
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.SET_VOCAB_LOCALE, start, updated);
     }
 
     /**
@@ -98,11 +281,22 @@ public class DB extends SQLiteOpenHelper{
      * @param tableName(String) - table name
      */
     public void deleteVocabulary(String tableName){
-        if(tableName != "" && tableName != null) {
-            SQLiteDatabase db = instance.getWritableDatabase();
-            db.execSQL("DROP TABLE IF EXISTS " + tableName);
-            db.execSQL("DELETE FROM " + VOCAB_METADATA_TABLE + " WHERE " + META_KEY_TABLE_NAME + "='" + tableName + "'");
-            db.close();
+        if(tableName != null && !tableName.equals("")) {
+            long start = Metrics.start();
+            writes.discard(tableName);
+            SQLiteDatabase db = connections.acquire();
+            int deleted;
+            try {
+                deleted = db.delete(VOCAB_METADATA_TABLE, META_KEY_TABLE_NAME + "=?", new String[]{tableName}); // Words go with it (ON DELETE CASCADE)
+                Long id = vocabIds.remove(tableName);
+                if (id != null) {
+                    sortKeys.remove(id);
+                }
+                cache.invalidate(tableName);
+            } finally {
+                connections.release(db);
+            }
+            Metrics.record(Metrics.Op.DELETE_VOCABULARY, start, deleted);
         }
     }
 
@@ -111,17 +305,22 @@ public class DB extends SQLiteOpenHelper{
      * @return (ArrayList<String>) list of vocabulary names
      */
     public  ArrayList<String> getAllVacabNames (){
-        SQLiteDatabase db = instance.getWritableDatabase();
+        long start = Metrics.start();
+        SQLiteDatabase db = connections.acquire();
         ArrayList<String> vocabs = new ArrayList<String>();
-        Cursor c = db.rawQuery("SELECT " + META_KEY_NAME + " FROM VOCAB_METADATA_TABLE", null);
-        if (c.moveToFirst()) {
-            while ( !c.isAfterLast() ) {
-                vocabs.add(c.getString(0));
-                c.moveToNext();
+        try {
+            Cursor c = db.rawQuery("SELECT " + META_KEY_NAME + " FROM " + VOCAB_METADATA_TABLE, null);
+            if (c.moveToFirst()) {
+                while ( !c.isAfterLast() ) {
+                    vocabs.add(c.getString(0));
+                    c.moveToNext();
+                }
             }
+            c.close();
+        } finally {
+            connections.release(db);
         }
-        c.close();
-        db.close();
+        Metrics.record(Metrics.Op.GET_ALL_VOCAB_NAMES, start, vocabs.size());
         return vocabs;
     }
 
@@ -130,17 +329,22 @@ public class DB extends SQLiteOpenHelper{
      * @return (ArrayList<String>) list of vocabulary table names
      */
     public ArrayList<String> getAllVacabTables (){
-        SQLiteDatabase db = instance.getWritableDatabase();
+        long start = Metrics.start();
+        SQLiteDatabase db = connections.acquire();
         ArrayList<String> vocabs = new ArrayList<String>();
-        Cursor c = db.rawQuery("SELECT " + META_KEY_TABLE_NAME + " FROM VOCAB_METADATA_TABLE", null);
-        if (c.moveToFirst()) {
-            while ( !c.isAfterLast() ) {
-                vocabs.add(c.getString(0));
-                c.moveToNext();
+        try {
+            Cursor c = db.rawQuery("SELECT " + META_KEY_TABLE_NAME + " FROM " + VOCAB_METADATA_TABLE, null);
+            if (c.moveToFirst()) {
+                while ( !c.isAfterLast() ) {
+                    vocabs.add(c.getString(0));
+                    c.moveToNext();
+                }
             }
+            c.close();
+        } finally {
+            connections.release(db);
         }
-        c.close();
-        db.close();
+        Metrics.record(Metrics.Op.GET_ALL_VOCAB_TABLES, start, vocabs.size());
         return vocabs;
     }
 
@@ -149,42 +353,51 @@ public class DB extends SQLiteOpenHelper{
      * @return (ArrayList<String[]>) list of vocabulary names and their table names
      */
     public ArrayList<String[]> getVocabNamesAndTablesArrayList (){
-        String q = "SELECT * FROM " + VOCAB_METADATA_TABLE;
-        SQLiteDatabase db = instance.getReadableDatabase();
-        Cursor cursor = db.rawQuery(q, null);
-
+        long start = Metrics.start();
+        String q = "SELECT " + META_KEY_ID + ", " + META_KEY_NAME + ", " + META_KEY_TABLE_NAME + " FROM " + VOCAB_METADATA_TABLE;
+        SQLiteDatabase db = connections.acquire();
         ArrayList<String[]> vocabs = new ArrayList<>();
+        try {
+            Cursor cursor = db.rawQuery(q, null);
 
-        if (cursor.moveToFirst()) {
-            while ( !cursor.isAfterLast() ) {
-                vocabs.add(new String[] {cursor.getString(0), cursor.getString(1),cursor.getString(2)});
-                cursor.moveToNext();
+            if (cursor.moveToFirst()) {
+                while ( !cursor.isAfterLast() ) {
+                    vocabs.add(new String[] {cursor.getString(0), cursor.getString(1),cursor.getString(2)});
+                    cursor.moveToNext();
+                }
             }
+            cursor.close();
+        } finally {
+            connections.release(db);
         }
-        cursor.close();
-        db.close();
+        Metrics.record(Metrics.Op.GET_VOCABS_ARRAY_LIST, start, vocabs.size());
         return vocabs;
     }
 
     /**
-     * Returns list of Vocabulary objects with names and table names of all the existing vocabs in the system.
+     * Returns list of Vocabulary objects with names, table names and word counts of all the existing vocabs in the system.
      * @return (ArrayList<Vocabulary>) list of vocabulary objects
      */
     public ArrayList<Vocabulary> getVocabNamesAndTablesObjects (){
-        String q = "SELECT * FROM " + VOCAB_METADATA_TABLE;
-        SQLiteDatabase db = instance.getReadableDatabase();
-        Cursor cursor = db.rawQuery(q, null);
-
+        long start = Metrics.start();
+        flushPending(null); // Word counts are kept by the database
+        String q = "SELECT " + META_KEY_ID + ", " + META_KEY_NAME + ", " + META_KEY_TABLE_NAME + ", " + META_KEY_WORD_COUNT + " FROM " + VOCAB_METADATA_TABLE;
+        SQLiteDatabase db = connections.acquire();
         ArrayList<Vocabulary> vocabs = new ArrayList<>();
+        try {
+            Cursor cursor = db.rawQuery(q, null);
 
-        if (cursor.moveToFirst()) {
-            while ( !cursor.isAfterLast() ) {
-                vocabs.add(new Vocabulary(Integer.parseInt(cursor.getString(0)),cursor.getString(1),cursor.getString(2)));
-                cursor.moveToNext();
+            if (cursor.moveToFirst()) {
+                while ( !cursor.isAfterLast() ) {
+                    vocabs.add(new Vocabulary(Integer.parseInt(cursor.getString(0)),cursor.getString(1),cursor.getString(2),cursor.getInt(3)));
+                    cursor.moveToNext();
+                }
             }
+            cursor.close();
+        } finally {
+            connections.release(db);
         }
-        cursor.close();
-        db.close();
+        Metrics.record(Metrics.Op.GET_VOCABS_OBJECTS, start, vocabs.size());
         return vocabs;
     }
 
@@ -193,9 +406,17 @@ public class DB extends SQLiteOpenHelper{
      * @return (Cursor) of vocabulary names and their table names
      */
     public Cursor getVocabNamesAndTablesCursor (){
-        String q = "SELECT * FROM " + VOCAB_METADATA_TABLE;
-        SQLiteDatabase db = instance.getReadableDatabase();
-        return db.rawQuery(q, null);
+        long start = Metrics.start();
+        String q = "SELECT " + META_KEY_ID + ", " + META_KEY_NAME + ", " + META_KEY_TABLE_NAME + " FROM " + VOCAB_METADATA_TABLE;
+        SQLiteDatabase db = connections.acquire();
+        Cursor cursor;
+        try {
+            cursor = db.rawQuery(q, null);
+        } finally {
+            connections.release(db); // The shared connection stays open while the cursor is in use
+        }
+        Metrics.record(Metrics.Op.GET_VOCABS_CURSOR, start, 0); // Rows are read lazily by the caller
+        return cursor;
     }
 
     /**
@@ -203,18 +424,23 @@ public class DB extends SQLiteOpenHelper{
      * @return (Map<String, String>) map of vocabulary names and their table names
      */
     public Map<String, String> getVocabNamesAndTablesMap (){
-        String q = "SELECT * FROM " + VOCAB_METADATA_TABLE;
-        SQLiteDatabase db = instance.getReadableDatabase();
-        Cursor cursor = db.rawQuery(q, null);
+        long start = Metrics.start();
+        String q = "SELECT " + META_KEY_ID + ", " + META_KEY_NAME + ", " + META_KEY_TABLE_NAME + " FROM " + VOCAB_METADATA_TABLE;
+        SQLiteDatabase db = connections.acquire();
         Map<String, String> map = new HashMap<>();
-        if (cursor.moveToFirst()) {
-            while ( !cursor.isAfterLast() ) {
-                map.put(cursor.getString(1),cursor.getString(2));
-                cursor.moveToNext();
+        try {
+            Cursor cursor = db.rawQuery(q, null);
+            if (cursor.moveToFirst()) {
+                while ( !cursor.isAfterLast() ) {
+                    map.put(cursor.getString(1),cursor.getString(2));
+                    cursor.moveToNext();
+                }
             }
+            cursor.close();
+        } finally {
+            connections.release(db);
         }
-        cursor.close();
-        db.close();
+        Metrics.record(Metrics.Op.GET_VOCABS_MAP, start, map.size());
         return map;
     }
 
@@ -224,17 +450,305 @@ public class DB extends SQLiteOpenHelper{
     /////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * Add word to a vocab
+     * Add word to a vocab. If the vocab has the word already (see WordKeys), its meanings are merged into it instead.
      * @param word (Word) - word to add
      * @param tableName (String) - name of the vocab table
+     * @return (long) id of the new record or of the word it was merged into, -1 on failure
+     */
+    public long addWord (Word word, String tableName){
+        long start = Metrics.start();
+        synchronized (writes) { // No id is reserved by the queue until the word has its id
+            writes.flush(); // Queued writes go first
+            Word duplicate = findDuplicate(tableName, word);
+            if (duplicate != null) {
+                Word merged = merge(duplicate, word);
+                if (merged != duplicate) {
+                    updateWord(duplicate.getId(), merged, tableName);
+                }
+                Metrics.record(Metrics.Op.ADD_WORD, start, 0);
+                return duplicate.getId();
+            }
+            long vocabId = vocabId(tableName);
+            byte[] key = sortKey(vocabId, word);
+            long id = statements.executeInsert("addWord", SQL_INSERT_WORD, vocabId, word.getWord(), word.getMeanings(), key, WordKeys.of(word.getWord()));
+            if (id != -1) {
+                cache.insert(tableName, new Word((int) id, word.getWord(), word.getMeanings(), key));
+            }
+            Metrics.record(Metrics.Op.ADD_WORD, start, id != -1 ? 1 : 0);
+            return id;
+        }
+    }
+
+    /**
+     * Add a collection of words to a vocab using default batch size and commit interval.
+     * Words the vocab has already get the new meanings merged in.
+     * @param words (Collection<Word>) - words to add
+     * @param tableName (String) - name of the vocab table
+     * @return (int) number of inserted words
+     */
+    public int addWords (Collection<Word> words, String tableName){
+        return addWords(words, tableName, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * Add a collection of words to a vocab. Words the vocab has already get the new meanings merged in.
+     * @param words (Collection<Word>) - words to add
+     * @param tableName (String) - name of the vocab table
+     * @param batchSize (int) - max number of rows per transaction
+     * @param commitInterval (long) - max time in ms a transaction is kept open
+     * @return (int) number of inserted words
+     */
+    public int addWords (Collection<Word> words, String tableName, int batchSize, long commitInterval){
+        return addWords(words, tableName, batchSize, commitInterval, new DuplicateFilter(DuplicateFilter.Policy.MERGE));
+    }
+
+    /**
+     * Add a collection of words to a vocab. One compiled INSERT statement is reused for all the rows,
+     * and a transaction is committed every batchSize rows or once commitInterval ms have passed, whichever comes first.
+     * Duplicates are found in the hash map of the filter, filled with the keys of the words to add in a few queries
+     * over the unique index, so no row is looked up one by one: words that are already in the vocab, or earlier in the
+     * collection, are skipped, overwritten or merged as the filter says.
+     * The map can be behind the table when words are added or deleted between the chunks of an import: an insert that
+     * hits the unique index is ignored and the row is handled as a duplicate of the word found by its key, and a word
+     * to overwrite or merge into that is gone is inserted again. The filter only keeps what was committed.
+     * Merged meanings are read and written back in batches once all the words are inserted.
+     * @param words (Collection<Word>) - words to add
+     * @param tableName (String) - name of the vocab table
+     * @param batchSize (int) - max number of rows per transaction
+     * @param commitInterval (long) - max time in ms a transaction is kept open
+     * @param filter (DuplicateFilter) - what to do with duplicates, pass the same one to all the chunks of an import
+     * @return (int) number of inserted words
+     */
+    public int addWords (Collection<Word> words, String tableName, int batchSize, long commitInterval, DuplicateFilter filter){
+        if(words.isEmpty()){
+            return 0;
+        }
+        synchronized (writes) { // No id is reserved by the queue while SQLite assigns ids, e.g. to the words of an import
+            writes.flush(); // Queued writes go first
+            return insertWords(words, tableName, batchSize, commitInterval, filter);
+        }
+    }
+
+    /**
+     * Helper function of addWords(), called with the lock of the write-behind queue held.
+     */
+    private int insertWords (Collection<Word> words, String tableName, int batchSize, long commitInterval, DuplicateFilter filter){
+        long start = Metrics.start();
+        int inserted = 0;
+        int inBatch = 0;
+        long vocabId = vocabId(tableName);
+        SortKeys keys = sortKeys(vocabId);
+        SQLiteDatabase db = connections.acquire();
+        try {
+            filter.bind(tableName);
+            loadDedupKeys(db, vocabId, words, filter);
+            Map<Integer, Word> toMerge = new LinkedHashMap<>(); // Word id -> word with the meanings to merge into it
+            SQLiteStatement insert = db.compileStatement(SQL_INSERT_WORD_OR_IGNORE);
+            SQLiteStatement update = db.compileStatement(SQL_UPDATE_WORD);
+            SQLiteStatement find = db.compileStatement(SQL_FIND_ID);
+            try {
+                long batchStart = SystemClock.uptimeMillis();
+                db.beginTransactionNonExclusive();
+                try {
+                    for (Word word : words) {
+                        String dedupKey = WordKeys.of(word.getWord());
+                        Integer existing = filter.find(dedupKey);
+                        if (existing == null) {
+                            bindWord(insert, vocabId, word, keys);
+                            long id = insert.executeInsert();
+                            if (id != -1) {
+                                filter.add(dedupKey, (int) id);
+                                filter.inserted++;
+                                inserted++;
+                            } else { // Added since the keys were loaded
+                                find.bindLong(1, vocabId);
+                                find.bindString(2, dedupKey);
+                                id = find.simpleQueryForLong();
+                                if (id != -1) {
+                                    existing = (int) id;
+                                    filter.add(dedupKey, existing);
+                                } else {
+                                    filter.skipped++; // Ignored for another reason, e.g. an empty word
+                                }
+                            }
+                        }
+                        if (existing != null) {
+                            if (filter.policy == DuplicateFilter.Policy.OVERWRITE) {
+                                update.clearBindings();
+                                update.bindString(1, word.getWord());
+                                bindNullable(update, 2, word.getMeanings());
+                                update.bindBlob(3, word.getSortKey() != null ? word.getSortKey() : keys.key(word.getWord()));
+                                update.bindString(4, dedupKey);
+                                update.bindLong(5, existing);
+                                update.bindLong(6, vocabId);
+                                if (update.executeUpdateDelete() > 0) {
+                                    filter.overwritten++;
+                                } else { // Deleted since the keys were loaded
+                                    bindWord(insert, vocabId, word, keys);
+                                    long id = insert.executeInsert();
+                                    if (id != -1) {
+                                        filter.add(dedupKey, (int) id);
+                                        filter.inserted++;
+                                        inserted++;
+                                    }
+                                }
+                            } else if (filter.policy == DuplicateFilter.Policy.MERGE) {
+                                Word queued = toMerge.get(existing);
+                                toMerge.put(existing, queued == null ? word : new Word(queued.getWord(), Meanings.merge(queued.getListOfMeanings(), word.getListOfMeanings())));
+                                filter.merged++;
+                            } else {
+                                filter.skipped++;
+                            }
+                        }
+                        inBatch++;
+                        if (inBatch >= batchSize || SystemClock.uptimeMillis() - batchStart >= commitInterval) { // Commit and start a new batch
+                            db.setTransactionSuccessful();
+                            db.endTransaction();
+                            filter.commit();
+                            db.beginTransactionNonExclusive();
+                            batchStart = SystemClock.uptimeMillis();
+                            inBatch = 0;
+                        }
+                    }
+                    mergeMeanings(db, toMerge);
+                    for (Word word : toMerge.values()) { // Deleted since the keys were loaded
+                        bindWord(insert, vocabId, word, keys);
+                        long id = insert.executeInsert();
+                        if (id != -1) {
+                            filter.add(WordKeys.of(word.getWord()), (int) id);
+                            filter.merged--; // Its first word is a new one, the others were merged into it
+                            filter.inserted++;
+                            inserted++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                filter.commit();
+            } finally {
+                filter.rollback(); // Forgets what wasn't committed, if anything
+                insert.close();
+                update.close();
+                find.close();
+                cache.invalidate(tableName); // Reloaded in one query when it is needed again
+            }
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.ADD_WORDS, start, inserted);
+        return inserted;
+    }
+
+    /**
+     * Helper function to look up the dedup keys of the words to insert that the filter doesn't know yet.
+     * Only these keys are read, in batches over the unique index, so the cost depends on the words and not on the vocab.
      */
-    public void addWord (Word word, String tableName){
-        SQLiteDatabase db = instance.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(WORD_KEY_WORD, word.getWord());
-        values.put(WORD_KEY_MEANINGS, word.getMeanings());
-        db.insert(tableName, null,values);
-        db.close();
+    private void loadDedupKeys (SQLiteDatabase db, long vocabId, Collection<Word> words, DuplicateFilter filter){
+        List<String> keys = new ArrayList<>();
+        Set<String> unique = new HashSet<>();
+        for (Word word : words) {
+            String key = WordKeys.of(word.getWord());
+            if (!filter.ids.containsKey(key) && unique.add(key)) {
+                keys.add(key);
+            }
+        }
+        for (int from = 0; from < keys.size(); from += MERGE_BATCH_SIZE) {
+            int to = Math.min(keys.size(), from + MERGE_BATCH_SIZE);
+            String[] args = new String[to - from + 1];
+            args[0] = String.valueOf(vocabId);
+            StringBuilder in = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                in.append(i == from ? "?" : ",?");
+                args[i - from + 1] = keys.get(i);
+            }
+            Cursor cursor = db.rawQuery("SELECT " + WORD_KEY_DEDUP_KEY + ", " + WORD_KEY_ID + " FROM " + WORDS_TABLE
+                    + " WHERE " + WORD_KEY_VOCAB_ID + "=? AND " + WORD_KEY_DEDUP_KEY + " IN (" + in + ")", args);
+            while (cursor.moveToNext()) {
+                filter.ids.put(cursor.getString(0), cursor.getInt(1));
+            }
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper function of addWords() to merge meanings into existing words. The words are read by id in batches
+     * and only the ones that get a new meaning are written back. The words found are removed from the map,
+     * so what is left are the words that don't exist anymore.
+     * @param toMerge (Map<Integer, Word>) - word id -> word with the meanings to merge into it
+     */
+    private void mergeMeanings (SQLiteDatabase db, Map<Integer, Word> toMerge){
+        if (toMerge.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(toMerge.keySet());
+        SQLiteStatement update = db.compileStatement("UPDATE " + WORDS_TABLE + " SET " + WORD_KEY_MEANINGS + "=? WHERE " + WORD_KEY_ID + "=?");
+        for (int from = 0; from < ids.size(); from += MERGE_BATCH_SIZE) {
+            StringBuilder in = new StringBuilder();
+            for (int i = from; i < Math.min(ids.size(), from + MERGE_BATCH_SIZE); i++) {
+                in.append(in.length() == 0 ? "" : ",").append(ids.get(i));
+            }
+            Cursor cursor = db.rawQuery("SELECT " + WORD_KEY_ID + ", " + WORD_KEY_MEANINGS + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID + " IN (" + in + ")", null);
+            while (cursor.moveToNext()) {
+                List<String> meanings = Meanings.decode(cursor.getString(1));
+                List<String> merged = Meanings.merge(meanings, toMerge.remove(cursor.getInt(0)).getListOfMeanings());
+                if (merged == meanings) {
+                    continue; // Nothing new
+                }
+                update.bindString(1, Meanings.encode(merged));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+            cursor.close();
+        }
+        update.close();
+    }
+
+    /**
+     * Runs a unit of work inside a single transaction. The transaction is rolled back if the work throws.
+     * @param transaction (Transaction) - work to execute
+     */
+    public void runInTransaction (Transaction transaction){
+        long start = Metrics.start();
+        synchronized (writes) { // The work may insert words, so no id is reserved by the queue meanwhile
+            writes.flush(); // Queued writes go first
+            SQLiteDatabase db = connections.acquire();
+            try {
+                db.beginTransactionNonExclusive();
+                try {
+                    transaction.run(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    cache.invalidateAll(); // Anything may have been written
+                }
+            } finally {
+                connections.release(db);
+            }
+        }
+        Metrics.record(Metrics.Op.RUN_IN_TRANSACTION, start, 0);
+    }
+
+    /**
+     * Helper function to bind word fields to a compiled INSERT statement.
+     * @param statement (SQLiteStatement) - statement with vocab id, word, meanings, sort key and dedup key parameters
+     * @param vocabId (long) - id of the vocabulary
+     * @param word (Word) - word to bind
+     * @param keys (SortKeys) - keys of the locale of the vocabulary
+     */
+    private void bindWord (SQLiteStatement statement, long vocabId, Word word, SortKeys keys){
+        statement.clearBindings();
+        statement.bindLong(1, vocabId);
+        statement.bindString(2, word.getWord());
+        if(word.getMeanings() != null){
+            statement.bindString(3, word.getMeanings());
+        }
+        else{
+            statement.bindNull(3);
+        }
+        byte[] key = word.getSortKey() != null ? word.getSortKey() : keys.key(word.getWord());
+        statement.bindBlob(4, key);
+        statement.bindString(5, WordKeys.of(word.getWord()));
     }
 
     /**
@@ -244,17 +758,69 @@ public class DB extends SQLiteOpenHelper{
      * @return (Word)
      */
     public Word getWord (int id, String tableName){
-        SQLiteDatabase db = instance.getReadableDatabase();
-        Cursor cursor = db.query(tableName, new String[]{WORD_KEY_ID, WORD_KEY_WORD, WORD_KEY_MEANINGS}, WORD_KEY_ID + "=?", new String []{String.valueOf(id)}, null, null, null);
-        if(cursor != null){
-            cursor.moveToFirst();
-        }
-        Word word = new Word(Integer.parseInt(cursor.getString(0)), cursor.getString(1), cursor.getString(2));
-        cursor.close();
-        db.close();
+        long start = Metrics.start();
+        flushPending(tableName);
+        SQLiteDatabase db = connections.acquire();
+        Word word;
+        try {
+            Cursor cursor = db.rawQuery(SQL_GET_WORD, new String []{String.valueOf(id), String.valueOf(vocabId(tableName))}); // Same SQL every time, so SQLite reuses the prepared statement
+            if(cursor != null){
+                cursor.moveToFirst();
+            }
+            word = new Word(Integer.parseInt(cursor.getString(0)), cursor.getString(1), cursor.getString(2));
+            cursor.close();
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.GET_WORD, start, 1);
         return word;
     }
 
+    /**
+     * Finds another word of a vocab that is the same word, see WordKeys. The queued words are not written for it:
+     * the dedup keys of the write-behind queue are checked first, then the unique index of the table, where a row
+     * with a queued write doesn't count, the queue is about to change or delete it.
+     * @param tableName (String) - name of the vocab table
+     * @param word (Word) - word to look for, a word with the same id doesn't count
+     * @return (Word) the duplicate or null
+     */
+    @Nullable
+    public Word findDuplicate (String tableName, Word word){
+        long start = Metrics.start();
+        String key = WordKeys.of(word.getWord());
+        Word duplicate;
+        synchronized (writes) { // No flush in between, so every word is either queued or in the table
+            duplicate = writes.findPending(tableName, key, word.getId());
+            if (duplicate == null) {
+                SQLiteDatabase db = connections.acquire();
+                try {
+                    Cursor cursor = query(db, SQL_FIND_DUPLICATE, new Object[]{vocabId(tableName), key, word.getId()});
+                    if (cursor.moveToFirst() && !writes.hasPending(tableName, cursor.getInt(0))) {
+                        duplicate = new Word(cursor.getInt(0), cursor.getString(1), cursor.getString(2));
+                    }
+                    cursor.close();
+                } finally {
+                    connections.release(db);
+                }
+            }
+        }
+        Metrics.record(Metrics.Op.FIND_DUPLICATE, start, duplicate != null ? 1 : 0);
+        return duplicate;
+    }
+
+    /**
+     * Helper function to merge the meanings of a word into its duplicate.
+     * @return (Word) the duplicate with the meanings it didn't have, the duplicate itself if there are none
+     */
+    private static Word merge(Word duplicate, Word word){
+        List<String> meanings = duplicate.getListOfMeanings();
+        List<String> merged = Meanings.merge(meanings, word.getListOfMeanings());
+        if (merged == meanings) {
+            return duplicate;
+        }
+        return new Word(duplicate.getId(), duplicate.getWord(), Meanings.encode(merged));
+    }
+
 
     /**
      * Retrieve words from a vocabulary in ascending order.
@@ -262,33 +828,307 @@ public class DB extends SQLiteOpenHelper{
      * @return (List<Word>) list of word objects
      */
     public List<Word> getWords(String tableName){
+        long start = Metrics.start();
+        List<Word> cached = ensureCached(tableName) ? cache.all(tableName) : null;
+        List<Word> words = cached != null ? cached : loadWords(tableName);
+        Metrics.record(Metrics.Op.GET_WORDS, start, words.size());
+        return words;
+    }
+
+    /**
+     * Helper function to read all the words of a vocabulary from the database, bypassing the cache.
+     */
+    private List<Word> loadWords(String tableName){
+        flushPending(tableName);
         List<Word> words = new ArrayList<>();
-        String q = "SELECT * FROM " + tableName + " ORDER BY " + WORD_KEY_WORD + " ASC";
-        SQLiteDatabase db = instance.getWritableDatabase();
-        Cursor cursor = db.rawQuery(q, null);
-        if(cursor.moveToFirst()){
-            do{
-                words.add(new Word(Integer.parseInt(cursor.getString(0)), cursor.getString(1), cursor.getString(2)));
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-        db.close();
+        String q = "SELECT " + WORD_KEY_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ", " + WORD_KEY_SORT_KEY + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_VOCAB_ID + "=? ORDER BY " + WORD_KEY_SORT_KEY + " ASC, " + WORD_KEY_ID + " ASC";
+        SQLiteDatabase db = connections.acquire();
+        try {
+            Cursor cursor = db.rawQuery(q, new String[]{String.valueOf(vocabId(tableName))});
+            if(cursor.moveToFirst()){
+                do{
+                    words.add(new Word(cursor.getInt(0), cursor.getString(1), cursor.getString(2), cursor.getBlob(3))); // Keys keep the cached words in order
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        } finally {
+            connections.release(db);
+        }
+        return words;
+    }
+
+    /**
+     * Returns a Cursor over the words of a vocabulary in ascending order. Columns are _id, word and meanings.
+     * Callers must close the cursor.
+     * @param tableName (String) - table name
+     * @return (Cursor) cursor over the words
+     */
+    public Cursor getWordsCursor(String tableName){
+        long start = Metrics.start();
+        flushPending(tableName);
+        String q = "SELECT " + WORD_KEY_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_VOCAB_ID + "=? ORDER BY " + WORD_KEY_SORT_KEY + " ASC, " + WORD_KEY_ID + " ASC";
+        SQLiteDatabase db = connections.acquire();
+        Cursor cursor;
+        try {
+            cursor = db.rawQuery(q, new String[]{String.valueOf(vocabId(tableName))});
+        } finally {
+            connections.release(db); // The shared connection stays open while the cursor is in use
+        }
+        Metrics.record(Metrics.Op.GET_WORDS_CURSOR, start, 0); // Rows are read lazily by the caller
+        return cursor;
+    }
+
+    /**
+     * Retrieve a window of words that come right after a given word in ascending order (keyset pagination).
+     * @param tableName (String) - table name
+     * @param after (Word) - last word of the previous window, null to start from the beginning
+     * @param limit (int) - max number of words
+     * @param excludedIds (Collection<Integer>) - ids to leave out, can be null
+     * @return (List<Word>) list of word objects
+     */
+    public List<Word> getWordsAfter(String tableName, @Nullable Word after, int limit, @Nullable Collection<Integer> excludedIds){
+        long start = Metrics.start();
+        Word anchor = after == null ? null : withSortKey(tableName, after);
+        List<Word> words = ensureCached(tableName) ? cache.after(tableName, anchor, limit, excludedIds) : null;
+        if (words == null) {
+            String where = anchor == null ? "1" : "(" + WORD_KEY_SORT_KEY + " > ? OR (" + WORD_KEY_SORT_KEY + " = ? AND " + WORD_KEY_ID + " > ?))";
+            Object[] args = anchor == null ? null : new Object[]{anchor.getSortKey(), anchor.getSortKey(), anchor.getId()};
+            words = queryWordsWindow(tableName, where + excludeIds(excludedIds), args, "ASC", limit, 0);
+        }
+        Metrics.record(Metrics.Op.GET_WORDS_AFTER, start, words.size());
+        return words;
+    }
+
+    /**
+     * Retrieve a window of words that come right before a given word, returned in ascending order (keyset pagination).
+     * @param tableName (String) - table name
+     * @param before (Word) - first word of the next window
+     * @param limit (int) - max number of words
+     * @param excludedIds (Collection<Integer>) - ids to leave out, can be null
+     * @return (List<Word>) list of word objects
+     */
+    public List<Word> getWordsBefore(String tableName, Word before, int limit, @Nullable Collection<Integer> excludedIds){
+        long start = Metrics.start();
+        Word anchor = withSortKey(tableName, before);
+        List<Word> words = ensureCached(tableName) ? cache.before(tableName, anchor, limit, excludedIds) : null;
+        if (words == null) {
+            String where = "(" + WORD_KEY_SORT_KEY + " < ? OR (" + WORD_KEY_SORT_KEY + " = ? AND " + WORD_KEY_ID + " < ?))";
+            Object[] args = new Object[]{anchor.getSortKey(), anchor.getSortKey(), anchor.getId()};
+            words = queryWordsWindow(tableName, where + excludeIds(excludedIds), args, "DESC", limit, 0);
+            Collections.reverse(words);
+        }
+        Metrics.record(Metrics.Op.GET_WORDS_BEFORE, start, words.size());
+        return words;
+    }
+
+    /**
+     * Retrieve a window of words starting at a given position. Used only to jump far away from the loaded rows,
+     * keyset queries should be used to move on from there.
+     * @param tableName (String) - table name
+     * @param offset (int) - position of the first word
+     * @param limit (int) - max number of words
+     * @param excludedIds (Collection<Integer>) - ids to leave out, can be null
+     * @return (List<Word>) list of word objects
+     */
+    public List<Word> getWordsAt(String tableName, int offset, int limit, @Nullable Collection<Integer> excludedIds){
+        long start = Metrics.start();
+        List<Word> words = ensureCached(tableName) ? cache.at(tableName, offset, limit, excludedIds) : null;
+        if (words == null) {
+            words = queryWordsWindow(tableName, "1" + excludeIds(excludedIds), null, "ASC", limit, offset);
+        }
+        Metrics.record(Metrics.Op.GET_WORDS_AT, start, words.size());
+        return words;
+    }
+
+    /**
+     * Retrieve a window of words starting at a sort key, e.g. the key of a section of a SectionIndex (keyset pagination).
+     * @param tableName (String) - table name
+     * @param sortKey (byte[]) - the first word returned is the first one with a key that isn't smaller
+     * @param limit (int) - max number of words
+     * @param excludedIds (Collection<Integer>) - ids to leave out, can be null
+     * @return (List<Word>) list of word objects
+     */
+    public List<Word> getWordsFrom(String tableName, byte[] sortKey, int limit, @Nullable Collection<Integer> excludedIds){
+        return getWordsAfter(tableName, new Word(0, null, null, sortKey), limit, excludedIds); // Ids start at 1, so the key itself is included
+    }
+
+    /**
+     * Builds the section index of a vocabulary with one grouped query: the words are counted by their first
+     * character and the groups are merged into sections by the SectionIndex.
+     * @param tableName (String) - table name
+     * @param excludedIds (Collection<Integer>) - ids to leave out, can be null
+     * @return (SectionIndex) section index in the locale of the vocabulary
+     */
+    public SectionIndex getSectionIndex(String tableName, @Nullable Collection<Integer> excludedIds){
+        long start = Metrics.start();
+        flushPending(tableName);
+        long vocabId = vocabId(tableName);
+        SectionIndex index = new SectionIndex(sortKeys(vocabId).getLocale());
+        String q = "SELECT substr(" + WORD_KEY_WORD + ", 1, 1), COUNT(*), MIN(" + WORD_KEY_SORT_KEY + ") AS first FROM " + WORDS_TABLE
+                + " WHERE " + WORD_KEY_VOCAB_ID + "=?" + excludeIds(excludedIds) + " GROUP BY 1 ORDER BY first";
+        SQLiteDatabase db = connections.acquire();
+        try {
+            Cursor cursor = db.rawQuery(q, new String[]{String.valueOf(vocabId)});
+            while (cursor.moveToNext()) {
+                index.addGroup(cursor.getString(0), cursor.getInt(1), cursor.getBlob(2));
+            }
+            cursor.close();
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.GET_SECTION_INDEX, start, index.size());
+        return index;
+    }
+
+    /**
+     * Returns the position a word has (or would have) in the ascending list of words.
+     * @param tableName (String) - table name
+     * @param word (Word) - word with its id set
+     * @param excludedIds (Collection<Integer>) - ids to leave out, can be null
+     * @return (int) position
+     */
+    public int getWordPosition(String tableName, Word word, @Nullable Collection<Integer> excludedIds){
+        long start = Metrics.start();
+        Word anchor = withSortKey(tableName, word);
+        int position = ensureCached(tableName) ? cache.position(tableName, anchor, excludedIds) : -1;
+        if (position < 0) {
+            flushPending(tableName);
+            String q = "SELECT COUNT(*) FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_VOCAB_ID + "=? AND (" + WORD_KEY_SORT_KEY + " < ? OR (" + WORD_KEY_SORT_KEY + " = ? AND " + WORD_KEY_ID + " < ?))" + excludeIds(excludedIds);
+            SQLiteDatabase db = connections.acquire();
+            try {
+                SQLiteStatement count = db.compileStatement(q); // Keys are BLOBs, which longForQuery() can't bind
+                try {
+                    StatementCache.bindAll(count, new Object[]{vocabId(tableName), anchor.getSortKey(), anchor.getSortKey(), anchor.getId()});
+                    position = (int) count.simpleQueryForLong();
+                } finally {
+                    count.close();
+                }
+            } finally {
+                connections.release(db);
+            }
+        }
+        Metrics.record(Metrics.Op.GET_WORD_POSITION, start, 1);
+        return position;
+    }
+
+    /**
+     * Makes sure the words of a vocabulary are cached, loading them in one query if the vocabulary is small enough.
+     * Larger vocabularies are paged straight from the database.
+     * @param tableName (String) - table name
+     * @return (boolean) true if the words are cached
+     */
+    private boolean ensureCached(String tableName){
+        if (cache.contains(tableName)) {
+            return true;
+        }
+        if (!cache.fits(wordsCount(tableName))) {
+            return false;
+        }
+        int version = cache.version();
+        cache.put(tableName, loadWords(tableName), version);
+        return cache.contains(tableName);
+    }
+
+    /**
+     * Helper function to run a windowed query ordered by (sort_key, id).
+     */
+    private List<Word> queryWordsWindow(String tableName, String where, Object[] args, String order, int limit, int offset){
+        flushPending(tableName);
+        List<Word> words = new ArrayList<>(limit);
+        String q = "SELECT " + WORD_KEY_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ", " + WORD_KEY_SORT_KEY + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_VOCAB_ID + "=? AND " + where
+                + " ORDER BY " + WORD_KEY_SORT_KEY + " " + order + ", " + WORD_KEY_ID + " " + order + " LIMIT ? OFFSET ?"; // Bound, so the SQL of a page repeats and its statement is reused
+        Object[] allArgs = new Object[args == null ? 3 : args.length + 3];
+        allArgs[0] = vocabId(tableName);
+        if (args != null) {
+            System.arraycopy(args, 0, allArgs, 1, args.length);
+        }
+        allArgs[allArgs.length - 2] = limit;
+        allArgs[allArgs.length - 1] = offset;
+        SQLiteDatabase db = connections.acquire();
+        try {
+            Cursor cursor = query(db, q, allArgs);
+            while (cursor.moveToNext()) {
+                words.add(new Word(cursor.getInt(0), cursor.getString(1), cursor.getString(2), cursor.getBlob(3)));
+            }
+            cursor.close();
+        } finally {
+            connections.release(db);
+        }
         return words;
     }
 
     /**
-     * Update a word record.
+     * Helper function to build a condition that leaves out a set of ids.
+     */
+    private String excludeIds(@Nullable Collection<Integer> ids){
+        if (ids == null || ids.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(" AND " + WORD_KEY_ID + " NOT IN (");
+        for (Integer id : ids) {
+            sb.append(id).append(',');
+        }
+        sb.setCharAt(sb.length() - 1, ')');
+        return sb.toString();
+    }
+
+    /**
+     * Helper function to run a query with parameters of any type, see StatementCache.bindAll(). rawQuery() binds
+     * everything as text, which never compares equal to a BLOB.
+     */
+    private static Cursor query(SQLiteDatabase db, String sql, final Object[] args){
+        return db.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase database, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+                StatementCache.bindAll(query, args);
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        }, sql, null, null);
+    }
+
+    /**
+     * Update a word record. If the word is renamed to another word of the vocab, the two are merged:
+     * the other word gets the meanings and this one is deleted, both in one transaction.
      * @param id (int) - id of the word
      * @param updatedWord (Word) - Word object with new data
      * @param tableName (String) - vocab table name
      */
     public void updateWord(int id, Word updatedWord, String tableName){
-        SQLiteDatabase db = instance.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(WORD_KEY_WORD, updatedWord.getWord());
-        values.put(WORD_KEY_MEANINGS, updatedWord.getMeanings());
-        db.update(tableName, values, WORD_KEY_ID + "=?",new String []{String.valueOf(id)});
-        db.close();
+        long start = Metrics.start();
+        writes.flush(); // Queued writes go first
+        Word duplicate = findDuplicate(tableName, new Word(id, updatedWord.getWord(), null));
+        if (duplicate != null) {
+            Word merged = merge(duplicate, updatedWord);
+            boolean committed = false;
+            SQLiteDatabase db = connections.acquire();
+            try {
+                db.beginTransactionNonExclusive(); // The word is never lost, nor left next to the duplicate
+                try {
+                    if (merged != duplicate) {
+                        updateWord(duplicate.getId(), merged, tableName);
+                    }
+                    deleteWord(id, tableName);
+                    db.setTransactionSuccessful();
+                    committed = true;
+                } finally {
+                    db.endTransaction();
+                    if (!committed) {
+                        cache.invalidate(tableName); // It may have been updated by what was rolled back
+                    }
+                }
+            } finally {
+                connections.release(db);
+            }
+            Metrics.record(Metrics.Op.UPDATE_WORD, start, 1);
+            return;
+        }
+        long vocabId = vocabId(tableName);
+        byte[] key = sortKey(vocabId, updatedWord);
+        int updated = statements.executeUpdateDelete("updateWord", SQL_UPDATE_WORD, updatedWord.getWord(), updatedWord.getMeanings(), key, WordKeys.of(updatedWord.getWord()), id, vocabId);
+        if (updated > 0) {
+            cache.update(tableName, new Word(id, updatedWord.getWord(), updatedWord.getMeanings(), key));
+        }
+        Metrics.record(Metrics.Op.UPDATE_WORD, start, updated);
     }
 
     /**
@@ -297,9 +1137,7 @@ public class DB extends SQLiteOpenHelper{
      * @param tableName (String) - vocab table
      */
     public void deleteWord(Word word, String tableName){
-        SQLiteDatabase db = instance.getWritableDatabase();
-        db.delete(tableName, WORD_KEY_ID +"=?",new String []{String.valueOf(word.getId())});
-        db.close();
+        deleteWord(word.getId(), tableName);
     }
 
     /**
@@ -308,53 +1146,707 @@ public class DB extends SQLiteOpenHelper{
      * @param tableName (String) - vocab table
      */
     public void deleteWord(int id, String tableName){
-        SQLiteDatabase db = instance.getWritableDatabase();
-        db.delete(tableName, WORD_KEY_ID +"=?", new String []{String.valueOf(id)});
-        db.close();
+        long start = Metrics.start();
+        writes.flush(); // Queued writes go first
+        int deleted = statements.executeUpdateDelete("deleteWord", SQL_DELETE_WORD, id, vocabId(tableName));
+        cache.delete(tableName, id);
+        Metrics.record(Metrics.Op.DELETE_WORD, start, deleted);
     }
 
     /**
-     * Returns the number of words in a vocab
+     * Returns the number of words in a vocab. The count is kept in the vocab metadata, so no words are scanned.
      * @param tableName (String) - vocab table
      * @return (int) number of records
      */
     public int getWordsCount (String tableName){
-        String q = "SELECT * FROM " + tableName;
-        SQLiteDatabase db = instance.getReadableDatabase();
-        Cursor cursor = db.rawQuery(q, null);
-        cursor.close();
-        db.close();
-        return cursor.getCount();
+        long start = Metrics.start();
+        int count = wordsCount(tableName);
+        Metrics.record(Metrics.Op.GET_WORDS_COUNT, start, 1);
+        return count;
+    }
+
+    /**
+     * Helper function to read the number of words in a vocab, from the cache if possible.
+     */
+    private int wordsCount (String tableName){
+        int cached = cache.count(tableName);
+        if (cached >= 0) {
+            return cached;
+        }
+        flushPending(tableName);
+        return (int) statements.simpleQueryForLong("getWordsCount", SQL_WORDS_COUNT, tableName);
+    }
+
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////
+    //////////////////////////////////////////QUEUED WRITES//////////////////////////////////////////////
+    /////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Queues a new word, see WriteBehindQueue. The word is visible to reads straight away,
+     * it reaches the database with the next flush. If the vocab has the word already, its meanings are merged into it
+     * instead. Nothing is flushed for the check, see findDuplicate().
+     * @param word (Word) - word to add
+     * @param tableName (String) - name of the vocab table
+     * @return (AddedWord) the new word, or the word it was merged into
+     */
+    public AddedWord queueAddWord (Word word, String tableName){
+        long start = Metrics.start();
+        Word duplicate = findDuplicate(tableName, word);
+        if (duplicate != null) {
+            Word merged = merge(duplicate, word);
+            if (merged != duplicate) {
+                queueUpdate(duplicate.getId(), merged, tableName);
+            }
+            Metrics.record(Metrics.Op.QUEUE_ADD_WORD, start, 0);
+            return new AddedWord(merged, true);
+        }
+        Word keyed = withSortKey(tableName, word); // Computed once, the queue writes the key as well
+        int id = writes.insert(tableName, keyed);
+        Word added = new Word(id, word.getWord(), word.getMeanings(), keyed.getSortKey());
+        cache.insert(tableName, added);
+        Metrics.record(Metrics.Op.QUEUE_ADD_WORD, start, 1);
+        return new AddedWord(added, false);
+    }
+
+    /**
+     * Queues an update of a word, see WriteBehindQueue. Later updates of the same word replace it.
+     * A word renamed to another word of the vocab is merged into it, as by updateWord(). Nothing is flushed for
+     * the check, see findDuplicate().
+     * @param id (int) - id of the word
+     * @param updatedWord (Word) - Word object with new data
+     * @param tableName (String) - vocab table name
+     * @return (boolean) true if the word was merged into another one and deleted
+     */
+    public boolean queueUpdateWord (int id, Word updatedWord, String tableName){
+        long start = Metrics.start();
+        Word duplicate = findDuplicate(tableName, new Word(id, updatedWord.getWord(), null));
+        if (duplicate != null) {
+            Word merged = merge(duplicate, updatedWord);
+            if (merged != duplicate) {
+                queueUpdate(duplicate.getId(), merged, tableName);
+            }
+            queueDeleteWord(id, tableName);
+            Metrics.record(Metrics.Op.QUEUE_UPDATE_WORD, start, 1);
+            return true;
+        }
+        queueUpdate(id, updatedWord, tableName);
+        Metrics.record(Metrics.Op.QUEUE_UPDATE_WORD, start, 1);
+        return false;
+    }
+
+    /**
+     * Helper function to queue an update of a word without looking for duplicates.
+     */
+    private void queueUpdate (int id, Word updatedWord, String tableName){
+        Word keyed = withSortKey(tableName, updatedWord);
+        writes.update(tableName, id, keyed);
+        cache.update(tableName, new Word(id, updatedWord.getWord(), updatedWord.getMeanings(), keyed.getSortKey()));
+    }
+
+    /**
+     * Queues a delete of a word, see WriteBehindQueue. Deleting a word that is still queued for insertion cancels both.
+     * @param id (int) - id of the word
+     * @param tableName (String) - vocab table name
+     */
+    public void queueDeleteWord (int id, String tableName){
+        long start = Metrics.start();
+        writes.delete(tableName, id);
+        cache.delete(tableName, id);
+        Metrics.record(Metrics.Op.QUEUE_DELETE_WORD, start, 1);
+    }
+
+    /**
+     * Writes all the queued writes in one transaction and waits for it. Call it from onPause().
+     */
+    public void flushWrites (){
+        writes.flush();
+    }
+
+    /**
+     * Helper function to write the queued writes of a vocabulary before it is read from the database.
+     * Reads served by the word cache don't need it, queued writes are applied to the cache straight away.
+     * @param tableName (String) - vocab table, null for all the vocabs
+     */
+    private void flushPending (@Nullable String tableName){
+        if (writes.hasPending(tableName)) {
+            writes.flush();
+        }
+    }
+
+    /**
+     * Writes coalesced writes of the queue in a single transaction. Called by the queue with its lock held.
+     * Deletes go first, then updates, then inserts, so a word may take the dedup key of a word deleted or renamed
+     * in the same flush. The dedup keys of the updated words are cleared before any of them is written, so renames
+     * that swap keys (a to c, b to a, c to b) don't hit the unique index halfway through.
+     * @param queued (Map<String, LinkedHashMap<Integer, WriteBehindQueue.Write>>) - table name -> word id -> write
+     */
+    private void applyWrites (Map<String, LinkedHashMap<Integer, WriteBehindQueue.Write>> queued){
+        long start = Metrics.start();
+        int rows = 0;
+        SQLiteDatabase db = connections.acquire();
+        try {
+            SQLiteStatement insert = null, update = null, clearKey = null, delete = null;
+            db.beginTransactionNonExclusive();
+            try {
+                insert = db.compileStatement("INSERT INTO " + WORDS_TABLE + " (" + WORD_KEY_ID + ", " + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ", " + WORD_KEY_SORT_KEY + ", " + WORD_KEY_DEDUP_KEY + ") VALUES (?, ?, ?, ?, ?, ?)");
+                update = db.compileStatement(SQL_UPDATE_WORD);
+                clearKey = db.compileStatement("UPDATE " + WORDS_TABLE + " SET " + WORD_KEY_DEDUP_KEY + " = NULL WHERE " + WORD_KEY_ID + "=? AND " + WORD_KEY_VOCAB_ID + "=?"); // Fires no trigger
+                delete = db.compileStatement("DELETE FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID + "=? AND " + WORD_KEY_VOCAB_ID + "=?");
+                Map<String, Long> vocabIds = new HashMap<>();
+                for (String tableName : queued.keySet()) {
+                    long vocabId = vocabId(tableName);
+                    if (vocabId != -1) { // Otherwise the vocabulary was deleted
+                        vocabIds.put(tableName, vocabId);
+                    }
+                }
+                for (int pass = 0; pass < 4; pass++) {
+                    for (Map.Entry<String, Long> vocab : vocabIds.entrySet()) {
+                        long vocabId = vocab.getValue();
+                        for (Map.Entry<Integer, WriteBehindQueue.Write> entry : queued.get(vocab.getKey()).entrySet()) {
+                            WriteBehindQueue.Write write = entry.getValue();
+                            if (pass == 0 && write.type == WriteBehindQueue.Write.DELETE) {
+                                delete.clearBindings();
+                                delete.bindLong(1, entry.getKey());
+                                delete.bindLong(2, vocabId);
+                                rows += delete.executeUpdateDelete();
+                            }
+                            else if (pass == 1 && write.type == WriteBehindQueue.Write.UPDATE) {
+                                clearKey.clearBindings();
+                                clearKey.bindLong(1, entry.getKey());
+                                clearKey.bindLong(2, vocabId);
+                                clearKey.executeUpdateDelete();
+                            }
+                            else if (pass == 2 && write.type == WriteBehindQueue.Write.UPDATE) {
+                                update.clearBindings();
+                                update.bindString(1, write.word.getWord());
+                                bindNullable(update, 2, write.word.getMeanings());
+                                update.bindBlob(3, sortKey(vocabId, write.word));
+                                update.bindString(4, write.key);
+                                update.bindLong(5, entry.getKey());
+                                update.bindLong(6, vocabId);
+                                rows += update.executeUpdateDelete();
+                            }
+                            else if (pass == 3 && write.type == WriteBehindQueue.Write.INSERT) {
+                                insert.clearBindings();
+                                insert.bindLong(1, entry.getKey());
+                                insert.bindLong(2, vocabId);
+                                insert.bindString(3, write.word.getWord());
+                                bindNullable(insert, 4, write.word.getMeanings());
+                                insert.bindBlob(5, sortKey(vocabId, write.word));
+                                insert.bindString(6, write.key);
+                                rows += insert.executeInsert() != -1 ? 1 : 0;
+                            }
+                        }
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                for (SQLiteStatement statement : new SQLiteStatement[] {insert, update, clearKey, delete}) {
+                    if (statement != null) {
+                        statement.close();
+                    }
+                }
+            }
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.FLUSH_WRITES, start, rows);
+    }
+
+    /**
+     * Helper function to bind a value that may be null.
+     */
+    private void bindNullable (SQLiteStatement statement, int index, @Nullable String value){
+        if (value != null) {
+            statement.bindString(index, value);
+        }
+        else {
+            statement.bindNull(index);
+        }
     }
 
 
 
+    /////////////////////////////////////////////////////////////////////////////////////////////////////
+    //////////////////////////////////////////////REVIEWS////////////////////////////////////////////////
+    /////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Retrieve the cards of a vocab that are due, the most overdue first (keyset pagination). Every call is a seek
+     * on the index over (vocab_id, due, word_id), so later batches cost as much as the first one.
+     * @param tableName (String) - vocab table name
+     * @param now (long) - cards due up to this time are returned, ms since the epoch
+     * @param after (Card) - last card of the previous batch, null to start from the most overdue one
+     * @param limit (int) - max number of cards
+     * @return (List<Card>) cards
+     */
+    public List<Card> getDueCards(String tableName, long now, @Nullable Card after, int limit){
+        long start = Metrics.start();
+        flushPending(tableName); // Queued words get their review rows once they are written
+        long from = after == null ? Long.MIN_VALUE : after.getState().due;
+        int afterId = after == null ? 0 : after.getWord().getId();
+        List<Card> cards = new ArrayList<>(limit);
+        SQLiteDatabase db = connections.acquire();
+        try {
+            Cursor cursor = query(db, SQL_DUE_CARDS, new Object[]{vocabId(tableName), from, now, from, afterId, limit});
+            while (cursor.moveToNext()) {
+                cards.add(new Card(new Word(cursor.getInt(0), cursor.getString(1), cursor.getString(2)),
+                        new ReviewScheduler.State(cursor.getInt(3), cursor.getInt(4), cursor.getInt(5), cursor.getLong(6))));
+            }
+            cursor.close();
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.GET_DUE_CARDS, start, cards.size());
+        return cards;
+    }
+
+    /**
+     * Stores the review state of a card, see Card.review(). One row written by a cached statement.
+     * @param card (Card) - reviewed card
+     */
+    public void saveReview(Card card){
+        long start = Metrics.start();
+        ReviewScheduler.State state = card.getState();
+        int updated = statements.executeUpdateDelete("saveReview", SQL_SAVE_REVIEW, state.ease, state.interval, state.repetitions, state.due, card.getWord().getId());
+        Metrics.record(Metrics.Op.SAVE_REVIEW, start, updated);
+    }
+
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////SEARCH////////////////////////////////////////////////
+    /////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Full-text search over words and meanings of a vocab. Every term of the query is matched as a prefix,
+     * so "che" finds both "cheap" and "cheese". Results are ranked: exact word matches first, then words starting
+     * with the query, then words with a meaning starting with it, then everything else.
+     * @param tableName (String) - vocab table, null to search all the vocabularies
+     * @param query (String) - search query
+     * @param offset (int) - number of results to skip
+     * @param limit (int) - max number of results
+     * @return (List<Word>) matching words
+     */
+    public List<Word> searchWords(String tableName, String query, int offset, int limit){
+        long start = Metrics.start();
+        List<Word> words = new ArrayList<>();
+        String match = buildMatchExpression(query);
+        if (match == null) {
+            return words;
+        }
+        flushPending(tableName);
+        String q = query.trim();
+        String like = q.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        String sql = "SELECT t." + WORD_KEY_ID + ", t." + WORD_KEY_WORD + ", t." + WORD_KEY_MEANINGS
+                + " FROM " + WORDS_TABLE + " t JOIN (SELECT docid FROM " + WORDS_FTS_TABLE + " WHERE " + WORDS_FTS_TABLE + " MATCH ?) m ON t." + WORD_KEY_ID + " = m.docid"
+                + (tableName != null ? " WHERE t." + WORD_KEY_VOCAB_ID + " = " + vocabId(tableName) : "")
+                + " ORDER BY CASE WHEN t." + WORD_KEY_WORD + " = ? COLLATE NOCASE THEN 0"
+                + " WHEN t." + WORD_KEY_WORD + " LIKE ? ESCAPE '\\' THEN 1"
+                + " WHEN t." + WORD_KEY_MEANINGS + " LIKE ? ESCAPE '\\' OR t." + WORD_KEY_MEANINGS + " LIKE ? ESCAPE '\\' THEN 2 ELSE 3 END,"
+                + " length(t." + WORD_KEY_WORD + "), t." + WORD_KEY_SORT_KEY
+                + " LIMIT " + limit + " OFFSET " + offset;
+        SQLiteDatabase db = connections.acquire();
+        try {
+            Cursor cursor = db.rawQuery(sql, new String[]{match, q, like, like, "%" + Word.MEANINGS_SEPARATOR + like});
+            while (cursor.moveToNext()) {
+                words.add(new Word(cursor.getInt(0), cursor.getString(1), cursor.getString(2)));
+            }
+            cursor.close();
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.SEARCH_WORDS, start, words.size());
+        return words;
+    }
+
+    /**
+     * Helper function to turn user input into an FTS MATCH expression where every term is a quoted prefix query.
+     * @param query (String) input
+     * @return (String) MATCH expression or null if there is nothing to search for
+     */
+    private String buildMatchExpression(String query){
+        StringBuilder match = new StringBuilder();
+        for (String term : query.trim().split("\\s+")) {
+            term = term.replace("\"", "");
+            if (!term.isEmpty()) {
+                match.append('"').append(term).append("*\" ");
+            }
+        }
+        return match.length() == 0 ? null : match.toString().trim();
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////MISC/////////////////////////////////////////////////
     /////////////////////////////////////////////////////////////////////////////////////////////////////
 
 
+    /**
+     * Streams all the vocabularies with their words, ids included, into a snapshot, e.g. a Snapshot.Writer.
+     * Every word is followed by its review state, so a restore keeps the progress of the reviews. Everything is read inside one transaction, so the snapshot is consistent even if a write comes in meanwhile.
+     * @param out (Snapshot.Visitor) - destination
+     * @return (int) number of words written
+     * @throws IOException if the destination fails
+     */
+    public int writeSnapshot (Snapshot.Visitor out) throws IOException {
+        long start = Metrics.start();
+        writes.flush(); // Queued writes go first
+        int words = 0;
+        SQLiteDatabase db = connections.acquire();
+        try {
+            db.beginTransactionNonExclusive(); // Cursors run their query again for every window they fill
+            try {
+                Cursor vocabs = db.rawQuery("SELECT " + META_KEY_ID + ", " + META_KEY_NAME + ", " + META_KEY_TABLE_NAME + ", " + META_KEY_LOCALE + " FROM " + VOCAB_METADATA_TABLE + " ORDER BY " + META_KEY_ID, null);
+                try {
+                    while (vocabs.moveToNext()) {
+                        out.vocabulary(vocabs.getLong(0), vocabs.getString(1), vocabs.getString(2), vocabs.getString(3));
+                        Cursor cursor = db.rawQuery("SELECT w." + WORD_KEY_ID + ", w." + WORD_KEY_WORD + ", w." + WORD_KEY_MEANINGS + ", r." + REVIEW_KEY_EASE + ", r." + REVIEW_KEY_INTERVAL
+                                + ", r." + REVIEW_KEY_REPETITIONS + ", r." + REVIEW_KEY_DUE + " FROM " + WORDS_TABLE + " w LEFT JOIN " + REVIEWS_TABLE + " r ON r." + REVIEW_KEY_WORD_ID + " = w." + WORD_KEY_ID
+                                + " WHERE w." + WORD_KEY_VOCAB_ID + "=? ORDER BY w." + WORD_KEY_SORT_KEY + ", w." + WORD_KEY_ID,
+                                new String[]{String.valueOf(vocabs.getLong(0))}); // Order of the index, nothing to sort; reviews are looked up by their key
+                        try {
+                            while (cursor.moveToNext()) {
+                                out.word(cursor.getLong(0), cursor.getString(1), cursor.getString(2));
+                                if (!cursor.isNull(6)) {
+                                    out.review(cursor.getInt(3), cursor.getInt(4), cursor.getInt(5), cursor.getLong(6));
+                                }
+                                words++;
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                } finally {
+                    vocabs.close();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.WRITE_SNAPSHOT, start, words);
+        return words;
+    }
+
+    /**
+     * Replaces all the vocabularies and words with the content of a snapshot, keeping the ids it holds.
+     * The rows are loaded in a single transaction with the triggers dropped; the word counts and the search index
+     * are rebuilt once at the end. If anything fails, e.g. the observer throws, nothing is changed.
+     * Review states are restored with their words; words without one, e.g. from a version 1 snapshot, become due now.
+     * The sort keys are computed in the locale of each vocabulary; version 1 snapshots have none, so the default one is used.
+     * The write-behind queue is held meanwhile, so no word can be queued against the replaced data.
+     * @param snapshot (Snapshot.Reader) - verified snapshot
+     * @param observer (Snapshot.Visitor) - called after every row is loaded, can be null
+     * @return (int) number of words loaded
+     * @throws IOException if the snapshot is damaged or the observer fails
+     */
+    public int restoreSnapshot (Snapshot.Reader snapshot, @Nullable final Snapshot.Visitor observer) throws IOException {
+        long start = Metrics.start();
+        synchronized (writes) {
+            writes.flush(); // Queued writes go first and reserved ids are given up
+            SQLiteDatabase db = connections.acquire();
+            try {
+                final SQLiteStatement insertVocab = db.compileStatement("INSERT INTO " + VOCAB_METADATA_TABLE + " (" + META_KEY_ID + ", " + META_KEY_NAME + ", " + META_KEY_TABLE_NAME + ", " + META_KEY_LOCALE + ", " + META_KEY_COLLATOR + ") VALUES (?, ?, ?, ?, ?)");
+                final SQLiteStatement insertWord = db.compileStatement("INSERT INTO " + WORDS_TABLE + " (" + WORD_KEY_ID + ", " + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ", " + WORD_KEY_SORT_KEY + ", " + WORD_KEY_DEDUP_KEY + ") VALUES (?, ?, ?, ?, ?, ?)");
+                final SQLiteStatement insertReview = db.compileStatement("INSERT INTO " + REVIEWS_TABLE + " (" + REVIEW_KEY_WORD_ID + ", " + REVIEW_KEY_VOCAB_ID + ", " + REVIEW_KEY_EASE + ", "
+                        + REVIEW_KEY_INTERVAL + ", " + REVIEW_KEY_REPETITIONS + ", " + REVIEW_KEY_DUE + ") VALUES (?, ?, ?, ?, ?, ?)");
+                db.beginTransactionNonExclusive();
+                try {
+                    Schema.startBulkLoad(db);
+                    db.delete(JOURNAL_TABLE, null, null); // Marks go with the vocabularies, so the next delta exports are full
+                    db.delete(WORDS_TABLE, null, null);
+                    db.delete(VOCAB_METADATA_TABLE, null, null);
+                    snapshot.accept(new Snapshot.Visitor() {
+                        private final Map<String, SortKeys> locales = new HashMap<>(); // Collators are expensive to create
+                        private long vocabId = -1;
+                        private long wordId = -1;
+                        private SortKeys keys;
+
+                        @Override
+                        public void vocabulary(long id, String name, String table, String locale) throws IOException {
+                            if (locale == null) {
+                                locale = Locale.getDefault().toLanguageTag();
+                            }
+                            keys = locales.get(locale);
+                            if (keys == null) {
+                                keys = sortKeysFor(locale);
+                                locales.put(locale, keys);
+                            }
+                            insertVocab.bindLong(1, id);
+                            bindNullable(insertVocab, 2, name);
+                            bindNullable(insertVocab, 3, table);
+                            insertVocab.bindString(4, keys.getLocale());
+                            insertVocab.bindString(5, keys.getVersion());
+                            insertVocab.executeInsert();
+                            vocabId = id;
+                            if (observer != null) {
+                                observer.vocabulary(id, name, table, locale);
+                            }
+                        }
+
+                        @Override
+                        public void word(long id, String word, String meanings) throws IOException {
+                            insertWord.bindLong(1, id);
+                            insertWord.bindLong(2, vocabId);
+                            bindNullable(insertWord, 3, word);
+                            bindNullable(insertWord, 4, meanings);
+                            byte[] key = keys.key(word);
+                            if (key != null) {
+                                insertWord.bindBlob(5, key);
+                            } else {
+                                insertWord.bindNull(5);
+                            }
+                            bindNullable(insertWord, 6, WordKeys.of(word)); // Duplicates are merged by finishBulkLoad()
+                            insertWord.executeInsert();
+                            wordId = id;
+                            if (observer != null) {
+                                observer.word(id, word, meanings);
+                            }
+                        }
+
+                        @Override
+                        public void review(int ease, int interval, int repetitions, long due) throws IOException {
+                            insertReview.bindLong(1, wordId); // Goes with its word if that's merged away at the end
+                            insertReview.bindLong(2, vocabId);
+                            insertReview.bindLong(3, ease);
+                            insertReview.bindLong(4, interval);
+                            insertReview.bindLong(5, repetitions);
+                            insertReview.bindLong(6, due);
+                            insertReview.executeInsert();
+                            if (observer != null) {
+                                observer.review(ease, interval, repetitions, due);
+                            }
+                        }
+                    });
+                    Schema.finishBulkLoad(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    insertVocab.close();
+                    insertWord.close();
+                    insertReview.close();
+                    vocabIds.clear();
+                    sortKeys.clear();
+                    cache.invalidateAll();
+                }
+            } finally {
+                connections.release(db);
+            }
+        }
+        Metrics.record(Metrics.Op.RESTORE_SNAPSHOT, start, snapshot.getWordCount());
+        return snapshot.getWordCount();
+    }
+
+    /**
+     * Streams the changes of a vocabulary since its last delta export: the current state of every word inserted or
+     * updated since then, and the id of every word deleted since then. A vocabulary that has no delta export yet gets
+     * all its words. Everything is read inside one transaction. Once the changes are safely stored, pass the returned
+     * sequence number to markExported(), so the next call starts from there.
+     * @param tableName (String) - vocab table name
+     * @param out (ChangeVisitor) - destination
+     * @return (long) sequence number of the last journal entry included
+     * @throws IOException if the destination fails
+     */
+    public long writeChanges (String tableName, ChangeVisitor out) throws IOException {
+        long start = Metrics.start();
+        flushPending(tableName);
+        int rows = 0;
+        long vocabId = vocabId(tableName);
+        String[] vocabArgs = {String.valueOf(vocabId)};
+        SQLiteDatabase db = connections.acquire();
+        try {
+            db.beginTransactionNonExclusive(); // Cursors run their query again for every window they fill
+            try {
+                long head = journalHead(db);
+                long mark = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + MARK_KEY_SEQ + "), -1) FROM " + MARKS_TABLE + " WHERE " + MARK_KEY_VOCAB_ID + "=?", vocabArgs);
+                Cursor cursor;
+                if (mark < 0) { // Full export
+                    cursor = db.rawQuery("SELECT " + WORD_KEY_ID + ", " + JOURNAL_INSERT + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + " FROM " + WORDS_TABLE
+                            + " WHERE " + WORD_KEY_VOCAB_ID + "=? ORDER BY " + WORD_KEY_SORT_KEY + ", " + WORD_KEY_ID, vocabArgs);
+                } else { // Latest entry of every word changed in (mark, head]; bare columns come from the row of MAX()
+                    cursor = db.rawQuery("SELECT j." + JOURNAL_KEY_WORD_ID + ", j." + JOURNAL_KEY_OP + ", w." + WORD_KEY_WORD + ", w." + WORD_KEY_MEANINGS + ", MAX(j." + JOURNAL_KEY_SEQ + ") AS last"
+                            + " FROM " + JOURNAL_TABLE + " j LEFT JOIN " + WORDS_TABLE + " w ON w." + WORD_KEY_ID + " = j." + JOURNAL_KEY_WORD_ID + " AND w." + WORD_KEY_VOCAB_ID + " = j." + JOURNAL_KEY_VOCAB_ID
+                            + " WHERE j." + JOURNAL_KEY_VOCAB_ID + "=? AND j." + JOURNAL_KEY_SEQ + " > ? AND j." + JOURNAL_KEY_SEQ + " <= ?"
+                            + " GROUP BY j." + JOURNAL_KEY_WORD_ID + " ORDER BY last", new String[]{vocabArgs[0], String.valueOf(mark), String.valueOf(head)});
+                }
+                try {
+                    while (cursor.moveToNext()) {
+                        if (cursor.getInt(1) == JOURNAL_DELETE) {
+                            out.delete(cursor.getInt(0));
+                        } else {
+                            out.upsert(cursor.getInt(0), cursor.getString(2), cursor.getString(3));
+                        }
+                        rows++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.setTransactionSuccessful();
+                Metrics.record(Metrics.Op.WRITE_CHANGES, start, rows);
+                return head;
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            connections.release(db);
+        }
+    }
+
+    /**
+     * Stores the watermark of the delta export of a vocabulary.
+     * @param tableName (String) - vocab table name
+     * @param seq (long) - sequence number returned by writeChanges()
+     */
+    public void markExported (String tableName, long seq){
+        long start = Metrics.start();
+        SQLiteDatabase db = connections.acquire();
+        try {
+            db.execSQL("INSERT OR REPLACE INTO " + MARKS_TABLE + " (" + MARK_KEY_VOCAB_ID + ", " + MARK_KEY_SEQ + ") VALUES (?, ?)", new Object[]{vocabId(tableName), seq});
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.MARK_EXPORTED, start, 1);
+    }
+
+    /**
+     * Trims the change journal: entries of deleted vocabularies, entries already covered by the delta export of
+     * their vocabulary, and entries superseded by a later change of the same word in the same vocabulary.
+     * Vocabularies without a delta export lose all their entries, their next delta export is a full one anyway.
+     * @return (int) number of removed entries
+     */
+    public int compactJournal (){
+        long start = Metrics.start();
+        int deleted = 0;
+        SQLiteDatabase db = connections.acquire();
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                deleted += db.delete(JOURNAL_TABLE, JOURNAL_KEY_VOCAB_ID + " NOT IN (SELECT " + META_KEY_ID + " FROM " + VOCAB_METADATA_TABLE + ")", null);
+                deleted += db.delete(JOURNAL_TABLE, JOURNAL_KEY_SEQ + " <= IFNULL((SELECT " + MARK_KEY_SEQ + " FROM " + MARKS_TABLE + " m WHERE m." + MARK_KEY_VOCAB_ID + " = "
+                        + JOURNAL_TABLE + "." + JOURNAL_KEY_VOCAB_ID + "), ?)", new String[]{String.valueOf(journalHead(db))});
+                deleted += db.delete(JOURNAL_TABLE, JOURNAL_KEY_SEQ + " NOT IN (SELECT MAX(" + JOURNAL_KEY_SEQ + ") FROM " + JOURNAL_TABLE + " GROUP BY "
+                        + JOURNAL_KEY_VOCAB_ID + ", " + JOURNAL_KEY_WORD_ID + ")", null); // Ids of deleted words are reused, possibly by another vocabulary
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.COMPACT_JOURNAL, start, deleted);
+        return deleted;
+    }
+
+    /**
+     * Returns the sequence number of the last journal entry ever written. sqlite_sequence keeps it when entries are trimmed.
+     */
+    private static long journalHead(SQLiteDatabase db){
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name=?", new String[]{JOURNAL_TABLE});
+    }
+
     /**
      * Creates all the necessary tables for the system to work correctly.
      */
     public void initiateTheDB_system (){
-        SQLiteDatabase db = instance.getWritableDatabase();
-        db.execSQL("CREATE TABLE IF NOT EXISTS " + VOCAB_METADATA_TABLE + " (" + META_KEY_ID + " INTEGER PRIMARY KEY, " + META_KEY_NAME + " TEXT, " + META_KEY_TABLE_NAME + " TEXT)");
-        db.close();
+        long start = Metrics.start();
+        SQLiteDatabase db = connections.acquire();
+        try {
+            Schema.create(db);
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.INITIATE_DB, start, 0);
     }
 
+    /**
+     * Opens the database (creating or upgrading it if needed, and computing the sort keys of an older collator again) and caches the ids of all the vocabularies,
+     * so the first queries of the UI don't pay for it. Meant to be called on a background thread at start up.
+     */
+    public void warmUp (){
+        long start = Metrics.start();
+        SQLiteDatabase db = connections.acquire();
+        try {
+            Cursor cursor = db.rawQuery("SELECT " + META_KEY_ID + ", " + META_KEY_TABLE_NAME + " FROM " + VOCAB_METADATA_TABLE, null);
+            while (cursor.moveToNext()) {
+                vocabIds.put(cursor.getString(1), cursor.getLong(0));
+            }
+            cursor.close();
+        } finally {
+            connections.release(db);
+        }
+        Metrics.record(Metrics.Op.WARM_UP, start, vocabIds.size());
+    }
 
     /**
-     * Helper function to support DB table naming policy.
-     * @param s (String) input
-     * @return (String) output
+     * Returns the id of a vocabulary by its table name. Ids are cached, as they never change.
+     * @param tableName (String) - vocab table name
+     * @return (long) id or -1 if there is no such vocabulary
      */
-    private String removeSpecialChars(String s){
-        String result = s;
-        if(result.length() > 15){
-            result = result.substring(0,14);
+    private long vocabId(String tableName){
+        Long id = vocabIds.get(tableName);
+        if (id != null) {
+            return id;
         }
-        return result.replaceAll("[-+.^:,]","").replaceAll("\\s+","_");
+        long result = statements.simpleQueryForLong("vocabId", SQL_VOCAB_ID, tableName);
+        if (result != -1) {
+            vocabIds.put(tableName, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sort keys of the locale of a vocabulary, see SortKeys. Cached until the locale is changed.
+     * @param vocabId (long) - id of the vocabulary
+     * @return (SortKeys) sort keys
+     */
+    private SortKeys sortKeys(long vocabId){
+        SortKeys keys = sortKeys.get(vocabId);
+        if (keys == null) {
+            SQLiteDatabase db = connections.acquire();
+            String locale;
+            try {
+                locale = DatabaseUtils.stringForQuery(db, SQL_VOCAB_LOCALE, new String[]{String.valueOf(vocabId)});
+            } finally {
+                connections.release(db);
+            }
+            keys = sortKeysFor(locale);
+            sortKeys.put(vocabId, keys);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns sort keys of a locale, reusing the ones of another vocabulary if possible. Collators are expensive to create.
+     */
+    private SortKeys sortKeysFor(String locale){
+        for (SortKeys keys : sortKeys.values()) {
+            if (keys.getLocale().equals(locale)) {
+                return keys;
+            }
+        }
+        return new SortKeys(locale);
+    }
+
+    /**
+     * Helper function to get the sort key of a word, computing it if the word doesn't carry one.
+     */
+    private byte[] sortKey(long vocabId, Word word){
+        return word.getSortKey() != null ? word.getSortKey() : sortKeys(vocabId).key(word.getWord());
+    }
+
+    /**
+     * Helper function to get a word with its sort key set, e.g. an anchor of a keyset query passed in by the UI.
+     */
+    private Word withSortKey(String tableName, Word word){
+        if (word.getSortKey() != null) {
+            return word;
+        }
+        return new Word(word.getId(), word.getWord(), word.getMeanings(), sortKeys(vocabId(tableName)).key(word.getWord()));
     }
 
 
@@ -363,28 +1855,41 @@ public class DB extends SQLiteOpenHelper{
      * @return (ArrayList<String>) - a list of all the tables in the database.
      */
     public ArrayList<String> getAllTableNames (){
-        SQLiteDatabase db = instance.getWritableDatabase();
+        long start = Metrics.start();
+        SQLiteDatabase db = connections.acquire();
         ArrayList<String> vocabs = new ArrayList<String>();
-        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type ='table'", null);
-        if (c.moveToFirst()) {
-            while ( !c.isAfterLast() ) {
-                vocabs.add(c.getString(0));
-                c.moveToNext();
+        try {
+            Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type ='table'", null);
+            if (c.moveToFirst()) {
+                while ( !c.isAfterLast() ) {
+                    vocabs.add(c.getString(0));
+                    c.moveToNext();
+                }
             }
+            c.close();
+        } finally {
+            connections.release(db);
         }
-        c.close();
-        db.close();
+        Metrics.record(Metrics.Op.GET_ALL_TABLE_NAMES, start, vocabs.size());
         return vocabs;
     }
 
     /**
-     * Function to clear a database table.
-     * @param tableName
+     * Function to remove all the words of a vocabulary.
+     * @param tableName (String) - vocab table name
      */
     public void clearTable (String tableName){
-        SQLiteDatabase db = instance.getWritableDatabase();
-        db.execSQL("DELETE FROM "+ tableName);
-        db.close();
+        long start = Metrics.start();
+        writes.discard(tableName);
+        SQLiteDatabase db = connections.acquire();
+        int deleted;
+        try {
+            deleted = db.delete(WORDS_TABLE, WORD_KEY_VOCAB_ID + "=?", new String[]{String.valueOf(vocabId(tableName))});
+        } finally {
+            connections.release(db);
+        }
+        cache.invalidate(tableName);
+        Metrics.record(Metrics.Op.CLEAR_TABLE, start, deleted);
     }
 
 
@@ -0,0 +1,127 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import java.util.HashMap;
+
+/**
+ * The DuplicateFilter class decides what happens to the words of a bulk insert that are already in the vocabulary,
+ * see DB.addWords(). It keeps dedup keys (see WordKeys) of the vocabulary in a hash map: the keys of every chunk are
+ * looked up in a few queries before it is inserted, and every inserted word is added, so a word is checked in constant
+ * time and a small chunk doesn't read all the keys of a large vocabulary.
+ * Keys and counts are kept only once their transaction is committed, so a chunk that is rolled back leaves no trace.
+ * Pass the same filter to all the chunks of an import. A filter belongs to one vocabulary and one thread.
+ */
+public class DuplicateFilter {
+
+    /**
+     * What to do with a word that is already in the vocabulary.
+     */
+    public enum Policy {
+        SKIP,      // Keep the word that is there
+        MERGE,     // Add the meanings it doesn't have yet
+        OVERWRITE  // Replace the word and its meanings
+    }
+
+    final Policy policy;
+    final HashMap<String, Integer> ids = new HashMap<>(); // dedup key -> word id, of the words seen so far
+    private final HashMap<String, Integer> added = new HashMap<>(); // Keys of the transaction in progress
+    String tableName = null;
+    int inserted = 0;
+    int skipped = 0;
+    int merged = 0;
+    int overwritten = 0;
+    private int[] committed = new int[4]; // Counts at the last commit: inserted, skipped, merged, overwritten
+
+    /**
+     * Constructor
+     * @param policy (Policy) - what to do with duplicates
+     */
+    public DuplicateFilter(Policy policy){
+        this.policy = policy;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of words inserted as new ones.
+     * @return (int) number of words
+     */
+    public int getInserted() {
+        return inserted;
+    }
+
+    /**
+     * Returns the number of duplicates, whatever was done with them.
+     * @return (int) number of words
+     */
+    public int getDuplicates() {
+        return skipped + merged + overwritten;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getMerged() {
+        return merged;
+    }
+
+    public int getOverwritten() {
+        return overwritten;
+    }
+
+    /**
+     * Returns the id of the word with a dedup key, including the words of the transaction in progress.
+     * @param key (String) - dedup key, see WordKeys
+     * @return (Integer) word id or null if there is none
+     */
+    Integer find(String key){
+        Integer id = added.get(key);
+        return id != null ? id : ids.get(key);
+    }
+
+    /**
+     * Adds a word inserted by the transaction in progress, or found in the table since the keys were loaded.
+     * @param key (String) - dedup key, see WordKeys
+     * @param id (int) - word id
+     */
+    void add(String key, int id){
+        added.put(key, id);
+    }
+
+    /**
+     * Keeps the keys and counts of the transaction that was just committed.
+     */
+    void commit(){
+        ids.putAll(added);
+        added.clear();
+        committed = new int[]{inserted, skipped, merged, overwritten};
+    }
+
+    /**
+     * Forgets the keys and counts since the last commit, after a transaction was rolled back.
+     */
+    void rollback(){
+        added.clear();
+        inserted = committed[0];
+        skipped = committed[1];
+        merged = committed[2];
+        overwritten = committed[3];
+    }
+
+    /**
+     * Binds the filter to a vocabulary on first use.
+     * @param tableName (String) - vocab table
+     */
+    void bind(String tableName){
+        if (this.tableName != null && !this.tableName.equals(tableName)) {
+            throw new IllegalStateException("Filter belongs to " + this.tableName);
+        }
+        this.tableName = tableName;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import ivan.vocabulary.core.LatencyHistogram;
+
+/**
+ * The Metrics class keeps call counts, row counts and latency histograms of the data layer: every public DB method
+ * and CSV.writeCSV record themselves here. Counters are lock-free, so recording is cheap enough to stay on in production.
+ * Calls that throw are not recorded.
+ */
+public final class Metrics {
+
+    /**
+     * Instrumented operations, one per public method of DB plus the .csv and .zip exports.
+     * FLUSH_WRITES counts every flush of the write-behind queue, whatever triggered it.
+     */
+    public enum Op {
+        CREATE_VOCABULARY("createVocabulary"),
+        CHANGE_VOCAB_NAME("changeVocabName"),
+        SET_VOCAB_LOCALE("setVocabLocale"),
+        DELETE_VOCABULARY("deleteVocabulary"),
+        GET_ALL_VOCAB_NAMES("getAllVacabNames"),
+        GET_ALL_VOCAB_TABLES("getAllVacabTables"),
+        GET_VOCABS_ARRAY_LIST("getVocabNamesAndTablesArrayList"),
+        GET_VOCABS_OBJECTS("getVocabNamesAndTablesObjects"),
+        GET_VOCABS_CURSOR("getVocabNamesAndTablesCursor"),
+        GET_VOCABS_MAP("getVocabNamesAndTablesMap"),
+        ADD_WORD("addWord"),
+        ADD_WORDS("addWords"),
+        RUN_IN_TRANSACTION("runInTransaction"),
+        GET_WORD("getWord"),
+        GET_WORDS("getWords"),
+        GET_WORDS_CURSOR("getWordsCursor"),
+        GET_WORDS_AFTER("getWordsAfter"),
+        GET_WORDS_BEFORE("getWordsBefore"),
+        GET_WORDS_AT("getWordsAt"),
+        GET_WORD_POSITION("getWordPosition"),
+        GET_SECTION_INDEX("getSectionIndex"),
+        FIND_DUPLICATE("findDuplicate"),
+        UPDATE_WORD("updateWord"),
+        DELETE_WORD("deleteWord"),
+        GET_WORDS_COUNT("getWordsCount"),
+        QUEUE_ADD_WORD("queueAddWord"),
+        QUEUE_UPDATE_WORD("queueUpdateWord"),
+        QUEUE_DELETE_WORD("queueDeleteWord"),
+        FLUSH_WRITES("flushWrites"),
+        GET_DUE_CARDS("getDueCards"),
+        SAVE_REVIEW("saveReview"),
+        SEARCH_WORDS("searchWords"),
+        INITIATE_DB("initiateTheDB_system"),
+        WARM_UP("warmUp"),
+        WRITE_SNAPSHOT("writeSnapshot"),
+        RESTORE_SNAPSHOT("restoreSnapshot"),
+        WRITE_CHANGES("writeChanges"),
+        MARK_EXPORTED("markExported"),
+        COMPACT_JOURNAL("compactJournal"),
+        GET_ALL_TABLE_NAMES("getAllTableNames"),
+        CLEAR_TABLE("clearTable"),
+        WRITE_CSV("CSV.writeCSV"),
+        WRITE_ZIP("ZipExporter");
+
+        private final String label;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        Op(String label){
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private Metrics(){}
+
+
+    /**
+     * Marks the start of a call.
+     * @return (long) start time to pass to record()
+     */
+    public static long start(){
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records a finished call.
+     * @param op (Op) - operation
+     * @param start (long) - value returned by start()
+     * @param rows (long) - number of rows the call read or wrote
+     */
+    public static void record(Op op, long start, long rows){
+        op.histogram.record(SystemClock.elapsedRealtimeNanos() - start, rows);
+    }
+
+    /**
+     * Returns the statistics of all the operations that were called at least once, in the order of Op.
+     * @return (List<Stats>) statistics
+     */
+    public static List<Stats> snapshot(){
+        List<Stats> stats = new ArrayList<>();
+        for (Op op : Op.values()) {
+            LatencyHistogram.Snapshot s = op.histogram.snapshot();
+            if (s.getCount() > 0) {
+                stats.add(new Stats(op, s));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Clears the statistics of all the operations.
+     */
+    public static void reset(){
+        for (Op op : Op.values()) {
+            op.histogram.reset();
+        }
+    }
+
+    /**
+     * Returns the statistics as plain text, one operation per line.
+     * @return (String) report
+     */
+    public static String dump(){
+        StringBuilder sb = new StringBuilder("operation: calls, rows, p50/p95/p99/max us");
+        for (Stats s : snapshot()) {
+            sb.append('\n').append(s);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Statistics of one operation at one point in time. Latencies are in microseconds.
+     */
+    public static final class Stats {
+        public final Op op;
+        public final long calls;
+        public final long rows;
+        public final long meanUs;
+        public final long p50Us;
+        public final long p95Us;
+        public final long p99Us;
+        public final long maxUs;
+
+        private Stats(Op op, LatencyHistogram.Snapshot s){
+            this.op = op;
+            this.calls = s.getCount();
+            this.rows = s.getRows();
+            this.meanUs = s.getMeanMicros();
+            this.p50Us = s.percentileMicros(50);
+            this.p95Us = s.percentileMicros(95);
+            this.p99Us = s.percentileMicros(99);
+            this.maxUs = s.getMaxMicros();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d, %d, %d/%d/%d/%d", op.getLabel(), calls, rows, p50Us, p95Us, p99Us, maxUs);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Repository class is the entry point the activities use to reach the database. Every call is run on a background
+ * thread and its result is delivered to a callback on the main looper.
+ * The DB work runs on a single thread with a FIFO queue, so operations run in the order they were requested.
+ * SQLite serialises writes anyway, and a write is always visible to the reads requested after it.
+ * Work is tied to an owner (normally an activity). cancel(owner) drops the queued reads of that owner and all its pending callbacks.
+ * Writes already requested still reach the database, so e.g. a delete confirmed just before the activity is closed isn't lost.
+ * The queue is unbounded, so a write is never dropped, run out of order or made to wait on the calling thread. Only reads are
+ * limited: when QUEUE_CAPACITY requests are waiting, a new read drops the oldest queued read, whose result would be stale anyway.
+ */
+public class Repository {
+    private static final int QUEUE_CAPACITY = 256; // Requests waiting for the DB thread before queued reads are dropped
+    private static final long KEEP_ALIVE_SECONDS = 30; // The thread is stopped when there is nothing to do
+    private static Repository instance = null;
+    private final DB db;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor;
+    private final Map<Object, Set<Task<?>>> tasksByOwner = new HashMap<>();
+
+
+    /**
+     * Callback interface to receive the result of an operation on the main thread.
+     * @param <T> type of the result
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Constructor
+     * @param db (DB) - database
+     */
+    private Repository(DB db){
+        this.db = db;
+        executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vocabulary-db");
+                thread.setPriority(Thread.NORM_PRIORITY - 1); // Below the UI thread
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Static method to ensure that there is only one instance of the repository.
+     * @param context (Context) - context
+     * @return (Repository) repository
+     */
+    public static synchronized Repository getInstance(Context context){
+        if(instance == null){
+            instance = new Repository(DB.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the executor of the DB thread, for components that schedule their own DB work, e.g. PagedWordList.
+     * @return (Executor) executor
+     */
+    public Executor getExecutor(){
+        return executor;
+    }
+
+    /**
+     * Cancels the work of an owner: queued reads are dropped and no more callbacks are delivered to it.
+     * Call it from onDestroy().
+     * @param owner (Object) - owner the work was requested by
+     */
+    public void cancel(Object owner){
+        Set<Task<?>> tasks;
+        synchronized (tasksByOwner) {
+            tasks = tasksByOwner.remove(owner);
+        }
+        if (tasks == null) {
+            return;
+        }
+        for (Task<?> task : tasks) {
+            task.detach();
+            if (task.readOnly) {
+                task.cancel(false);
+            }
+        }
+    }
+
+
+
+    /* *********************************************************************************************
+     *                                       VOCABULARIES
+     * *********************************************************************************************/
+
+    /**
+     * Creates the tables on the first run of the application.
+     * @param owner (Object) - owner of the request
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> initiateTheDB_system(Object owner, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.initiateTheDB_system();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Cold start work, requested before any other DB work: creates the tables on the first run of the application
+     * and opens and warms up the database. The preferences are read here as well, as the first read waits for them
+     * to be loaded from disk.
+     * @param owner (Object) - owner of the request
+     * @param prefs (SharedPreferences) - preferences of the application
+     * @param callback (Callback<Integer>) - receives the font size flag, can be null
+     * @return (Future<Integer>) pending result
+     */
+    public Future<Integer> startUp(Object owner, final SharedPreferences prefs, Callback<Integer> callback){
+        return write(owner, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                if (prefs.getBoolean("firstrun", true)) {
+                    db.initiateTheDB_system();
+                    prefs.edit().putBoolean("firstrun", false).putInt("fontSize", 3).apply(); // Written to disk in the background
+                }
+                db.warmUp();
+                return prefs.getInt("fontSize", 3);
+            }
+        }, callback);
+    }
+
+    /**
+     * Loads all the vocabularies together with their word counts.
+     * @param owner (Object) - owner of the request
+     * @param callback (Callback<ArrayList<Vocabulary>>) - receives the vocabularies
+     * @return (Future<ArrayList<Vocabulary>>) pending result
+     */
+    public Future<ArrayList<Vocabulary>> getVocabularies(Object owner, Callback<ArrayList<Vocabulary>> callback){
+        return read(owner, new Callable<ArrayList<Vocabulary>>() {
+            @Override
+            public ArrayList<Vocabulary> call() {
+                return db.getVocabNamesAndTablesObjects();
+            }
+        }, callback);
+    }
+
+    /**
+     * Creates a new vocabulary.
+     * @param owner (Object) - owner of the request
+     * @param name (String) - vocab name
+     * @param callback (Callback<String>) - receives the table name of the new vocab, can be null
+     * @return (Future<String>) pending result
+     */
+    public Future<String> createVocabulary(Object owner, final String name, Callback<String> callback){
+        return write(owner, new Callable<String>() {
+            @Override
+            public String call() {
+                return db.createVocabulary(name);
+            }
+        }, callback);
+    }
+
+    /**
+     * Renames a vocabulary.
+     * @param owner (Object) - owner of the request
+     * @param id (int) - vocab id
+     * @param name (String) - new name
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> changeVocabName(Object owner, final int id, final String name, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.changeVocabName(id, name);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Changes the locale the words of a vocabulary are sorted by, see DB.setVocabLocale().
+     * @param owner (Object) - owner of the request
+     * @param tableName (String) - vocab table
+     * @param locale (String) - BCP 47 language tag, null or empty for the root locale
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> setVocabLocale(Object owner, final String tableName, final String locale, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.setVocabLocale(tableName, locale);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes a vocabulary with all its words.
+     * @param owner (Object) - owner of the request
+     * @param tableName (String) - vocab table
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> deleteVocabulary(Object owner, final String tableName, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.deleteVocabulary(tableName);
+                return null;
+            }
+        }, callback);
+    }
+
+
+
+    /* *********************************************************************************************
+     *                                          WORDS
+     * *********************************************************************************************/
+
+    /**
+     * Adds a word to a vocabulary. The word is queued by the write-behind queue of DB, see DB.queueAddWord().
+     * @param owner (Object) - owner of the request
+     * @param word (Word) - new word
+     * @param tableName (String) - vocab table
+     * @param callback (Callback<Long>) - receives the id of the new word or of the word it was merged into, can be null
+     * @return (Future<Long>) pending result
+     */
+    public Future<Long> addWord(Object owner, final Word word, final String tableName, Callback<Long> callback){
+        return write(owner, new Callable<Long>() {
+            @Override
+            public Long call() {
+                return (long) db.queueAddWord(word, tableName).getWord().getId();
+            }
+        }, callback);
+    }
+
+    /**
+     * Updates a word. The update is queued by the write-behind queue of DB.
+     * @param owner (Object) - owner of the request
+     * @param id (int) - word id
+     * @param updatedWord (Word) - new values
+     * @param tableName (String) - vocab table
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> updateWord(Object owner, final int id, final Word updatedWord, final String tableName, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.queueUpdateWord(id, updatedWord, tableName);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes a word. The delete is queued by the write-behind queue of DB.
+     * @param owner (Object) - owner of the request
+     * @param id (int) - word id
+     * @param tableName (String) - vocab table
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> deleteWord(Object owner, final int id, final String tableName, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.queueDeleteWord(id, tableName);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Writes the queued word changes to the database. Call it from onPause().
+     * @param owner (Object) - owner of the request
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> flushWrites(Object owner, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.flushWrites();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Trims the change journal, see DB.compactJournal().
+     * @param owner (Object) - owner of the request
+     * @param callback (Callback<Integer>) - receives the number of removed entries, can be null
+     * @return (Future<Integer>) pending result
+     */
+    public Future<Integer> compactJournal(Object owner, Callback<Integer> callback){
+        return write(owner, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return db.compactJournal();
+            }
+        }, callback);
+    }
+
+
+
+    /* *********************************************************************************************
+     *                                         REVIEWS
+     * *********************************************************************************************/
+
+    /**
+     * Loads a batch of cards that are due, see DB.getDueCards().
+     * @param owner (Object) - owner of the request
+     * @param tableName (String) - vocab table
+     * @param now (long) - cards due up to this time are loaded, ms since the epoch
+     * @param after (Card) - last card of the previous batch, null for the first one
+     * @param limit (int) - max number of cards
+     * @param callback (Callback<List<Card>>) - receives the cards
+     * @return (Future<List<Card>>) pending result
+     */
+    public Future<List<Card>> getDueCards(Object owner, final String tableName, final long now, final Card after, final int limit, Callback<List<Card>> callback){
+        return read(owner, new Callable<List<Card>>() {
+            @Override
+            public List<Card> call() {
+                return db.getDueCards(tableName, now, after, limit);
+            }
+        }, callback);
+    }
+
+    /**
+     * Stores the review state of a card, see DB.saveReview().
+     * @param owner (Object) - owner of the request
+     * @param card (Card) - reviewed card
+     * @param callback (Callback<Void>) - called once done, can be null
+     * @return (Future<Void>) pending result
+     */
+    public Future<Void> saveReview(Object owner, final Card card, Callback<Void> callback){
+        return write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                db.saveReview(card);
+                return null;
+            }
+        }, callback);
+    }
+
+
+
+    /* *********************************************************************************************
+     *                                           MISC
+     * *********************************************************************************************/
+
+    /**
+     * Schedules a read. Queued reads are dropped when their owner is cancelled.
+     */
+    private <T> Future<T> read(Object owner, Callable<T> work, Callback<T> callback){
+        return submit(new Task<>(owner, work, callback, true));
+    }
+
+    /**
+     * Schedules a write. Writes always run, only their callback is dropped when the owner is cancelled.
+     */
+    private <T> Future<T> write(Object owner, Callable<T> work, Callback<T> callback){
+        return submit(new Task<>(owner, work, callback, false));
+    }
+
+    private <T> Future<T> submit(Task<T> task){
+        synchronized (tasksByOwner) {
+            Set<Task<?>> tasks = tasksByOwner.get(task.owner);
+            if (tasks == null) {
+                tasks = new HashSet<>();
+                tasksByOwner.put(task.owner, tasks);
+            }
+            tasks.add(task);
+        }
+        if (task.readOnly && executor.getQueue().size() >= QUEUE_CAPACITY) {
+            dropOldestRead();
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Called when the queue is full and a read is requested. Drops the oldest queued read, which is cancelled and untracked
+     * like one of a cancelled owner. Writes, and the work posted through getExecutor(), are never dropped.
+     */
+    private void dropOldestRead(){
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        for (Runnable queued : queue) {
+            if (queued instanceof Task && ((Task<?>) queued).readOnly) {
+                if (queue.remove(queued)) {
+                    ((Task<?>) queued).cancel(false); // done() untracks it
+                }
+                return;
+            }
+        }
+    }
+
+    private void untrack(Task<?> task){
+        synchronized (tasksByOwner) {
+            Set<Task<?>> tasks = tasksByOwner.get(task.owner);
+            if (tasks != null && tasks.remove(task) && tasks.isEmpty()) {
+                tasksByOwner.remove(task.owner);
+            }
+        }
+    }
+
+
+    /**
+     * A request on the DB thread that posts its result to the main looper once done.
+     */
+    private class Task<T> extends FutureTask<T> {
+        private final Object owner;
+        private final boolean readOnly;
+        private volatile Callback<T> callback;
+
+        Task(Object owner, Callable<T> work, Callback<T> callback, boolean readOnly){
+            super(work);
+            this.owner = owner;
+            this.callback = callback;
+            this.readOnly = readOnly;
+        }
+
+        void detach(){
+            callback = null;
+        }
+
+        @Override
+        protected void done() {
+            untrack(this);
+            if (isCancelled()) {
+                return;
+            }
+            final T result;
+            try {
+                result = get();
+            } catch (InterruptedException e) {
+                return;
+            } catch (final ExecutionException e) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new RuntimeException(e.getCause()); // Fail as loudly as the call would have on the main thread
+                    }
+                });
+                return;
+            }
+            if (callback == null) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback<T> c = callback; // Owner may have been cancelled in the meantime
+                    if (c != null) {
+                        c.onResult(result);
+                    }
+                }
+            });
+        }
+    }
+}
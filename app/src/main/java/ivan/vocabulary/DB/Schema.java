@@ -0,0 +1,610 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import ivan.vocabulary.core.Meanings;
+import ivan.vocabulary.core.ReviewScheduler;
+import ivan.vocabulary.core.SortKeys;
+import ivan.vocabulary.core.WordKeys;
+
+/**
+ * The Schema class creates the database tables and migrates older versions of the database.
+ * All the words live in a single table with a foreign key to their vocabulary:
+ *   vocab_metadata (_id, name, t_name, word_count, locale, collator) - word_count is maintained by triggers on words,
+ *       locale is the language tag the words are sorted by, collator is the version of their sort keys (see SortKeys.getVersion())
+ *   words (_id, vocab_id, word, meanings, sort_key, dedup_key)  + index on (vocab_id, sort_key, _id) - meanings are joined by
+ *       Word.MEANINGS_SEPARATOR, sort_key is the collation key of the word in the locale of its vocabulary (see SortKeys)
+ *       + unique index on (vocab_id, dedup_key) - dedup_key is the normalized word (see WordKeys), so a vocabulary
+ *       can't hold the same word twice
+ *   words_fts - FTS4 index over word and meanings, kept in sync by triggers
+ *   change_journal (seq, vocab_id, word_id, op) - append-only log of word inserts, updates and deletes, written by triggers
+ *   journal_marks (vocab_id, seq) - last journal entry included in the delta export of each vocabulary
+ *   reviews (word_id, vocab_id, ease, interval, repetitions, due)  + index on (vocab_id, due, word_id) - review state
+ *       of every word (see ReviewScheduler), a row is added by a trigger with every word and removed with it
+ */
+class Schema {
+    static final String VOCAB_METADATA_TABLE = "vocab_metadata";
+    static final String META_KEY_ID = "_id";
+    static final String META_KEY_NAME = "name";
+    static final String META_KEY_TABLE_NAME = "t_name";
+    static final String META_KEY_WORD_COUNT = "word_count";
+    static final String META_KEY_LOCALE = "locale";
+    static final String META_KEY_COLLATOR = "collator";
+    static final String WORDS_TABLE = "words";
+    static final String WORDS_FTS_TABLE = "words_fts";
+    static final String WORD_KEY_ID = "_id";
+    static final String WORD_KEY_VOCAB_ID = "vocab_id";
+    static final String WORD_KEY_WORD = "word";
+    static final String WORD_KEY_MEANINGS = "meanings";
+    static final String WORD_KEY_SORT_KEY = "sort_key";
+    static final String WORD_KEY_DEDUP_KEY = "dedup_key";
+    static final String JOURNAL_TABLE = "change_journal";
+    static final String JOURNAL_KEY_SEQ = "seq";
+    static final String JOURNAL_KEY_VOCAB_ID = "vocab_id";
+    static final String JOURNAL_KEY_WORD_ID = "word_id";
+    static final String JOURNAL_KEY_OP = "op";
+    static final int JOURNAL_INSERT = 0, JOURNAL_UPDATE = 1, JOURNAL_DELETE = 2; // Values of op
+    static final String MARKS_TABLE = "journal_marks";
+    static final String MARK_KEY_VOCAB_ID = "vocab_id";
+    static final String MARK_KEY_SEQ = "seq";
+    static final String REVIEWS_TABLE = "reviews";
+    static final String REVIEW_KEY_WORD_ID = "word_id";
+    static final String REVIEW_KEY_VOCAB_ID = "vocab_id";
+    static final String REVIEW_KEY_EASE = "ease";
+    static final String REVIEW_KEY_INTERVAL = "interval";
+    static final String REVIEW_KEY_REPETITIONS = "repetitions";
+    static final String REVIEW_KEY_DUE = "due";
+    private static final String NOW_MS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)"; // Current time in ms since the epoch
+    private static final String DEDUP_INDEX = "words_vocab_dedup_idx";
+    private static final int MIGRATION_BATCH_SIZE = 1000; // Rows copied by one statement during migration
+    private static final String LEGACY_FTS_SUFFIX = "_fts";
+
+
+    /**
+     * Creates all the tables, indexes and triggers that don't exist yet.
+     * @param db (SQLiteDatabase) database
+     */
+    static void create(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + VOCAB_METADATA_TABLE + " (" + META_KEY_ID + " INTEGER PRIMARY KEY, " + META_KEY_NAME + " TEXT, "
+                + META_KEY_TABLE_NAME + " TEXT UNIQUE, " + META_KEY_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0, " + META_KEY_LOCALE + " TEXT, " + META_KEY_COLLATOR + " TEXT)");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + WORDS_TABLE + " (" + WORD_KEY_ID + " INTEGER PRIMARY KEY, "
+                + WORD_KEY_VOCAB_ID + " INTEGER NOT NULL REFERENCES " + VOCAB_METADATA_TABLE + "(" + META_KEY_ID + ") ON DELETE CASCADE, "
+                + WORD_KEY_WORD + " TEXT, " + WORD_KEY_MEANINGS + " TEXT, " + WORD_KEY_SORT_KEY + " BLOB, " + WORD_KEY_DEDUP_KEY + " TEXT)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS words_vocab_sort_idx ON " + WORDS_TABLE + " (" + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_SORT_KEY + ", " + WORD_KEY_ID + ")");
+        createDedupIndex(db);
+        createWordCountTriggers(db);
+        createSearchIndex(db);
+        createJournal(db);
+        createReviews(db);
+    }
+
+    /**
+     * Brings an older database up to the current version.
+     * @param db (SQLiteDatabase) database
+     * @param oldVersion (int) version the database is at
+     */
+    static void upgrade(SQLiteDatabase db, int oldVersion){
+        if (oldVersion < 2) {
+            migrateToSingleWordsTable(db); // Creates the latest layout straight away
+        }
+        if (oldVersion < 3) {
+            addWordCounts(db);
+        }
+        if (oldVersion < 4) {
+            separateMeanings(db);
+        }
+        if (oldVersion < 5) {
+            createJournal(db);
+        }
+        if (oldVersion < 6) {
+            addSortKeys(db);
+        }
+        if (oldVersion < 7) {
+            addDedupKeys(db);
+        }
+        if (oldVersion < 8) {
+            createReviews(db);
+            addMissingReviews(db);
+        }
+        if (oldVersion < 9) {
+            addCollatorVersions(db);
+        }
+    }
+
+
+    /**
+     * Version 8 schedules reviews of the words. A new word is due as soon as it is added; "next card" is a seek on
+     * the index over (vocab_id, due). Rows go away with their word through the foreign key.
+     */
+    private static void createReviews(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + REVIEWS_TABLE + " (" + REVIEW_KEY_WORD_ID + " INTEGER PRIMARY KEY REFERENCES "
+                + WORDS_TABLE + "(" + WORD_KEY_ID + ") ON DELETE CASCADE, " + REVIEW_KEY_VOCAB_ID + " INTEGER NOT NULL, "
+                + REVIEW_KEY_EASE + " INTEGER NOT NULL DEFAULT " + ReviewScheduler.DEFAULT_EASE + ", " + REVIEW_KEY_INTERVAL + " INTEGER NOT NULL DEFAULT 0, "
+                + REVIEW_KEY_REPETITIONS + " INTEGER NOT NULL DEFAULT 0, " + REVIEW_KEY_DUE + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS reviews_vocab_due_idx ON " + REVIEWS_TABLE + " (" + REVIEW_KEY_VOCAB_ID + ", " + REVIEW_KEY_DUE + ", " + REVIEW_KEY_WORD_ID + ")");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + REVIEWS_TABLE + "_ai AFTER INSERT ON " + WORDS_TABLE + " BEGIN INSERT INTO " + REVIEWS_TABLE
+                + " (" + REVIEW_KEY_WORD_ID + ", " + REVIEW_KEY_VOCAB_ID + ", " + REVIEW_KEY_DUE + ") VALUES (new." + WORD_KEY_ID + ", new." + WORD_KEY_VOCAB_ID + ", " + NOW_MS + "); END");
+    }
+
+    /**
+     * Adds the review rows of the words that don't have one yet, in one statement, e.g. after a bulk load.
+     * The words become due in the order of their ids.
+     */
+    private static void addMissingReviews(SQLiteDatabase db){
+        db.execSQL("INSERT INTO " + REVIEWS_TABLE + " (" + REVIEW_KEY_WORD_ID + ", " + REVIEW_KEY_VOCAB_ID + ", " + REVIEW_KEY_DUE + ") SELECT "
+                + WORD_KEY_ID + ", " + WORD_KEY_VOCAB_ID + ", " + NOW_MS + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID
+                + " NOT IN (SELECT " + REVIEW_KEY_WORD_ID + " FROM " + REVIEWS_TABLE + ")");
+    }
+
+
+    /**
+     * Version 7 doesn't allow the same word twice in a vocabulary. The keys are computed in batches, the duplicates
+     * that are already there are merged, then the unique index is created.
+     */
+    private static void addDedupKeys(SQLiteDatabase db){
+        if (!columnExists(db, WORDS_TABLE, WORD_KEY_DEDUP_KEY)) {
+            db.execSQL("ALTER TABLE " + WORDS_TABLE + " ADD COLUMN " + WORD_KEY_DEDUP_KEY + " TEXT");
+        }
+        db.execSQL("DROP INDEX IF EXISTS " + DEDUP_INDEX); // Created by an earlier step, but the keys aren't unique yet
+        SQLiteStatement update = db.compileStatement("UPDATE " + WORDS_TABLE + " SET " + WORD_KEY_DEDUP_KEY + " = ? WHERE " + WORD_KEY_ID + " = ?");
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = db.rawQuery("SELECT " + WORD_KEY_ID + ", " + WORD_KEY_WORD + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID + " > ? ORDER BY "
+                    + WORD_KEY_ID + " LIMIT " + MIGRATION_BATCH_SIZE, new String[]{String.valueOf(lastId)});
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                String key = WordKeys.of(cursor.getString(1));
+                if (key != null) {
+                    update.bindString(1, key);
+                } else {
+                    update.bindNull(1);
+                }
+                update.bindLong(2, lastId);
+                update.executeUpdateDelete();
+                rows++;
+            }
+            cursor.close();
+            if (rows < MIGRATION_BATCH_SIZE) {
+                break;
+            }
+        }
+        update.close();
+        mergeDuplicates(db);
+        createDedupIndex(db);
+    }
+
+    /**
+     * Merges the words of a vocabulary that share a dedup key into the oldest one: it gets the meanings of all of them,
+     * the others are deleted. Runs in one pass over the duplicates.
+     * @param db (SQLiteDatabase) database, inside a transaction
+     * @return (int) number of deleted words
+     */
+    static int mergeDuplicates(SQLiteDatabase db){
+        Cursor cursor = db.rawQuery("SELECT w." + WORD_KEY_ID + ", w." + WORD_KEY_VOCAB_ID + ", w." + WORD_KEY_DEDUP_KEY + ", w." + WORD_KEY_MEANINGS + " FROM " + WORDS_TABLE + " w JOIN"
+                + " (SELECT " + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_DEDUP_KEY + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_DEDUP_KEY + " IS NOT NULL"
+                + " GROUP BY " + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_DEDUP_KEY + " HAVING COUNT(*) > 1) d"
+                + " ON w." + WORD_KEY_VOCAB_ID + " = d." + WORD_KEY_VOCAB_ID + " AND w." + WORD_KEY_DEDUP_KEY + " = d." + WORD_KEY_DEDUP_KEY
+                + " ORDER BY w." + WORD_KEY_VOCAB_ID + ", w." + WORD_KEY_DEDUP_KEY + ", w." + WORD_KEY_ID, null);
+        SQLiteStatement update = db.compileStatement("UPDATE " + WORDS_TABLE + " SET " + WORD_KEY_MEANINGS + " = ? WHERE " + WORD_KEY_ID + " = ?");
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID + " = ?");
+        int deleted = 0;
+        long keptId = -1;
+        long vocabId = -1;
+        String key = null;
+        List<String> original = null;
+        List<String> merged = null;
+        while (cursor.moveToNext()) {
+            if (cursor.getLong(1) == vocabId && cursor.getString(2).equals(key)) { // Another copy of the kept word
+                merged = Meanings.merge(merged, Meanings.decode(cursor.getString(3)));
+                delete.bindLong(1, cursor.getLong(0));
+                deleted += delete.executeUpdateDelete();
+                continue;
+            }
+            saveMerged(update, keptId, original, merged);
+            keptId = cursor.getLong(0);
+            vocabId = cursor.getLong(1);
+            key = cursor.getString(2);
+            original = Meanings.decode(cursor.getString(3));
+            merged = original;
+        }
+        saveMerged(update, keptId, original, merged);
+        cursor.close();
+        update.close();
+        delete.close();
+        return deleted;
+    }
+
+    /**
+     * Helper function of mergeDuplicates() to store the meanings of the kept word if they changed.
+     */
+    private static void saveMerged(SQLiteStatement update, long id, List<String> original, List<String> merged){
+        if (merged != original) {
+            update.bindString(1, Meanings.encode(merged));
+            update.bindLong(2, id);
+            update.executeUpdateDelete();
+        }
+    }
+
+    private static void createDedupIndex(SQLiteDatabase db){
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + DEDUP_INDEX + " ON " + WORDS_TABLE + " (" + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_DEDUP_KEY + ")");
+    }
+
+
+    /**
+     * Version 6 sorts the words by locale-aware collation keys instead of by code point. Every vocabulary gets the
+     * locale of the device; the keys are computed in batches and the index over the words is replaced.
+     */
+    private static void addSortKeys(SQLiteDatabase db){
+        if (!columnExists(db, VOCAB_METADATA_TABLE, META_KEY_LOCALE)) {
+            db.execSQL("ALTER TABLE " + VOCAB_METADATA_TABLE + " ADD COLUMN " + META_KEY_LOCALE + " TEXT");
+        }
+        if (!columnExists(db, WORDS_TABLE, WORD_KEY_SORT_KEY)) {
+            db.execSQL("ALTER TABLE " + WORDS_TABLE + " ADD COLUMN " + WORD_KEY_SORT_KEY + " BLOB");
+        }
+        String locale = Locale.getDefault().toLanguageTag();
+        db.execSQL("UPDATE " + VOCAB_METADATA_TABLE + " SET " + META_KEY_LOCALE + " = ? WHERE " + META_KEY_LOCALE + " IS NULL", new Object[]{locale});
+        db.execSQL("DROP INDEX IF EXISTS words_vocab_word_idx");
+        db.execSQL("DROP TRIGGER IF EXISTS " + WORDS_FTS_TABLE + "_bu"); // Fired by any update, so they'd reindex every word
+        db.execSQL("DROP TRIGGER IF EXISTS " + WORDS_FTS_TABLE + "_au");
+        createSearchIndex(db);
+        fillSortKeys(db, new SortKeys(locale), "1", null);
+        db.execSQL("CREATE INDEX IF NOT EXISTS words_vocab_sort_idx ON " + WORDS_TABLE + " (" + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_SORT_KEY + ", " + WORD_KEY_ID + ")");
+    }
+
+    /**
+     * Version 9 records the version of the sort keys of every vocabulary. It is left empty here, so the keys are
+     * computed again by refreshSortKeys() when the database is opened.
+     */
+    private static void addCollatorVersions(SQLiteDatabase db){
+        if (!columnExists(db, VOCAB_METADATA_TABLE, META_KEY_COLLATOR)) {
+            db.execSQL("ALTER TABLE " + VOCAB_METADATA_TABLE + " ADD COLUMN " + META_KEY_COLLATOR + " TEXT");
+        }
+    }
+
+    /**
+     * Computes the sort keys of the vocabularies again if they were made by another version of the collation data,
+     * e.g. before an OS update. Old and new keys can't be mixed in one ordering. Runs in its own transaction.
+     * @param db (SQLiteDatabase) database
+     * @return (int) number of updated words
+     */
+    static int refreshSortKeys(SQLiteDatabase db){
+        List<Long> ids = new ArrayList<>();
+        List<String> locales = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + META_KEY_ID + ", IFNULL(" + META_KEY_LOCALE + ", ''), " + META_KEY_COLLATOR + " FROM " + VOCAB_METADATA_TABLE, null);
+        Map<String, SortKeys> keysOf = new HashMap<>(); // Collators are expensive to create
+        try {
+            while (cursor.moveToNext()) {
+                String locale = cursor.getString(1);
+                SortKeys keys = keysOf.get(locale);
+                if (keys == null) {
+                    keys = new SortKeys(locale);
+                    keysOf.put(locale, keys);
+                }
+                if (!keys.getVersion().equals(cursor.getString(2))) {
+                    ids.add(cursor.getLong(0));
+                    locales.add(locale);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int total = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                SortKeys keys = keysOf.get(locales.get(i));
+                String id = String.valueOf(ids.get(i));
+                total += fillSortKeys(db, keys, WORD_KEY_VOCAB_ID + "=?", new String[]{id});
+                db.execSQL("UPDATE " + VOCAB_METADATA_TABLE + " SET " + META_KEY_COLLATOR + " = ? WHERE " + META_KEY_ID + " = ?", new Object[]{keys.getVersion(), id});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return total;
+    }
+
+    /**
+     * Computes the sort keys of a set of words in batches, e.g. after the locale of a vocabulary was changed.
+     * Setting the keys isn't journaled, the words themselves don't change.
+     * @param db (SQLiteDatabase) database, inside a transaction
+     * @param keys (SortKeys) - keys of the locale of the words
+     * @param where (String) - condition on the words table
+     * @param args (String[]) - parameters of the condition, can be null
+     * @return (int) number of updated words
+     */
+    static int fillSortKeys(SQLiteDatabase db, SortKeys keys, String where, String[] args){
+        SQLiteStatement update = db.compileStatement("UPDATE " + WORDS_TABLE + " SET " + WORD_KEY_SORT_KEY + " = ? WHERE " + WORD_KEY_ID + " = ?");
+        int extra = args == null ? 0 : args.length;
+        String[] allArgs = new String[extra + 1];
+        if (args != null) {
+            System.arraycopy(args, 0, allArgs, 0, extra);
+        }
+        long lastId = -1;
+        int total = 0;
+        while (true) {
+            allArgs[extra] = String.valueOf(lastId);
+            Cursor cursor = db.rawQuery("SELECT " + WORD_KEY_ID + ", " + WORD_KEY_WORD + " FROM " + WORDS_TABLE + " WHERE (" + where + ") AND " + WORD_KEY_ID + " > ? ORDER BY "
+                    + WORD_KEY_ID + " LIMIT " + MIGRATION_BATCH_SIZE, allArgs);
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                byte[] key = keys.key(cursor.getString(1));
+                if (key != null) {
+                    update.bindBlob(1, key);
+                } else {
+                    update.bindNull(1);
+                }
+                update.bindLong(2, lastId);
+                update.executeUpdateDelete();
+                rows++;
+            }
+            cursor.close();
+            total += rows;
+            if (rows < MIGRATION_BATCH_SIZE) {
+                break;
+            }
+        }
+        update.close();
+        return total;
+    }
+
+
+    /**
+     * Drops the triggers on the words table before a bulk load, so the rows are inserted without updating the word
+     * counts and the search index one row at a time. The unique index goes too, so duplicates can be loaded and
+     * merged at the end. Call finishBulkLoad() in the same transaction once done.
+     * @param db (SQLiteDatabase) database, inside a transaction
+     */
+    static void startBulkLoad(SQLiteDatabase db){
+        db.execSQL("DROP INDEX IF EXISTS " + DEDUP_INDEX);
+        for (String trigger : new String[]{"words_count_ai", "words_count_ad", "words_count_au",
+                WORDS_FTS_TABLE + "_ai", WORDS_FTS_TABLE + "_bu", WORDS_FTS_TABLE + "_au", WORDS_FTS_TABLE + "_bd",
+                JOURNAL_TABLE + "_ai", JOURNAL_TABLE + "_au", JOURNAL_TABLE + "_ad", REVIEWS_TABLE + "_ai"}) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+        }
+    }
+
+    /**
+     * Merges duplicates, recomputes the word counts, rebuilds the search index and schedules the new words in one
+     * pass each, then restores the indexes and triggers. The bulk load isn't journaled.
+     * @param db (SQLiteDatabase) database, inside the transaction of startBulkLoad()
+     */
+    static void finishBulkLoad(SQLiteDatabase db){
+        mergeDuplicates(db);
+        createDedupIndex(db);
+        db.execSQL("UPDATE " + VOCAB_METADATA_TABLE + " SET " + META_KEY_WORD_COUNT + " = (SELECT COUNT(*) FROM " + WORDS_TABLE
+                + " WHERE " + WORD_KEY_VOCAB_ID + " = " + VOCAB_METADATA_TABLE + "." + META_KEY_ID + ")");
+        createWordCountTriggers(db);
+        if (tableExists(db, WORDS_FTS_TABLE)) {
+            db.execSQL("INSERT INTO " + WORDS_FTS_TABLE + "(" + WORDS_FTS_TABLE + ") VALUES('rebuild')");
+        }
+        createSearchIndex(db);
+        createJournal(db);
+        addMissingReviews(db);
+        createReviews(db);
+    }
+
+
+    /**
+     * Version 5 journals the changes of the words, so an export can write only what changed since the previous one.
+     * The sequence is AUTOINCREMENT, so it keeps growing after old entries are trimmed. Words removed together with
+     * their vocabulary aren't journaled, the vocabulary is gone by then.
+     */
+    private static void createJournal(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + JOURNAL_TABLE + " (" + JOURNAL_KEY_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + JOURNAL_KEY_VOCAB_ID + " INTEGER NOT NULL, " + JOURNAL_KEY_WORD_ID + " INTEGER NOT NULL, " + JOURNAL_KEY_OP + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS change_journal_vocab_idx ON " + JOURNAL_TABLE + " (" + JOURNAL_KEY_VOCAB_ID + ", " + JOURNAL_KEY_SEQ + ")");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + MARKS_TABLE + " (" + MARK_KEY_VOCAB_ID + " INTEGER PRIMARY KEY REFERENCES "
+                + VOCAB_METADATA_TABLE + "(" + META_KEY_ID + ") ON DELETE CASCADE, " + MARK_KEY_SEQ + " INTEGER NOT NULL)");
+        String insert = "INSERT INTO " + JOURNAL_TABLE + " (" + JOURNAL_KEY_VOCAB_ID + ", " + JOURNAL_KEY_WORD_ID + ", " + JOURNAL_KEY_OP + ") VALUES ";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + JOURNAL_TABLE + "_ai AFTER INSERT ON " + WORDS_TABLE + " BEGIN "
+                + insert + "(new." + WORD_KEY_VOCAB_ID + ", new." + WORD_KEY_ID + ", " + JOURNAL_INSERT + "); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + JOURNAL_TABLE + "_au AFTER UPDATE OF " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + " ON " + WORDS_TABLE + " BEGIN "
+                + insert + "(new." + WORD_KEY_VOCAB_ID + ", new." + WORD_KEY_ID + ", " + JOURNAL_UPDATE + "); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + JOURNAL_TABLE + "_ad AFTER DELETE ON " + WORDS_TABLE
+                + " WHEN EXISTS (SELECT 1 FROM " + VOCAB_METADATA_TABLE + " WHERE " + META_KEY_ID + " = old." + WORD_KEY_VOCAB_ID + ") BEGIN "
+                + insert + "(old." + WORD_KEY_VOCAB_ID + ", old." + WORD_KEY_ID + ", " + JOURNAL_DELETE + "); END");
+    }
+
+
+    /**
+     * Version 4 stores meanings joined by Word.MEANINGS_SEPARATOR instead of comas, so a meaning may contain a coma.
+     * Rows are converted in batches; the search index is rebuilt once at the end instead of by the update triggers.
+     */
+    private static void separateMeanings(SQLiteDatabase db){
+        db.execSQL("DROP TRIGGER IF EXISTS " + WORDS_FTS_TABLE + "_bu");
+        db.execSQL("DROP TRIGGER IF EXISTS " + WORDS_FTS_TABLE + "_au");
+        SQLiteStatement update = db.compileStatement("UPDATE " + WORDS_TABLE + " SET " + WORD_KEY_MEANINGS + " = ? WHERE " + WORD_KEY_ID + " = ?");
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = db.rawQuery("SELECT " + WORD_KEY_ID + ", " + WORD_KEY_MEANINGS + " FROM " + WORDS_TABLE + " WHERE " + WORD_KEY_ID + " > ? AND "
+                    + WORD_KEY_MEANINGS + " LIKE '%,%' ORDER BY " + WORD_KEY_ID + " LIMIT " + MIGRATION_BATCH_SIZE, new String[]{String.valueOf(lastId)});
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                update.bindString(1, Meanings.encode(Meanings.parse(cursor.getString(1))));
+                update.bindLong(2, lastId);
+                update.executeUpdateDelete();
+                rows++;
+            }
+            cursor.close();
+            if (rows < MIGRATION_BATCH_SIZE) {
+                break;
+            }
+        }
+        update.close();
+        if (tableExists(db, WORDS_FTS_TABLE)) {
+            db.execSQL("INSERT INTO " + WORDS_FTS_TABLE + "(" + WORDS_FTS_TABLE + ") VALUES('rebuild')");
+        }
+        createSearchIndex(db); // Restore the update triggers
+    }
+
+
+    /**
+     * Version 3 keeps the number of words of each vocabulary in its metadata row.
+     */
+    private static void addWordCounts(SQLiteDatabase db){
+        if (!columnExists(db, VOCAB_METADATA_TABLE, META_KEY_WORD_COUNT)) {
+            db.execSQL("ALTER TABLE " + VOCAB_METADATA_TABLE + " ADD COLUMN " + META_KEY_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0");
+        }
+        db.execSQL("UPDATE " + VOCAB_METADATA_TABLE + " SET " + META_KEY_WORD_COUNT + " = (SELECT COUNT(*) FROM " + WORDS_TABLE
+                + " WHERE " + WORD_KEY_VOCAB_ID + " = " + VOCAB_METADATA_TABLE + "." + META_KEY_ID + ")");
+        createWordCountTriggers(db);
+    }
+
+    /**
+     * Creates the triggers that keep vocab_metadata.word_count up to date, so counting words is a single row read.
+     */
+    private static void createWordCountTriggers(SQLiteDatabase db){
+        String increment = "UPDATE " + VOCAB_METADATA_TABLE + " SET " + META_KEY_WORD_COUNT + " = " + META_KEY_WORD_COUNT + " + 1 WHERE " + META_KEY_ID + " = new." + WORD_KEY_VOCAB_ID + ";";
+        String decrement = "UPDATE " + VOCAB_METADATA_TABLE + " SET " + META_KEY_WORD_COUNT + " = " + META_KEY_WORD_COUNT + " - 1 WHERE " + META_KEY_ID + " = old." + WORD_KEY_VOCAB_ID + ";";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS words_count_ai AFTER INSERT ON " + WORDS_TABLE + " BEGIN " + increment + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS words_count_ad AFTER DELETE ON " + WORDS_TABLE + " BEGIN " + decrement + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS words_count_au AFTER UPDATE OF " + WORD_KEY_VOCAB_ID + " ON " + WORDS_TABLE
+                + " WHEN old." + WORD_KEY_VOCAB_ID + " <> new." + WORD_KEY_VOCAB_ID + " BEGIN " + decrement + " " + increment + " END");
+    }
+
+
+    /**
+     * Version 1 kept one table per vocabulary, named by the vocabulary's t_name. Their rows are copied into the
+     * words table in batches as a bulk load, so the copy isn't journaled, then the old tables are dropped.
+     * Vocabularies that ended up sharing a table because of the truncated table names each get a copy of its rows,
+     * and their t_name is made unique.
+     */
+    private static void migrateToSingleWordsTable(SQLiteDatabase db){
+        // The metadata table was created on first run, so it might be missing
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + VOCAB_METADATA_TABLE + " (" + META_KEY_ID + " INTEGER PRIMARY KEY, " + META_KEY_NAME + " TEXT, " + META_KEY_TABLE_NAME + " TEXT)");
+        db.execSQL("ALTER TABLE " + VOCAB_METADATA_TABLE + " RENAME TO " + VOCAB_METADATA_TABLE + "_v1");
+        if (tableExists(db, WORDS_TABLE)) { // A vocabulary called "words" would be in the way
+            db.execSQL("ALTER TABLE " + WORDS_TABLE + " RENAME TO " + WORDS_TABLE + "_v1");
+            db.execSQL("DROP TABLE IF EXISTS " + WORDS_FTS_TABLE); // Its search index, rebuilt below
+        }
+        create(db);
+        startBulkLoad(db); // No journal, review, count or search index rows one by one, they are made once after the copy
+        db.execSQL("INSERT INTO " + VOCAB_METADATA_TABLE + " (" + META_KEY_ID + ", " + META_KEY_NAME + ") SELECT " + META_KEY_ID + ", " + META_KEY_NAME
+                + " FROM " + VOCAB_METADATA_TABLE + "_v1");
+
+        Set<String> legacyTables = new HashSet<>();
+        Set<String> originalNames = new HashSet<>();
+        Set<String> usedNames = new HashSet<>();
+        List<Object[]> vocabs = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + META_KEY_ID + ", " + META_KEY_TABLE_NAME + " FROM " + VOCAB_METADATA_TABLE + "_v1 ORDER BY " + META_KEY_ID, null);
+        while (cursor.moveToNext()) {
+            vocabs.add(new Object[]{cursor.getLong(0), cursor.getString(1)});
+            originalNames.add(cursor.getString(1));
+        }
+        cursor.close();
+
+        SQLiteStatement setTableName = db.compileStatement("UPDATE " + VOCAB_METADATA_TABLE + " SET " + META_KEY_TABLE_NAME + " = ? WHERE " + META_KEY_ID + " = ?");
+        for (Object[] vocab : vocabs) {
+            long vocabId = (Long) vocab[0];
+            String table = (String) vocab[1];
+            if (table == null) {
+                continue;
+            }
+            String source = table.equals(WORDS_TABLE) ? WORDS_TABLE + "_v1" : table;
+            if (tableExists(db, source)) {
+                legacyTables.add(source);
+                copyWords(db, source, vocabId);
+            }
+            String name = table;
+            for (int i = 2; usedNames.contains(name) || (i > 2 && originalNames.contains(name)); i++) {
+                name = table + "_" + i;
+            }
+            usedNames.add(name);
+            setTableName.bindString(1, name);
+            setTableName.bindLong(2, vocabId);
+            setTableName.executeUpdateDelete();
+        }
+        setTableName.close();
+
+        for (String table : legacyTables) {
+            db.execSQL("DROP TABLE IF EXISTS " + table + LEGACY_FTS_SUFFIX);
+            db.execSQL("DROP TABLE IF EXISTS \"" + table + "\"");
+        }
+        db.execSQL("DROP TABLE " + VOCAB_METADATA_TABLE + "_v1");
+        finishBulkLoad(db);
+    }
+
+    /**
+     * Helper function to copy the rows of a version 1 vocab table into the words table, one batch at a time.
+     */
+    private static void copyWords(SQLiteDatabase db, String table, long vocabId){
+        SQLiteStatement copy = db.compileStatement("INSERT INTO " + WORDS_TABLE + " (" + WORD_KEY_VOCAB_ID + ", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ")"
+                + " SELECT ?, " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + " FROM \"" + table + "\" WHERE " + WORD_KEY_ID + " > ? ORDER BY " + WORD_KEY_ID + " LIMIT " + MIGRATION_BATCH_SIZE);
+        long lastId = -1;
+        while (true) {
+            long batchEnd = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + WORD_KEY_ID + "), -1) FROM (SELECT " + WORD_KEY_ID + " FROM \"" + table + "\" WHERE "
+                    + WORD_KEY_ID + " > ? ORDER BY " + WORD_KEY_ID + " LIMIT " + MIGRATION_BATCH_SIZE + ")", new String[]{String.valueOf(lastId)});
+            if (batchEnd < 0) {
+                break;
+            }
+            copy.bindLong(1, vocabId);
+            copy.bindLong(2, lastId);
+            copy.executeInsert();
+            lastId = batchEnd;
+        }
+        copy.close();
+    }
+
+    /**
+     * Helper function to check whether a table has a column.
+     */
+    private static boolean columnExists(SQLiteDatabase db, String table, String column){
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        boolean exists = false;
+        while (cursor.moveToNext() && !exists) {
+            exists = column.equals(cursor.getString(cursor.getColumnIndex("name")));
+        }
+        cursor.close();
+        return exists;
+    }
+
+    /**
+     * Helper function to check whether a table exists.
+     */
+    private static boolean tableExists(SQLiteDatabase db, String table){
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type='table' AND name=?", new String[]{table}) > 0;
+    }
+
+    /**
+     * Creates the FTS4 index over words and meanings together with the triggers that keep it in sync.
+     * The index stores no copy of the text (external content).
+     */
+    private static void createSearchIndex(SQLiteDatabase db){
+        if (!tableExists(db, WORDS_FTS_TABLE)) {
+            String columns = "content=\"" + WORDS_TABLE + "\", " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS;
+            try {
+                db.execSQL("CREATE VIRTUAL TABLE " + WORDS_FTS_TABLE + " USING fts4(" + columns + ", tokenize=unicode61)"); // Case and accent folding
+            } catch (SQLException e) {
+                db.execSQL("CREATE VIRTUAL TABLE " + WORDS_FTS_TABLE + " USING fts4(" + columns + ")"); // unicode61 isn't available on this build
+            }
+        }
+        String newRow = "INSERT INTO " + WORDS_FTS_TABLE + "(docid, " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS + ") VALUES(new." + WORD_KEY_ID + ", new." + WORD_KEY_WORD + ", new." + WORD_KEY_MEANINGS + ");";
+        String oldRow = "DELETE FROM " + WORDS_FTS_TABLE + " WHERE docid=old." + WORD_KEY_ID + ";";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + WORDS_FTS_TABLE + "_ai AFTER INSERT ON " + WORDS_TABLE + " BEGIN " + newRow + " END");
+        String textColumns = " OF " + WORD_KEY_WORD + ", " + WORD_KEY_MEANINGS; // Sort keys aren't indexed
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + WORDS_FTS_TABLE + "_bu BEFORE UPDATE" + textColumns + " ON " + WORDS_TABLE + " BEGIN " + oldRow + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + WORDS_FTS_TABLE + "_au AFTER UPDATE" + textColumns + " ON " + WORDS_TABLE + " BEGIN " + newRow + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + WORDS_FTS_TABLE + "_bd BEFORE DELETE ON " + WORDS_TABLE + " BEGIN " + oldRow + " END");
+    }
+}
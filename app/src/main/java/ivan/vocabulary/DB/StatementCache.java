@@ -0,0 +1,138 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteStatement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The StatementCache class keeps compiled statements of the frequent single-row operations, so their SQL is parsed
+ * and planned once per connection instead of on every call. At most MAX_SIZE statements are kept, the least recently
+ * used one is closed first. A statement can't be bound by two threads at a time, so the statements are used under
+ * the lock of the cache; the connection serialises the writes anyway.
+ */
+class StatementCache {
+    static final int MAX_SIZE = 16;
+    private final ConnectionManager connections;
+    private SQLiteDatabase database = null; // Connection the statements were compiled on
+    private final LinkedHashMap<String, SQLiteStatement> statements = new LinkedHashMap<String, SQLiteStatement>(MAX_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if (size() > MAX_SIZE) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Constructor
+     * @param connections (ConnectionManager) - manager of the shared connection
+     */
+    StatementCache(ConnectionManager connections){
+        this.connections = connections;
+    }
+
+    /**
+     * Runs a cached INSERT statement.
+     * @param key (String) - operation the statement is cached under
+     * @param sql (String) - SQL of the statement, compiled on the first call
+     * @param args (Object...) - parameters: String, Number, byte[] or null
+     * @return (long) row id or -1 on failure
+     */
+    synchronized long executeInsert(String key, String sql, Object... args){
+        SQLiteDatabase db = connections.acquire();
+        try {
+            return bind(db, key, sql, args).executeInsert();
+        } finally {
+            connections.release(db);
+        }
+    }
+
+    /**
+     * Runs a cached UPDATE or DELETE statement.
+     * @param key (String) - operation the statement is cached under
+     * @param sql (String) - SQL of the statement, compiled on the first call
+     * @param args (Object...) - parameters: String, Number, byte[] or null
+     * @return (int) number of changed rows
+     */
+    synchronized int executeUpdateDelete(String key, String sql, Object... args){
+        SQLiteDatabase db = connections.acquire();
+        try {
+            return bind(db, key, sql, args).executeUpdateDelete();
+        } finally {
+            connections.release(db);
+        }
+    }
+
+    /**
+     * Runs a cached query that returns a single number, e.g. SELECT COUNT(*).
+     * @param key (String) - operation the statement is cached under
+     * @param sql (String) - SQL of the statement, compiled on the first call
+     * @param args (Object...) - parameters: String, Number, byte[] or null
+     * @return (long) value of the first column of the first row
+     */
+    synchronized long simpleQueryForLong(String key, String sql, Object... args){
+        SQLiteDatabase db = connections.acquire();
+        try {
+            return bind(db, key, sql, args).simpleQueryForLong();
+        } finally {
+            connections.release(db);
+        }
+    }
+
+    /**
+     * Closes all the statements, e.g. before the connection is closed.
+     */
+    synchronized void clear(){
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        database = null;
+    }
+
+    /**
+     * Helper function to get the statement of an operation, compiling it if needed, with the parameters bound.
+     */
+    private SQLiteStatement bind(SQLiteDatabase db, String key, String sql, Object[] args){
+        if (db != database) { // Connection was reopened, the old statements belong to the closed one
+            clear();
+            database = db;
+        }
+        SQLiteStatement statement = statements.get(key);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(key, statement);
+        }
+        bindAll(statement, args);
+        return statement;
+    }
+
+    /**
+     * Binds parameters of any supported type to a statement or a query, replacing the previous ones.
+     * @param program (SQLiteProgram) - compiled statement or query
+     * @param args (Object[]) - parameters: String, Number, byte[] or null
+     */
+    static void bindAll(SQLiteProgram program, Object[] args){
+        program.clearBindings();
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                program.bindNull(i + 1);
+            } else if (arg instanceof Number) {
+                program.bindLong(i + 1, ((Number) arg).longValue());
+            } else if (arg instanceof byte[]) {
+                program.bindBlob(i + 1, (byte[]) arg);
+            } else {
+                program.bindString(i + 1, arg.toString());
+            }
+        }
+    }
+}
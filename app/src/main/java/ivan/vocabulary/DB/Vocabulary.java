@@ -10,6 +10,7 @@ package ivan.vocabulary.DB;
 public class Vocabulary {
     private int id;
     private String name, table;
+    private int wordCount = 0;
     private boolean undoDelition = false;
 
 
@@ -23,6 +24,10 @@ public class Vocabulary {
         this.name = name;
         this.table = table;
     }
+    public Vocabulary(int id, String name, String table, int wordCount){
+        this(id, name, table);
+        this.wordCount = wordCount;
+    }
     public String getName() {
         return name;
     }
@@ -47,6 +52,14 @@ public class Vocabulary {
         this.id = id;
     }
 
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public void setWordCount(int wordCount) {
+        this.wordCount = wordCount;
+    }
+
     public boolean getUndo (){
         return undoDelition;
     }
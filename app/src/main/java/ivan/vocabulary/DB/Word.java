@@ -5,13 +5,21 @@
 package ivan.vocabulary.DB;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import ivan.vocabulary.core.Meanings;
 /**
  * Class to facilitate work with vocabulary records retrieved from the database.
+ * Meanings are kept as a list that is parsed once, when the word is created. In the database they are stored
+ * as a single column with the meanings joined by MEANINGS_SEPARATOR, so a meaning may contain commas.
+ * The conversions are done by the Meanings class of the core module.
  */
 public class Word {
+    public static final char MEANINGS_SEPARATOR = Meanings.SEPARATOR;
     private int id;
-    private String word, meanings;
+    private String word, meanings; // meanings in the stored form
+    private List<String> meaningsList = Meanings.NONE;
+    private byte[] sortKey; // Collation key of the word in the locale of its vocabulary, null until DB computes it
     private boolean undoDelition = false;
 
     public Word(){}
@@ -23,21 +31,21 @@ public class Word {
     /**
      * Constructor
      * @param word (String) - word
-     * @param meanings(String) string of meanings separated with comas
+     * @param meanings(String) string of meanings separated with comas, as typed by the user
      */
     public Word(String word, String  meanings){
         this.word = word;
-        this.meanings = verifyMeanings(meanings);
+        setMeanings(Meanings.parse(meanings));
     }
 
     /**
      * Constructor
      * @param word (String) - word
-     * @param meanings (ArrayList<String>) list of meanings
+     * @param meanings (List<String>) list of meanings
      */
-    public Word(String word, ArrayList<String> meanings){
+    public Word(String word, List<String> meanings){
         this.word = word;
-        this.meanings = verifyMeanings(meanings);
+        setMeanings(meanings);
     }
 
 
@@ -45,75 +53,78 @@ public class Word {
      * Used to retrieve words from the database
      * @param id (int) - database record id
      * @param word (String) - word
-     * @param meanings(String) string of meanings separated with comas
+     * @param meanings(String) meanings in the stored form, see MEANINGS_SEPARATOR
      */
     public Word(int id, String word, String meanings){
         this.id = id;
         this.word = word;
         this.meanings = meanings;
+        this.meaningsList = Meanings.decode(meanings);
     }
 
-
     /**
-     * Helper function to verify correctness of each meaning entry in the meanings string.
-     * @param meanings (String) input
-     * @return (String) output
+     * Used to retrieve words from the database together with their sort key
+     * @param id (int) - database record id
+     * @param word (String) - word
+     * @param meanings(String) meanings in the stored form, see MEANINGS_SEPARATOR
+     * @param sortKey (byte[]) - collation key of the word, see SortKeys
      */
-    private String verifyMeanings (String meanings){
-        String result = "";
-        String [] meaningsArray = meanings.split(",");
-        int i = 0;
-        int l = meaningsArray.length-1;
-        for(;i<l;i++){
-            String trimmed = meaningsArray[i].trim();
-            if(!trimmed.matches("")){
-                result += trimmed + ",";
-            }
-        }
-        result += meaningsArray[l]; //append last string without coma
-        return result;
+    Word(int id, String word, String meanings, byte[] sortKey){
+        this(id, word, meanings);
+        this.sortKey = sortKey;
     }
 
 
     /**
-     * Helper function to verify correctness of each meaning entry in the meanings list.
-     * @param meanings (ArrayList<String>) input
-     * @return (String) output
+     * Copy constructor. The undo flag isn't copied.
+     * @param other (Word) - word to copy
      */
-     private String verifyMeanings (ArrayList<String> meanings){
-            int i = 0;
-            String result = "";
-
-             for(; i < meanings.size()-1;i++){ // Trim each meaning
-                 String m = meanings.get(i).trim().replace(",", "");
-                 if(!m.equals("")){ // Check that it is not empty
-                     result += m + ",";
-                 }
-             }
-            result += meanings.get(meanings.size()-1); //append last string without coma
-            return result;
-        }
+    Word(Word other){
+        this.id = other.id;
+        this.word = other.word;
+        this.meanings = other.meanings;
+        this.meaningsList = other.meaningsList; // Unmodifiable, so it can be shared
+        this.sortKey = other.sortKey; // Never changed in place, so it can be shared
+    }
 
 
     /**
-     * Splits string into an array and returns the array
-     * @return (String[]) - array of meanings
+     * Returns the meanings as an array
+     * @return (String[]) - array of meanings or null if there are none
      */
     public String[] getArrayOfMeanings(){
-        if(!meanings.equals("")) {
-            return meanings.split(",");
-        }
-        return null;
+        return Meanings.toArray(meaningsList);
     }
     /**
-     * Splits string into a list and returns it
-     * @return (ArrayList<String>) - list of meanings
+     * Returns a copy of the meanings that can be edited
+     * @return (ArrayList<String>) - list of meanings, empty if there are none
      */
     public ArrayList<String> getListOfMeanings(){
-        if(!meanings.equals("")) {
-            return  new ArrayList<String>((Arrays.asList(meanings.split(","))));
-        }
-        return null;
+        return new ArrayList<>(meaningsList);
+    }
+
+    /**
+     * Returns the first meaning without allocating, to be used when binding list rows.
+     * @return (String) - first meaning or an empty string
+     */
+    public String getFirstMeaning(){
+        return meaningsList.isEmpty() ? "" : meaningsList.get(0);
+    }
+
+    /**
+     * Returns the number of meanings
+     * @return (int) - number of meanings
+     */
+    public int getMeaningsCount(){
+        return meaningsList.size();
+    }
+
+    /**
+     * Returns the meanings separated with comas, for display
+     * @return (String) - meanings
+     */
+    public String getMeaningsText(){
+        return Meanings.join(meaningsList, ',');
     }
 
 
@@ -131,14 +142,32 @@ public class Word {
 
     public void setWord(String word) {
         this.word = word;
+        this.sortKey = null; // Belongs to the old text
     }
 
+    /**
+     * Returns the collation key of the word, see SortKeys
+     * @return (byte[]) - key or null if it wasn't computed
+     */
+    byte[] getSortKey() {
+        return sortKey;
+    }
+
+    /**
+     * Returns the meanings in the stored form
+     * @return (String) - meanings or null if the word has none
+     */
     public String getMeanings() {
         return meanings;
     }
 
-    public void setMeanings(String meanings) {
-        this.meanings = meanings;
+    /**
+     * Replaces the meanings
+     * @param meanings (List<String>) - new meanings
+     */
+    public void setMeanings(List<String> meanings) {
+        this.meaningsList = Collections.unmodifiableList(Meanings.verify(meanings));
+        this.meanings = Meanings.encode(this.meaningsList);
     }
     public boolean getUndo (){
         return undoDelition;
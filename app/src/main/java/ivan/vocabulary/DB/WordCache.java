@@ -0,0 +1,330 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import ivan.vocabulary.core.SortKeys;
+
+/**
+ * The WordCache class keeps the sorted words of recently used vocabularies in memory, so paging through a vocabulary,
+ * moving back and forth between vocabularies and adding words don't hit SQLite for rows that are already loaded.
+ * The cache is bounded by the estimated size of the words in bytes, not by the number of vocabularies.
+ * Words are kept in the same (sort_key, id) order as the SQL queries, so every cached word carries its sort key,
+ * see SortKeys. Keys are compared as SQLite compares BLOBs.
+ * Every write to the words goes through DB, which updates or invalidates the cached vocabulary.
+ * Callers get copies, so the cached words can't be changed from the outside.
+ */
+class WordCache {
+    private static final int WORD_OVERHEAD_BYTES = 80; // Word object, its strings and the list slot
+    private static final int MEANING_OVERHEAD_BYTES = 40; // String object of a parsed meaning
+    static final int AVERAGE_WORD_BYTES = 200; // Used to guess the size of a vocab before it is loaded
+    private final LruCache<String, Entry> cache;
+    private int version = 0; // Incremented by every write, so a load that raced with a write isn't stored
+
+
+    /**
+     * Cached words of a vocabulary. A new entry is put into the LruCache after every change, so the size
+     * the LruCache has recorded for the old entry stays correct.
+     */
+    private static class Entry {
+        final ArrayList<Word> words;
+        final int bytes;
+
+        Entry(ArrayList<Word> words, int bytes){
+            this.words = words;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param maxBytes (int) - max estimated size of the cached words
+     */
+    WordCache(int maxBytes){
+        cache = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.bytes;
+            }
+        };
+    }
+
+    /**
+     * Tells whether a vocabulary of a given size is worth loading in full.
+     * @param count (int) - number of words
+     * @return (boolean) true if it would take at most half of the cache
+     */
+    boolean fits(int count){
+        return (long) count * AVERAGE_WORD_BYTES <= cache.maxSize() / 2;
+    }
+
+    /**
+     * Returns the version to be passed to put() by a load that is about to start.
+     * @return (int) version
+     */
+    synchronized int version(){
+        return version;
+    }
+
+    /**
+     * Caches the words of a vocabulary unless it was written to since the load started.
+     * @param tableName (String) - vocab table
+     * @param words (List<Word>) - all the words of the vocab in ascending order
+     * @param loadVersion (int) - value of version() before the load
+     */
+    synchronized void put(String tableName, List<Word> words, int loadVersion){
+        if (loadVersion != version) {
+            return;
+        }
+        int bytes = 0;
+        for (Word w : words) {
+            bytes += estimateBytes(w);
+        }
+        cache.put(tableName, new Entry(new ArrayList<>(words), bytes));
+    }
+
+    /**
+     * Tells whether the words of a vocabulary are cached.
+     * @param tableName (String) - vocab table
+     * @return (boolean) true if cached
+     */
+    synchronized boolean contains(String tableName){
+        return cache.get(tableName) != null;
+    }
+
+    /**
+     * Returns the number of words of a cached vocabulary.
+     * @param tableName (String) - vocab table
+     * @return (int) number of words or -1 if the vocab isn't cached
+     */
+    synchronized int count(String tableName){
+        Entry entry = cache.get(tableName);
+        return entry == null ? -1 : entry.words.size();
+    }
+
+    /**
+     * Returns all the words of a cached vocabulary.
+     * @param tableName (String) - vocab table
+     * @return (List<Word>) copies of the words or null if the vocab isn't cached
+     */
+    synchronized List<Word> all(String tableName){
+        Entry entry = cache.get(tableName);
+        return entry == null ? null : copy(entry.words, 0, entry.words.size(), null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as DB.getWordsAfter().
+     * @return (List<Word>) copies of the words or null if the vocab isn't cached
+     */
+    synchronized List<Word> after(String tableName, Word after, int limit, Collection<Integer> excludedIds){
+        Entry entry = cache.get(tableName);
+        if (entry == null) {
+            return null;
+        }
+        int from = after == null ? 0 : upperBound(entry.words, after);
+        return copy(entry.words, from, entry.words.size(), excludedIds, limit);
+    }
+
+    /**
+     * Same as DB.getWordsBefore().
+     * @return (List<Word>) copies of the words in ascending order or null if the vocab isn't cached
+     */
+    synchronized List<Word> before(String tableName, Word before, int limit, Collection<Integer> excludedIds){
+        Entry entry = cache.get(tableName);
+        if (entry == null) {
+            return null;
+        }
+        List<Word> result = new ArrayList<>(limit);
+        for (int i = lowerBound(entry.words, before) - 1; i >= 0 && result.size() < limit; i--) {
+            Word w = entry.words.get(i);
+            if (excludedIds == null || !excludedIds.contains(w.getId())) {
+                result.add(new Word(w));
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Same as DB.getWordsAt().
+     * @return (List<Word>) copies of the words or null if the vocab isn't cached
+     */
+    synchronized List<Word> at(String tableName, int offset, int limit, Collection<Integer> excludedIds){
+        Entry entry = cache.get(tableName);
+        if (entry == null) {
+            return null;
+        }
+        int from = offset;
+        if (excludedIds != null && !excludedIds.isEmpty()) { // Positions don't count the excluded words
+            from = 0;
+            for (int skipped = 0; from < entry.words.size() && skipped < offset; from++) {
+                if (!excludedIds.contains(entry.words.get(from).getId())) {
+                    skipped++;
+                }
+            }
+        }
+        return copy(entry.words, Math.min(from, entry.words.size()), entry.words.size(), excludedIds, limit);
+    }
+
+    /**
+     * Same as DB.getWordPosition().
+     * @return (int) position or -1 if the vocab isn't cached
+     */
+    synchronized int position(String tableName, Word word, Collection<Integer> excludedIds){
+        Entry entry = cache.get(tableName);
+        if (entry == null) {
+            return -1;
+        }
+        int position = lowerBound(entry.words, word);
+        if (excludedIds != null && !excludedIds.isEmpty()) {
+            for (int i = 0, end = position; i < end; i++) {
+                if (excludedIds.contains(entry.words.get(i).getId())) {
+                    position--;
+                }
+            }
+        }
+        return position;
+    }
+
+
+
+    /* *********************************************************************************************
+     *                                         WRITES
+     * *********************************************************************************************/
+
+    /**
+     * Adds a word that was inserted into the DB to a cached vocabulary.
+     * @param tableName (String) - vocab table
+     * @param word (Word) - new word with its id set
+     */
+    synchronized void insert(String tableName, Word word){
+        version++;
+        Entry entry = cache.get(tableName);
+        if (entry != null) {
+            Word w = new Word(word);
+            entry.words.add(lowerBound(entry.words, w), w);
+            cache.put(tableName, new Entry(entry.words, entry.bytes + estimateBytes(w)));
+        }
+    }
+
+    /**
+     * Replaces a word of a cached vocabulary. It is moved, if its text changed.
+     * @param tableName (String) - vocab table
+     * @param word (Word) - new values with the id set
+     */
+    synchronized void update(String tableName, Word word){
+        delete(tableName, word.getId()); // Both bump the version
+        insert(tableName, word);
+    }
+
+    /**
+     * Removes a word from a cached vocabulary.
+     * @param tableName (String) - vocab table
+     * @param id (int) - id of the word
+     */
+    synchronized void delete(String tableName, int id){
+        version++;
+        Entry entry = cache.get(tableName);
+        if (entry == null) {
+            return;
+        }
+        for (int i = 0; i < entry.words.size(); i++) {
+            if (entry.words.get(i).getId() == id) {
+                Word removed = entry.words.remove(i);
+                cache.put(tableName, new Entry(entry.words, entry.bytes - estimateBytes(removed)));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops a cached vocabulary, e.g. when it is deleted or many words are written at once.
+     * @param tableName (String) - vocab table
+     */
+    synchronized void invalidate(String tableName){
+        version++;
+        cache.remove(tableName);
+    }
+
+    /**
+     * Drops all the cached vocabularies, used when it isn't known what was written.
+     */
+    synchronized void invalidateAll(){
+        version++;
+        cache.evictAll();
+    }
+
+
+
+    /* *********************************************************************************************
+     *                                          MISC
+     * *********************************************************************************************/
+
+    /**
+     * Copies up to limit words from [from, to) that aren't excluded.
+     */
+    private static List<Word> copy(List<Word> words, int from, int to, Collection<Integer> excludedIds, int limit){
+        List<Word> result = new ArrayList<>(Math.min(limit, to - from));
+        for (int i = from; i < to && result.size() < limit; i++) {
+            Word w = words.get(i);
+            if (excludedIds == null || !excludedIds.contains(w.getId())) {
+                result.add(new Word(w));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Index of the first word that isn't less than the key.
+     */
+    private static int lowerBound(List<Word> words, Word key){
+        int low = 0, high = words.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(words.get(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Index of the first word that is greater than the key.
+     */
+    private static int upperBound(List<Word> words, Word key){
+        int low = 0, high = words.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(words.get(mid), key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Orders words by (sort key, id) the way "ORDER BY sort_key, _id" does.
+     */
+    static int compare(Word a, Word b){
+        int c = SortKeys.compare(a.getSortKey(), b.getSortKey());
+        return c != 0 ? c : (a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1));
+    }
+
+    /**
+     * Estimates the memory taken by a word.
+     */
+    private static int estimateBytes(Word w){
+        int chars = (w.getWord() == null ? 0 : w.getWord().length()) + (w.getSortKey() == null ? 0 : w.getSortKey().length / 2) + (w.getMeanings() == null ? 0 : 2 * w.getMeanings().length()); // Meanings are kept joined and parsed
+        return WORD_OVERHEAD_BYTES + 2 * chars + MEANING_OVERHEAD_BYTES * w.getMeaningsCount();
+    }
+}
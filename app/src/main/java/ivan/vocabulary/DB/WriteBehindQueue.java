@@ -0,0 +1,290 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import ivan.vocabulary.core.WordKeys;
+
+/**
+ * The WriteBehindQueue class collects word inserts, updates and deletes and writes them to the database later,
+ * all in one transaction. Pending writes are coalesced per word: an update of a pending insert becomes the insert,
+ * a delete of a pending insert cancels both, and only the last update of a word is kept.
+ * The queue is flushed FLUSH_DELAY ms after the first pending write, once MAX_PENDING writes are waiting,
+ * or when flush() is called (e.g. from onPause()).
+ * Inserted words get their id straight away: ids are reserved above the largest id in the words table, and every
+ * insert that bypasses the queue flushes it and holds its lock until it is done (see DB.addWords()), so reserved ids
+ * never clash with ids assigned by SQLite.
+ * The queue is cleared only once the transaction is committed. If it fails, nothing is lost: flush() throws and the
+ * writes stay queued, and a flush started by the timer or by a full queue is tried again FLUSH_DELAY ms later.
+ * The dedup keys (see WordKeys) of the pending inserts and updates are kept in a hash map, so a duplicate can be
+ * found among the queued words without flushing them, see DB.findDuplicate().
+ */
+class WriteBehindQueue {
+    static final long FLUSH_DELAY = 2000; // ms
+    static final int MAX_PENDING = 200; // Writes waiting before the queue is flushed right away
+    private final Map<String, LinkedHashMap<Integer, Write>> pending = new HashMap<>(); // Table name -> word id -> write
+    private final Map<String, HashMap<String, Integer>> keys = new HashMap<>(); // Table name -> dedup key -> word id
+    private int size = 0;
+    private long nextId = 0; // Next reserved id, 0 if none is reserved since the last flush
+    private ScheduledExecutorService timer = null;
+    private ScheduledFuture<?> scheduled = null;
+    private final Sink sink;
+
+
+    /**
+     * Pending write of one word.
+     */
+    static final class Write {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+        final int type;
+        final Word word; // null for deletes
+        final String key; // Dedup key of the word, null for deletes
+
+        Write(int type, Word word){
+            this.type = type;
+            this.word = word;
+            this.key = word == null ? null : WordKeys.of(word.getWord());
+        }
+    }
+
+    /**
+     * Receives the coalesced writes on flush, see DB.applyWrites().
+     */
+    interface Sink {
+        void apply(Map<String, LinkedHashMap<Integer, Write>> writes);
+        long maxWordId();
+    }
+
+    /**
+     * Constructor
+     * @param sink (Sink) - writes the queued words to the database
+     */
+    WriteBehindQueue(Sink sink){
+        this.sink = sink;
+    }
+
+    /**
+     * Queues a new word.
+     * @param tableName (String) - vocab table
+     * @param word (Word) - word
+     * @return (int) id reserved for the word
+     */
+    synchronized int insert(String tableName, Word word){
+        if (nextId == 0) {
+            nextId = sink.maxWordId() + 1;
+        }
+        int id = (int) nextId++;
+        put(tableName, id, new Write(Write.INSERT, new Word(id, word.getWord(), word.getMeanings(), word.getSortKey())));
+        return id;
+    }
+
+    /**
+     * Queues an update of a word.
+     * @param tableName (String) - vocab table
+     * @param id (int) - word id
+     * @param word (Word) - new values
+     */
+    synchronized void update(String tableName, int id, Word word){
+        Write previous = get(tableName, id);
+        if (previous != null && previous.type == Write.DELETE) {
+            return; // Already deleted
+        }
+        int type = previous != null && previous.type == Write.INSERT ? Write.INSERT : Write.UPDATE;
+        put(tableName, id, new Write(type, new Word(id, word.getWord(), word.getMeanings(), word.getSortKey())));
+    }
+
+    /**
+     * Queues a delete of a word.
+     * @param tableName (String) - vocab table
+     * @param id (int) - word id
+     */
+    synchronized void delete(String tableName, int id){
+        Write previous = get(tableName, id);
+        if (previous != null && previous.type == Write.INSERT) { // Never reached the database
+            pending.get(tableName).remove(id);
+            size--;
+            unindex(tableName, id, previous);
+            return;
+        }
+        put(tableName, id, new Write(Write.DELETE, null));
+    }
+
+    /**
+     * Returns true if there are pending writes.
+     * @param tableName (String) - vocab table, null for any table
+     * @return (boolean) true if something is waiting
+     */
+    synchronized boolean hasPending(String tableName){
+        if (tableName == null) {
+            return size > 0;
+        }
+        Map<Integer, Write> writes = pending.get(tableName);
+        return writes != null && !writes.isEmpty();
+    }
+
+    /**
+     * Returns true if a word has a pending write, i.e. its row in the database is about to change or go.
+     * @param tableName (String) - vocab table
+     * @param id (int) - word id
+     * @return (boolean) true if something is waiting for the word
+     */
+    synchronized boolean hasPending(String tableName, int id){
+        return get(tableName, id) != null;
+    }
+
+    /**
+     * Finds a pending insert or update that gives a word the dedup key, see WordKeys. Constant time.
+     * @param tableName (String) - vocab table
+     * @param key (String) - dedup key
+     * @param excludedId (int) - id of a word that doesn't count
+     * @return (Word) queued word with its id or null
+     */
+    synchronized Word findPending(String tableName, String key, int excludedId){
+        Map<String, Integer> ids = keys.get(tableName);
+        Integer id = ids == null ? null : ids.get(key);
+        return id == null || id == excludedId ? null : get(tableName, id).word;
+    }
+
+    /**
+     * Writes everything that is pending. Blocks until the transaction is committed, so a read started
+     * after this call returns sees all the queued writes.
+     * @throws RuntimeException if the transaction fails, the writes stay queued then
+     */
+    synchronized void flush(){
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (size == 0) {
+            nextId = 0; // Reserved ids were given up
+            return;
+        }
+        sink.apply(pending); // Called with the lock held, so nothing is queued meanwhile
+        pending.clear();
+        keys.clear();
+        size = 0;
+        nextId = 0; // Reserved ids are in the table now
+    }
+
+    /**
+     * Drops the pending writes of a vocabulary, e.g. when it is cleared or deleted.
+     * @param tableName (String) - vocab table
+     */
+    synchronized void discard(String tableName){
+        Map<Integer, Write> writes = pending.remove(tableName);
+        keys.remove(tableName);
+        if (writes != null) {
+            size -= writes.size();
+        }
+    }
+
+    /**
+     * Flushes the pending writes and stops the timer thread.
+     */
+    synchronized void shutdown(){
+        flush();
+        if (timer != null) {
+            timer.shutdown();
+            timer = null;
+        }
+    }
+
+    private Write get(String tableName, int id){
+        Map<Integer, Write> writes = pending.get(tableName);
+        return writes == null ? null : writes.get(id);
+    }
+
+    /**
+     * Helper function to store a write, replacing the previous one of the same word, and to trigger a flush.
+     */
+    private void put(String tableName, int id, Write write){
+        LinkedHashMap<Integer, Write> writes = pending.get(tableName);
+        if (writes == null) {
+            writes = new LinkedHashMap<>();
+            pending.put(tableName, writes);
+        }
+        Write previous = writes.put(id, write);
+        if (previous == null) {
+            size++;
+        }
+        unindex(tableName, id, previous);
+        if (write.key != null) {
+            HashMap<String, Integer> ids = keys.get(tableName);
+            if (ids == null) {
+                ids = new HashMap<>();
+                keys.put(tableName, ids);
+            }
+            ids.put(write.key, id);
+        }
+        if (size >= MAX_PENDING) {
+            tryFlush();
+        } else if (scheduled == null) {
+            schedule();
+        }
+    }
+
+    /**
+     * Helper function to flush in the background: a failed flush is tried again later instead of failing the write
+     * that triggered it.
+     */
+    private void tryFlush(){
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            schedule();
+        }
+    }
+
+    private void schedule(){
+        scheduled = timer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WriteBehindQueue.this) {
+                    tryFlush();
+                }
+            }
+        }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Helper function to drop the dedup key of a write that was replaced or cancelled.
+     */
+    private void unindex(String tableName, int id, Write write){
+        Map<String, Integer> ids = keys.get(tableName);
+        if (write != null && write.key != null && ids != null) {
+            Integer indexed = ids.get(write.key);
+            if (indexed != null && indexed == id) { // The key may belong to another word by now
+                ids.remove(write.key);
+            }
+        }
+    }
+
+    private ScheduledExecutorService timer(){
+        if (timer == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "vocabulary-flush");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1); // Below the UI thread
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            timer = executor;
+        }
+        return timer;
+    }
+}
@@ -5,23 +5,39 @@
 package ivan.vocabulary;
 
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
+import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.ImageButton;
 import android.widget.RadioGroup;
 import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 import ivan.vocabulary.CSV.CSV;
-import ivan.vocabulary.DB.DB;
+import ivan.vocabulary.CSV.CSVExporter;
+import ivan.vocabulary.CSV.CSVImporter;
+import ivan.vocabulary.CSV.ProgressListener;
+import ivan.vocabulary.CSV.ZipExporter;
+import ivan.vocabulary.CSV.ZipProgressListener;
+import ivan.vocabulary.DB.DuplicateFilter;
+import ivan.vocabulary.DB.Repository;
 import ivan.vocabulary.DB.Vocabulary;
+import ivan.vocabulary.backup.BackupTask;
 import ivan.vocabulary.misc.ExportSpinnerAdapter;
 import ivan.vocabulary.misc.Helper;
 
@@ -29,12 +45,21 @@ import ivan.vocabulary.misc.Helper;
  * This class manages the export activity.
  */
 public class ExportActivity extends AppCompatActivity {
+    private static final int REQUEST_IMPORT_FILE = 1;
     private Vocabulary selectedVocab = null;
     private ExportSpinnerAdapter adapter ;
-    private DB db;
+    private Repository repository;
     private Spinner vocabSpinner;
     private ImageButton btnExport;
     private RadioGroup radioGroup;
+    private CheckBox checkDelta;
+    private Button btnImport;
+    private Button btnExportAll;
+    private TextView progressStatus;
+    private CSVImporter importer = null;
+    private CSVExporter exporter = null;
+    private ZipExporter zipExporter = null;
+    private BackupTask backupTask = null;
     private Context context;
 
     @Override
@@ -42,58 +67,349 @@ public class ExportActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_export);
         context = this;
-        db = DB.getInstance(this);
+        repository = Repository.getInstance(this);
         vocabSpinner = findViewById(R.id.vocabSpinner);
         radioGroup = findViewById(R.id.radioGroup);
+        checkDelta = findViewById(R.id.checkDelta);
         btnExport = findViewById(R.id.btn_spinner_export);
         btnExport.setOnClickListener(new View.OnClickListener(){
             @Override
             public void onClick(View v){
-                int checkedId = radioGroup.getCheckedRadioButtonId();
-                boolean success = CSV.writeCSV(selectedVocab.getName(), selectedVocab);
+                if(selectedVocab != null && !isBusy()) {
+                    exportFile(selectedVocab, radioGroup.getCheckedRadioButtonId(), checkDelta.isChecked());
+                }
+            }
+        });
+
+        btnExportAll = findViewById(R.id.btn_export_all);
+        btnExportAll.setOnClickListener(new View.OnClickListener(){
+            @Override
+            public void onClick(View v){
+                if(adapter.getCount() > 0 && !isBusy()) {
+                    exportAll(radioGroup.getCheckedRadioButtonId());
+                }
+            }
+        });
+
+        findViewById(R.id.btn_backup).setOnClickListener(new View.OnClickListener(){
+            @Override
+            public void onClick(View v){
+                if(!isBusy()) {
+                    runBackup(false);
+                }
+            }
+        });
+        findViewById(R.id.btn_restore).setOnClickListener(new View.OnClickListener(){
+            @Override
+            public void onClick(View v){
+                if(!isBusy()) {
+                    confirmRestore();
+                }
+            }
+        });
+
+        progressStatus = findViewById(R.id.progressStatus);
+        btnImport = findViewById(R.id.btn_import);
+        btnImport.setOnClickListener(new View.OnClickListener(){
+            @Override
+            public void onClick(View v){
+                if(selectedVocab != null && !isBusy()) {
+                    Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                    intent.setType("text/*");
+                    intent.addCategory(Intent.CATEGORY_OPENABLE);
+                    startActivityForResult(Intent.createChooser(intent, "Select .csv file..."), REQUEST_IMPORT_FILE);
+                }
+            }
+        });
+
+        adapter = new ExportSpinnerAdapter(this, android.R.layout.simple_spinner_dropdown_item, new ArrayList<Vocabulary>());
+        vocabSpinner.setAdapter(adapter);
+        repository.getVocabularies(this, new Repository.Callback<ArrayList<Vocabulary>>() {
+            @Override
+            public void onResult(ArrayList<Vocabulary> vocabs) {
+                adapter.addAll(vocabs);
+            }
+        });
+
+        vocabSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                selectedVocab = adapter.getItem(position);
+            }
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+    }
+
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if(requestCode == REQUEST_IMPORT_FILE && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            askDuplicatePolicy(data.getData(), selectedVocab);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        repository.cancel(this);
+        if(importer != null) {
+            importer.cancel(false); // Stop after the current chunk
+        }
+        if(exporter != null) {
+            exporter.cancel(false);
+        }
+        if(zipExporter != null) {
+            zipExporter.cancel(false);
+        }
+        if(backupTask != null && !backupTask.isRestore()) {
+            backupTask.cancel(false); // A restore is finished, it's a single transaction anyway
+        }
+    }
+
+
+    /**
+     * Returns true if an import, an export, a backup or a restore is running. Only one of them runs at a time:
+     * a restore replaces the vocabularies the others read and write, and an export started during an import would miss
+     * part of the file. Tells the user to wait if so.
+     * @return (boolean) true if busy
+     */
+    private boolean isBusy (){
+        boolean busy = importer != null || exporter != null || zipExporter != null || backupTask != null;
+        if(busy) {
+            Helper.msg(context, "Wait until the current operation is finished.");
+        }
+        return busy;
+    }
+
+
+    /**
+     * Exports a vocabulary into a .csv file in the background, then saves or emails it.
+     * @param vocab (Vocabulary) - vocabulary to export
+     * @param checkedId (int) - id of the selected export option
+     * @param delta (boolean) - true to export only the changes since the previous delta export
+     */
+    private void exportFile (final Vocabulary vocab, final int checkedId, final boolean delta){
+        exporter = new CSVExporter(vocab.getName(), vocab, delta, new ProgressListener() {
+            @Override
+            public void onProgress(int rows) {
+                progressStatus.setText(rows + " words exported...");
+            }
+
+            @Override
+            public void onFinished(int rows, boolean success) {
+                exporter = null;
+                progressStatus.setText(success ? rows + (delta ? " changes" : " words") + " exported from " + vocab.getName() + "." : "");
                 switch (checkedId){
                     case R.id.radioSaveLocally:
                         Helper.msg(context,success? "File has been saved.":"File wasn't saved.");
                         break;
                     case R.id.radioEmail:
                         if(success) {
-                            emailFile(CSV.getLastFilePath(), selectedVocab.getName());
+                            emailFile(CSV.getLastFilePath(), vocab.getName() + (delta ? " vocabulary changes" : " vocabulary"));
                         }
                         break;
                     default:
                 }
             }
         });
+        exporter.execute();
+    }
 
-        ArrayList<Vocabulary> vocabs = db.getVocabNamesAndTablesObjects();
-        adapter = new ExportSpinnerAdapter(this, android.R.layout.simple_spinner_dropdown_item, vocabs);
-        vocabSpinner.setAdapter(adapter);
 
-        vocabSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+    /**
+     * Exports all the vocabularies into a single .zip archive in the background, then saves or emails it.
+     * Progress is shown line by line, one line per vocabulary.
+     * @param checkedId (int) - id of the selected export option
+     */
+    private void exportAll (final int checkedId){
+        final List<Vocabulary> vocabs = new ArrayList<>();
+        for (int i = 0; i < adapter.getCount(); i++) {
+            vocabs.add(adapter.getItem(i));
+        }
+        final String[] lines = new String[vocabs.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = vocabs.get(i).getName() + ": waiting...";
+        }
+        progressStatus.setText(TextUtils.join("\n", lines));
+        zipExporter = new ZipExporter(this, "vocabularies", vocabs, new ZipProgressListener() {
             @Override
-            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                selectedVocab = adapter.getItem(position);
+            public void onProgress(int index, int rows) {
+                lines[index] = vocabs.get(index).getName() + ": " + rows + " words exported...";
+                progressStatus.setText(TextUtils.join("\n", lines));
             }
+
             @Override
-            public void onNothingSelected(AdapterView<?> parent) {}
+            public void onVocabularyFinished(int index, int rows, boolean success) {
+                lines[index] = vocabs.get(index).getName() + (success ? ": " + rows + " words exported." : ": failed.");
+                progressStatus.setText(TextUtils.join("\n", lines));
+            }
+
+            @Override
+            public void onFinished(int rows, boolean success) {
+                String path = zipExporter.getFilePath();
+                zipExporter = null;
+                progressStatus.setText(success ? TextUtils.join("\n", lines) + "\n" + rows + " words exported from " + vocabs.size() + " vocabularies." : "");
+                switch (checkedId){
+                    case R.id.radioSaveLocally:
+                        Helper.msg(context,success? "File has been saved.":"File wasn't saved.");
+                        break;
+                    case R.id.radioEmail:
+                        if(success) {
+                            emailFile(path, "Vocabularies");
+                        }
+                        break;
+                    default:
+                }
+            }
         });
+        zipExporter.execute();
+    }
 
+
+    /**
+     * Asks for a confirmation before the database is replaced with the backup.
+     */
+    private void confirmRestore (){
+        if(!BackupTask.getDefaultFile().exists()) {
+            Helper.msg(context, "There is no backup.");
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setMessage("All the vocabularies will be replaced with the backup. Continue?")
+                .setNegativeButton("Cancel", null)
+                .setPositiveButton("Restore", new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int id) {
+                        if(!isBusy()) {
+                            runBackup(true);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Backs up all the vocabularies into a binary snapshot or restores them from it in the background.
+     * @param restore (boolean) - true to restore the database from the backup
+     */
+    private void runBackup (final boolean restore){
+        backupTask = new BackupTask(BackupTask.getDefaultFile(), restore, new ProgressListener() {
+            @Override
+            public void onProgress(int rows) {
+                progressStatus.setText(rows + (restore ? " words restored..." : " words backed up..."));
+            }
+
+            @Override
+            public void onFinished(int rows, boolean success) {
+                backupTask = null;
+                progressStatus.setText(success ? rows + (restore ? " words restored." : " words backed up.") : "");
+                Helper.msg(context, success ? (restore ? "Backup has been restored." : "Backup has been saved.")
+                        : (restore ? "Backup wasn't restored." : "Backup wasn't saved."));
+                if(success && restore) { // Vocabularies were replaced
+                    selectedVocab = null;
+                    adapter.clear();
+                    repository.getVocabularies(ExportActivity.this, new Repository.Callback<ArrayList<Vocabulary>>() {
+                        @Override
+                        public void onResult(ArrayList<Vocabulary> vocabs) {
+                            adapter.addAll(vocabs);
+                        }
+                    });
+                }
+            }
+        });
+        backupTask.execute();
+    }
+
+
+    /**
+     * Asks what to do with the words of the file that are already in the vocabulary, then imports it.
+     * @param uri (Uri) - location of the file
+     * @param vocab (Vocabulary) - vocabulary to import into
+     */
+    private void askDuplicatePolicy (final Uri uri, final Vocabulary vocab){
+        final DuplicateFilter.Policy[] policies = {DuplicateFilter.Policy.SKIP, DuplicateFilter.Policy.MERGE, DuplicateFilter.Policy.OVERWRITE};
+        new AlertDialog.Builder(this)
+                .setTitle("Words already in " + vocab.getName())
+                .setItems(new String[]{"Skip them", "Merge meanings", "Overwrite them"}, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        if(!isBusy()) {
+                            importFile(uri, vocab, policies[which]);
+                        }
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Helper function to describe what was done with duplicates.
+     */
+    private static String describe (DuplicateFilter.Policy policy){
+        switch (policy) {
+            case SKIP:
+                return "skipped";
+            case OVERWRITE:
+                return "overwritten";
+            default:
+                return "merged";
+        }
+    }
+
+    /**
+     * Streams a .csv file into a vocabulary in the background and reports progress on the screen.
+     * @param uri (Uri) - location of the file
+     * @param vocab (Vocabulary) - vocabulary to import into
+     * @param policy (DuplicateFilter.Policy) - what to do with words the vocabulary has already
+     */
+    private void importFile (Uri uri, final Vocabulary vocab, DuplicateFilter.Policy policy){
+        InputStream input;
+        try {
+            input = getContentResolver().openInputStream(uri);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            Helper.msg(context, "File wasn't found.");
+            return;
+        }
+        importer = new CSVImporter(input, vocab.getTable(), policy, new ProgressListener() {
+            @Override
+            public void onProgress(int rows) {
+                progressStatus.setText(rows + " words imported...");
+            }
+
+            @Override
+            public void onFinished(int rows, boolean success) {
+                DuplicateFilter filter = importer.getFilter();
+                int malformed = importer.getMalformedRows();
+                int line = importer.getFirstMalformedLine();
+                importer = null;
+                progressStatus.setText(rows + " words imported into " + vocab.getName() + "."
+                        + (filter.getDuplicates() > 0 ? " " + filter.getDuplicates() + " already there were " + describe(filter.getPolicy()) + "." : ""));
+                if(!success) {
+                    Helper.msg(context, "Import wasn't completed.");
+                } else if(malformed > 0) {
+                    Helper.msg(context, malformed + " row(s) have an unclosed quote, the first at line " + line + ". They were imported as they are.");
+                }
+            }
+        });
+        importer.execute();
     }
 
 
     /**
      * Pssing generated file to the other applications installed on the device.
      * @param filePath (Sting) - path to the generated file
-     * @param vocabName (String) - name of the exported file
+     * @param subject (String) - subject of the mail
      * @return
      */
-    private void emailFile (String filePath, String vocabName){
+    private void emailFile (String filePath, String subject){
             File file = new File(filePath);
             Uri path = Uri.fromFile(file);
             Intent emailIntent = new Intent(Intent.ACTION_SEND);
             emailIntent.setType("vnd.android.cursor.dir/email"); // set the type to 'email'
             emailIntent.putExtra(Intent.EXTRA_STREAM, path); // the attachment
-            emailIntent.putExtra(Intent.EXTRA_SUBJECT, vocabName + " vocabulary"); // the mail subject
+            emailIntent.putExtra(Intent.EXTRA_SUBJECT, subject); // the mail subject
             startActivity(Intent.createChooser(emailIntent, "Send email..."));
             file.deleteOnExit(); // Remove file afterwards
     }
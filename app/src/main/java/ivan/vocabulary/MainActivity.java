@@ -12,6 +12,7 @@ import android.support.design.widget.Snackbar;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Trace;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 import android.text.InputType;
@@ -20,9 +21,16 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
 import java.util.ArrayList;
-import ivan.vocabulary.DB.DB;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import ivan.vocabulary.DB.Repository;
 import ivan.vocabulary.DB.Vocabulary;
 import ivan.vocabulary.misc.Helper;
+import ivan.vocabulary.misc.StartupTrace;
 import ivan.vocabulary.misc.SwipeController;
 import ivan.vocabulary.misc.SwipeControllerActions;
 import ivan.vocabulary.misc.VocabulariesListAdapter;
@@ -38,37 +46,66 @@ public class MainActivity extends AppCompatActivity {
     private View.OnClickListener onItemClickListener;
     private ConstraintLayout mainLayout = null;
     private SharedPreferences prefs = null;
-    private DB db;
+    private Repository repository;
+    private boolean journalCompacted = false;
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        Trace.beginSection("MainActivity.onCreate");
+        StartupTrace.watchFirstFrame(this);
         setContentView(R.layout.activity_main);
         setTitle("My Vocabularies");
 
         // Init member variables
         vocabsList =  findViewById(R.id.vocabsList);
         mainLayout = findViewById(R.id.constraintLayout);
-        prefs = getSharedPreferences("ivan.vocabulary", MODE_PRIVATE);
-        db = DB.getInstance(this);
-
-        //Check if the application is launched the very first time
-        if (prefs.getBoolean("firstrun", true)) {
-            db.initiateTheDB_system(); // Setup the database
-            prefs.edit().putBoolean("firstrun", false).commit();
-            prefs.edit().putInt("fontSize", 3).commit(); // Set default font size
-        }
-        Helper.setCurrentFontSize(Helper.getFontSize(prefs.getInt("fontSize",3))); //Set font size preferences
+        prefs = getSharedPreferences("ivan.vocabulary", MODE_PRIVATE); // Starts loading them in the background
+        repository = Repository.getInstance(this); // Doesn't touch the disk, the database is opened by startUp()
+
+        // First run setup, preferences and opening the database are done on the DB thread, so the empty list is drawn right away
+        repository.startUp(this, prefs, new Repository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer fontSize) {
+                Helper.setCurrentFontSize(Helper.getFontSize(fontSize)); //Set font size preferences
+            }
+        });
         setVocabulariesListAdapter();
         setupRecyclerView();
+        Trace.endSection();
     }
 
 
     @Override
     public void onResume(){
         super.onResume();
-        adapter.notifyDataSetChanged();
+        loadVocabularies(); // Refresh word counts, it's a single read of the metadata table
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        repository.cancel(this);
+    }
+
+
+    /**
+     * Loads the vocabularies in the background and shows them once they arrive.
+     */
+    private void loadVocabularies(){
+        repository.getVocabularies(this, new Repository.Callback<ArrayList<Vocabulary>>() {
+            @Override
+            public void onResult(ArrayList<Vocabulary> vocabs) {
+                adapter.setData(vocabs);
+                StartupTrace.dataShown(MainActivity.this);
+                if (!journalCompacted) { // Once per launch, queued behind the first load so it doesn't delay the list
+                    journalCompacted = true;
+                    repository.compactJournal(MainActivity.this, null);
+                }
+            }
+        });
     }
 
 
@@ -76,7 +113,7 @@ public class MainActivity extends AppCompatActivity {
      * Method to set up an instance of VocabulariesListAdapter to display a list of vocabularies in the main menu.
      */
     private void setVocabulariesListAdapter(){
-        ArrayList<Vocabulary> vocabs = db.getVocabNamesAndTablesObjects(); //Get data from the DB
+        ArrayList<Vocabulary> vocabs = new ArrayList<>(); // Filled by loadVocabularies() in onResume()
         // Create click listener
         onItemClickListener = new View.OnClickListener() {
             @Override
@@ -104,7 +141,6 @@ public class MainActivity extends AppCompatActivity {
                 final Vocabulary vocab = adapter.getVocabulary(position);
                 adapter.removeVocabulary(position);
                 adapter.notifyItemRemoved(position);
-                adapter.notifyItemRangeChanged(position, adapter.getItemCount());
 
                 // Create notification
                 final Snackbar snackbar = Snackbar.make(mainLayout, vocab.getName() + " was removed.", Snackbar.LENGTH_LONG).setActionTextColor(Color.YELLOW);
@@ -123,7 +159,7 @@ public class MainActivity extends AppCompatActivity {
                     @Override
                     public void onDismissed(Snackbar snackbar, int event) {
                         if(!vocab.getUndo()) { // if undo wasn't pressed and flag wasn't set
-                            db.deleteVocabulary(vocab.getTable()); //Remove from DB
+                            repository.deleteVocabulary(MainActivity.this, vocab.getTable(), null); //Remove from DB
                         }
                     }
                 });
@@ -162,12 +198,58 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(DialogInterface dialog, int which) {
                 String newVocabName = input.getText().toString().trim();
                 if(!newVocabName.matches("") && newVocabName != vocab.getName()) {
-                    db.changeVocabName(vocab.getId(), newVocabName); // Create new vocab
+                    repository.changeVocabName(MainActivity.this, vocab.getId(), newVocabName, null); // Rename vocab
                     adapter.setVocabularyName(position, newVocabName);
                 }
 
             }
         });
+        builder.setNeutralButton("Sorting", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                onChooseVocabLocale(vocab);
+            }
+        });
+        builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.cancel();
+            }
+        });
+        builder.show();
+    }
+
+    /**
+     * Shows the list of languages the words of a vocabulary can be sorted by, e.g. "ch" is a letter of its own in Czech.
+     * @param vocab (Vocabulary) - vocabulary to sort
+     */
+    private void onChooseVocabLocale(final Vocabulary vocab) {
+        Map<String, String> names = new LinkedHashMap<>(); // Language name -> language tag
+        List<Locale> locales = new ArrayList<>();
+        for (Locale locale : Locale.getAvailableLocales()) {
+            if (!locale.getLanguage().isEmpty() && locale.getCountry().isEmpty() && locale.getVariant().isEmpty()) {
+                locales.add(locale); // Languages only, the countries rarely sort differently
+            }
+        }
+        Collections.sort(locales, new Comparator<Locale>() {
+            @Override
+            public int compare(Locale a, Locale b) {
+                return a.getDisplayName().compareToIgnoreCase(b.getDisplayName());
+            }
+        });
+        for (Locale locale : locales) {
+            names.put(locale.getDisplayName(), locale.toLanguageTag());
+        }
+        final String[] labels = names.keySet().toArray(new String[0]);
+        final String[] tags = names.values().toArray(new String[0]);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this).setTitle("Sort " + vocab.getName() + " as");
+        builder.setItems(labels, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                repository.setVocabLocale(MainActivity.this, vocab.getTable(), tags[which], null); // Sorts all the words again
+            }
+        });
         builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
@@ -193,8 +275,8 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(DialogInterface dialog, int which) {
                 String newVocabName = input.getText().toString().trim();
                 if(!newVocabName.matches("")) {
-                    db.createVocabulary(newVocabName); // Create new vocab
-                    adapter.setData(db.getVocabNamesAndTablesObjects()); // Update list of vocabs
+                    repository.createVocabulary(MainActivity.this, newVocabName, null); // Create new vocab
+                    loadVocabularies(); // Update list of vocabs, runs after the insert
                 }
             }
         });
@@ -0,0 +1,146 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary;
+
+import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+import java.util.Date;
+import ivan.vocabulary.DB.Card;
+import ivan.vocabulary.DB.Repository;
+import ivan.vocabulary.misc.ReviewSession;
+
+/**
+ * This class manages the review activity of the application: the words of a vocabulary that are due are asked
+ * one by one and graded by the user, see ReviewSession.
+ */
+public class ReviewActivity extends AppCompatActivity {
+    private static final int GRADE_AGAIN = 1, GRADE_HARD = 3, GRADE_GOOD = 4, GRADE_EASY = 5; // SM-2 grades of the buttons
+    private Repository repository;
+    private ReviewSession session;
+    private String name;
+    private TextView status, word, meanings;
+    private Button btn_showAnswer;
+    private View gradeButtons;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_review);
+        repository = Repository.getInstance(this);
+        name = getIntent().getStringExtra("VOCAB_NAME");
+        status = findViewById(R.id.reviewStatus);
+        word = findViewById(R.id.reviewWord);
+        meanings = findViewById(R.id.reviewMeanings);
+        gradeButtons = findViewById(R.id.gradeButtons);
+        btn_showAnswer = findViewById(R.id.btn_showAnswer);
+        btn_showAnswer.setEnabled(false); // Until the first card is loaded
+        btn_showAnswer.setOnClickListener(new View.OnClickListener(){
+            @Override
+            public void onClick(View v){
+                meanings.setVisibility(View.VISIBLE);
+                btn_showAnswer.setVisibility(View.GONE);
+                gradeButtons.setVisibility(View.VISIBLE);
+            }
+        });
+        setGradeButton(R.id.btn_again, GRADE_AGAIN);
+        setGradeButton(R.id.btn_hard, GRADE_HARD);
+        setGradeButton(R.id.btn_good, GRADE_GOOD);
+        setGradeButton(R.id.btn_easy, GRADE_EASY);
+
+        session = new ReviewSession(repository, this, getIntent().getStringExtra("VOCAB_TABLE"), new ReviewSession.Listener() {
+            @Override
+            public void onCard(Card card) {
+                showCard(card);
+            }
+
+            @Override
+            public void onWait(long due) {
+                meanings.setVisibility(View.INVISIBLE);
+                word.setText("Next card at " + DateFormat.getTimeFormat(ReviewActivity.this).format(new Date(due)));
+                status.setText(session.getReviewed() + " reviewed");
+                btn_showAnswer.setEnabled(false);
+            }
+        });
+    }
+
+    @Override
+    public void onResume(){
+        super.onResume();
+        setTitle(name);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        session.close();
+        repository.cancel(this); // Answers already given are still written
+    }
+
+    /**
+     * Helper function to make a button grade the current card.
+     */
+    private void setGradeButton(int id, final int grade){
+        findViewById(id).setOnClickListener(new View.OnClickListener(){
+            @Override
+            public void onClick(View v){
+                gradeButtons.setVisibility(View.GONE);
+                btn_showAnswer.setVisibility(View.VISIBLE);
+                btn_showAnswer.setEnabled(false); // Until the next card is there
+                session.answer(grade);
+            }
+        });
+    }
+
+    /**
+     * Shows a card with its meanings hidden, or the end of the session.
+     * @param card (Card) - card to ask, null if there is nothing left
+     */
+    private void showCard(Card card){
+        meanings.setVisibility(View.INVISIBLE);
+        if (card == null) {
+            word.setText(session.getReviewed() == 0 ? "Nothing to review." : "All done!");
+            meanings.setText("");
+            status.setText(session.getReviewed() + " reviewed");
+            btn_showAnswer.setVisibility(View.GONE);
+            return;
+        }
+        word.setText(card.getWord().getWord());
+        meanings.setText(card.getWord().getMeaningsText());
+        status.setText(session.getReviewed() + " reviewed");
+        btn_showAnswer.setEnabled(true);
+    }
+
+
+
+    @Override
+    /**
+     *  Assign our custom menu to the action bar.
+     */
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.back_menu, menu);
+        return true;
+    }
+
+    /**
+     *  Handle action bar button clicks
+     */
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.btn_back:
+                onBackPressed();
+                return true;
+            default:
+                // If we got here, the user's action was not recognized. Invoke the superclass to handle it.
+                return super.onOptionsItemSelected(item);
+
+        }
+    }
+}
@@ -13,18 +13,24 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.NumberPicker;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import ivan.vocabulary.DB.Metrics;
 import ivan.vocabulary.misc.Helper;
+import ivan.vocabulary.misc.StartupTrace;
 
 /**
  * This class manages the settings activity of the application.
  */
 public class SettingsActivity extends AppCompatActivity {
+    private static final int DIAGNOSTICS_TAPS = 7; // Taps on the font size label that reveal the diagnostics
     private NumberPicker numbrPicker;
     private SharedPreferences prefs = null;
     private Button restore;
     private Context context;
+    private TextView diagnostics;
+    private int labelTaps = 0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -42,7 +48,7 @@ public class SettingsActivity extends AppCompatActivity {
         numbrPicker.setOnValueChangedListener(new NumberPicker.OnValueChangeListener() {
             @Override
             public void onValueChange(NumberPicker picker, int oldVal, int newVal) {
-                prefs.edit().putInt("fontSize", newVal).commit();
+                prefs.edit().putInt("fontSize", newVal).apply(); // Written to disk in the background
                 Helper.setCurrentFontSize(newVal);
                 Helper.msg(context,"Saved");
             }
@@ -52,13 +58,45 @@ public class SettingsActivity extends AppCompatActivity {
         restore.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                prefs.edit().putInt("fontSize", 3).commit();
+                prefs.edit().putInt("fontSize", 3).apply();
                 numbrPicker.setValue(3);
                 Helper.setCurrentFontSize(3);
                 Helper.msg(context,"Restored");
             }
         });
+        // Hidden diagnostics: latency metrics of the data layer
+        diagnostics = findViewById(R.id.diagnostics);
+        findViewById(R.id.font_size).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (++labelTaps == DIAGNOSTICS_TAPS) {
+                    findViewById(R.id.diagnostics_scroll).setVisibility(View.VISIBLE);
+                    showDiagnostics();
+                }
+            }
+        });
+        diagnostics.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showDiagnostics();
+            }
+        });
+        diagnostics.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                Metrics.reset();
+                showDiagnostics();
+                Helper.msg(context,"Reset");
+                return true;
+            }
+        });
+    }
 
+    /**
+     * Fills the diagnostics section with the cold start markers and the current metrics.
+     */
+    private void showDiagnostics(){
+        diagnostics.setText(getString(R.string.diagnostics_hint) + "\n\n" + StartupTrace.dump() + "\n\n" + Metrics.dump());
     }
 
 
@@ -6,6 +6,7 @@ package ivan.vocabulary;
 
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.graphics.Color;
 import android.support.constraint.ConstraintLayout;
 import android.support.design.widget.Snackbar;
@@ -24,10 +25,11 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 import java.util.ArrayList;
-import java.util.List;
 import ivan.vocabulary.DB.DB;
+import ivan.vocabulary.DB.Repository;
 import ivan.vocabulary.DB.Word;
 import ivan.vocabulary.misc.EditWordListAdapter;
+import ivan.vocabulary.misc.SectionScroller;
 import ivan.vocabulary.misc.SwipeController;
 import ivan.vocabulary.misc.SwipeControllerActions;
 import ivan.vocabulary.misc.WordsListAdapter;
@@ -38,6 +40,7 @@ import ivan.vocabulary.misc.WordsListAdapter;
 public class VocabularyActivity extends AppCompatActivity {
     private RecyclerView wordList;
     private DB db;
+    private Repository repository;
     private String name, table;
     private Button btn_addWord;
     private View.OnClickListener onItemClickListener;
@@ -52,6 +55,7 @@ public class VocabularyActivity extends AppCompatActivity {
         setContentView(R.layout.activity_vocabulary);
         wordList = findViewById(R.id.wordList);
         db = DB.getInstance(this);
+        repository = Repository.getInstance(this);
         name = getIntent().getStringExtra("VOCAB_NAME");
         table = getIntent().getStringExtra("VOCAB_TABLE");
         mainLayout = findViewById(R.id.constraintLayout);
@@ -73,11 +77,22 @@ public class VocabularyActivity extends AppCompatActivity {
         setTitle(name);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        repository.flushWrites(this, null); // Queued word changes reach the disk before the app may be killed
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        repository.cancel(this);
+    }
+
     /**
      * Method to set up an instance of WordsListAdapter to display a list of words in the vocabulary activity.
      */
     private void setWordsListAdapter(){
-        List<Word> words = db.getWords(table); //Get data from the DB
         // Create click listener
         onItemClickListener = new View.OnClickListener() {
             @Override
@@ -86,8 +101,9 @@ public class VocabularyActivity extends AppCompatActivity {
             }
         };
 
-        adapter = new WordsListAdapter(words, onItemClickListener);
+        adapter = new WordsListAdapter(db, table, onItemClickListener); // Pages data in from the DB
         wordList.setAdapter(adapter); // Set adapter
+        ((SectionScroller) findViewById(R.id.sectionScroller)).attach(wordList, adapter); // Letters to jump through the list
     }
 
 
@@ -99,9 +115,12 @@ public class VocabularyActivity extends AppCompatActivity {
             @Override
             public void onSwipeLeft(final int position) { // Delete item
                 final Word word = adapter.getWord(position);
+                if(word == null) { // Row isn't loaded yet
+                    adapter.notifyItemChanged(position);
+                    return;
+                }
                 adapter.removeWord(position);
                 adapter.notifyItemRemoved(position);
-                adapter.notifyItemRangeChanged(position, adapter.getItemCount());
 
                 // Create notification
                 final Snackbar snackbar = Snackbar.make(mainLayout, word.getWord() + " was removed.", Snackbar.LENGTH_LONG).setActionTextColor(Color.YELLOW);
@@ -121,7 +140,12 @@ public class VocabularyActivity extends AppCompatActivity {
                     @Override
                     public void onDismissed(Snackbar snackbar, int event) {
                         if(!word.getUndo()) { // if undo wasn't pressed and flag wasn't set
-                            db.deleteWord(word.getId(), table); //Remove from DB
+                            repository.deleteWord(VocabularyActivity.this, word.getId(), table, new Repository.Callback<Void>() { //Remove from DB
+                                @Override
+                                public void onResult(Void result) {
+                                    adapter.onWordDeleted(word);
+                                }
+                            });
                         }
                     }
                 });
@@ -131,7 +155,10 @@ public class VocabularyActivity extends AppCompatActivity {
 
             @Override
             public void onSwipeRight(int position) { // Edit item
-                onEditWord(adapter.getWord(position), position);
+                Word word = adapter.getWord(position);
+                if(word != null) {
+                    onEditWord(word, position);
+                }
                 adapter.notifyItemChanged(position); //reset swipe
             }
 
@@ -190,9 +217,8 @@ public class VocabularyActivity extends AppCompatActivity {
                 ArrayList<String> meanings = editListAdapter.getItems(); // Retrieve meanings
 
                 Word updatedWord = new Word (wordWord, meanings);
-                db.updateWord(word.getId(),updatedWord, table); // Create new vocab
-                // Update adapter
-                adapter.setWord(position, updatedWord);
+                updatedWord.setId(word.getId());
+                adapter.setWord(position, updatedWord); // Save and show at its sorted position
                 editListAdapter = null;
                 builder = null;
             }
@@ -247,8 +273,7 @@ public class VocabularyActivity extends AppCompatActivity {
                 String newWord = wordInput.getText().toString().trim();
                 String meanings = meaningsInput.getText().toString();
                 if(!newWord.matches("")) {
-                    db.addWord(new Word(newWord, meanings), table); // Create new vocab
-                    adapter.setData(db.getWords(table)); // Update list of vocabs
+                    adapter.addWord(new Word(newWord, meanings)); // Save and show at its sorted position
                 }
                 builder = null;
             }
@@ -277,7 +302,7 @@ public class VocabularyActivity extends AppCompatActivity {
      */
     public boolean onCreateOptionsMenu(Menu menu) {
 //        return super.onCreateOptionsMenu(menu);
-        getMenuInflater().inflate(R.menu.back_menu, menu);
+        getMenuInflater().inflate(R.menu.vocabulary_menu, menu);
         return true;
     }
 
@@ -289,6 +314,12 @@ public class VocabularyActivity extends AppCompatActivity {
             case R.id.btn_back:
                 onBackPressed();
                 return true;
+            case R.id.btn_review:
+                Intent intent = new Intent(this, ReviewActivity.class);
+                intent.putExtra("VOCAB_NAME", name);
+                intent.putExtra("VOCAB_TABLE", table);
+                startActivity(intent);
+                return true;
             default:
                 // If we got here, the user's action was not recognized. Invoke the superclass to handle it.
                 return super.onOptionsItemSelected(item);
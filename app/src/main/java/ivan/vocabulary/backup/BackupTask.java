@@ -0,0 +1,165 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.backup;
+
+import android.os.AsyncTask;
+import android.os.Environment;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import ivan.vocabulary.CSV.ProgressListener;
+import ivan.vocabulary.DB.DB;
+import ivan.vocabulary.core.Snapshot;
+
+
+/**
+ * The BackupTask class backs up the whole database into a binary snapshot, or restores it from one, on a background
+ * thread. Unlike a .csv export a snapshot keeps the ids and the vocabulary metadata, see the Snapshot class of the
+ * core module. A backup is written next to the previous one and replaces it only once complete; a restore replaces
+ * all the data in one transaction, so a failed or cancelled restore leaves the database as it was.
+ */
+public class BackupTask extends AsyncTask<Void, Integer, Boolean> {
+    public static final String FILE_NAME = "vocabularies.snapshot";
+    private static final int PROGRESS_STEP = 5000; // Words between progress reports
+    private final File file;
+    private final boolean restore;
+    private final ProgressListener listener;
+    private int words = 0;
+
+    /**
+     * Constructor
+     * @param file (File) - snapshot file
+     * @param restore (boolean) - true to restore the database from the file, false to back it up into the file
+     * @param listener (ProgressListener) - progress callback, can be null
+     */
+    public BackupTask(File file, boolean restore, ProgressListener listener){
+        this.file = file;
+        this.restore = restore;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the default location of the backup.
+     * @return (File) snapshot file on the external storage
+     */
+    public static File getDefaultFile(){
+        return new File(Environment.getExternalStorageDirectory(), FILE_NAME); // Looked up every time, the storage may be remounted
+    }
+
+    public boolean isRestore() {
+        return restore;
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        try {
+            if (restore) {
+                restore();
+            } else {
+                backup();
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (listener != null) {
+            listener.onProgress(values[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean success) {
+        if (listener != null) {
+            listener.onFinished(words, success);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Boolean success) {
+        if (listener != null) {
+            listener.onFinished(words, false);
+        }
+    }
+
+
+    private void backup() throws IOException {
+        File partial = new File(file.getPath() + ".part");
+        final Snapshot.Writer writer = new Snapshot.Writer(partial);
+        boolean done = false;
+        try {
+            DB.getInstance(null).writeSnapshot(new Snapshot.Visitor() {
+                @Override
+                public void vocabulary(long id, String name, String table, String locale) throws IOException {
+                    writer.vocabulary(id, name, table, locale);
+                }
+
+                @Override
+                public void word(long id, String word, String meanings) throws IOException {
+                    writer.word(id, word, meanings);
+                    step();
+                }
+
+                @Override
+                public void review(int ease, int interval, int repetitions, long due) throws IOException {
+                    writer.review(ease, interval, repetitions, due);
+                }
+            });
+            writer.close();
+            done = partial.renameTo(file); // Replaces the previous backup in one step
+            if (!done) {
+                throw new IOException("Can't replace " + file);
+            }
+        } finally {
+            if (!done) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // The file goes anyway
+                }
+                partial.delete(); // Don't leave incomplete files behind
+            }
+        }
+        publishProgress(words);
+    }
+
+    private void restore() throws IOException {
+        Snapshot.Reader reader = new Snapshot.Reader(file); // Verified before anything is changed
+        try {
+            DB.getInstance(null).restoreSnapshot(reader, new Snapshot.Visitor() {
+                @Override
+                public void vocabulary(long id, String name, String table, String locale) {}
+
+                @Override
+                public void word(long id, String word, String meanings) throws IOException {
+                    step();
+                }
+
+                @Override
+                public void review(int ease, int interval, int repetitions, long due) {}
+            });
+        } finally {
+            reader.close();
+        }
+        publishProgress(words);
+    }
+
+    /**
+     * Counts a word, reports progress and stops the work once cancelled. Called from the background thread.
+     */
+    private void step() throws IOException {
+        words++;
+        if (words % PROGRESS_STEP == 0) {
+            if (isCancelled()) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            publishProgress(words);
+        }
+    }
+}
@@ -119,7 +119,7 @@ public class Helper {
         String fullText = "";
         List<Word> words = DB.getInstance(context).getWords(tableName);
         for(Word w: words){
-            String log = "ID: " + w.getId() + " Word: " +w.getWord() + " Meanings: " + w.getMeanings() +"\n";
+            String log = "ID: " + w.getId() + " Word: " +w.getWord() + " Meanings: " + w.getMeaningsText() +"\n";
             fullText += log;
         }
         dialog(context,fullText);
@@ -284,31 +284,35 @@ public class Helper {
         DB.getInstance(context).createVocabulary("Dutch");
         DB.getInstance(context).createVocabulary("Technical terms");
 
+        List<Word> words = new ArrayList<>();
         Scanner scanner = new Scanner(spanishWords);
         while (scanner.hasNextLine()) {
             String line = scanner.nextLine();
             String parts[] = line.split(",", 2);
             if(parts.length > 1) {
-                DB.getInstance(context).addWord(new Word(parts[0], parts[1]), "Spanish");
+                words.add(new Word(parts[0], parts[1]));
             }
             else{
-                DB.getInstance(context).addWord(new Word(parts[0]), "Spanish");
+                words.add(new Word(parts[0]));
             }
         }
+        DB.getInstance(context).addWords(words, "Spanish"); // Single transaction for the whole list
 
         scanner.close();
         scanner = new Scanner(russianWords);
+        words.clear();
 
         while (scanner.hasNextLine()) {
             String line = scanner.nextLine();
             String parts[] = line.split(",", 2);
             if(parts.length > 1) {
-                DB.getInstance(context).addWord(new Word(parts[0], parts[1]), "Russian");
+                words.add(new Word(parts[0], parts[1]));
             }
             else{
-                DB.getInstance(context).addWord(new Word(parts[0]), "Russian");
+                words.add(new Word(parts[0]));
             }
         }
+        DB.getInstance(context).addWords(words, "Russian"); // Single transaction for the whole list
 
         scanner.close();
     }
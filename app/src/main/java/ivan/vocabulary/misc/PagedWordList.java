@@ -0,0 +1,522 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.misc;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import ivan.vocabulary.DB.AddedWord;
+import ivan.vocabulary.DB.DB;
+import ivan.vocabulary.DB.Repository;
+import ivan.vocabulary.DB.Word;
+import ivan.vocabulary.core.SectionIndex;
+
+/**
+ * Paged data source for the words of a vocabulary. Only a sliding window of rows around the scroll position is kept
+ * in memory. The window grows with keyset queries on (sort key, id) when the user scrolls towards one of its edges,
+ * gets trimmed on the far side once it is too big, and is moved with a single positional query when the user jumps away.
+ * A SectionIndex of the first letters is loaded with the first page and kept up to date by the changes made through
+ * the list; jumping to a section is a keyset query from the first sort key of the section, so no rows are skipped over.
+ * All the public methods must be called on the UI thread; database work is done on the DB thread of the Repository.
+ */
+public class PagedWordList {
+    public static final int PAGE_SIZE = 100; // Rows loaded by one query
+    private static final int PREFETCH_DISTANCE = 30; // Load the next page once the user is this close to an edge
+    private static final int MAX_WINDOW = 5 * PAGE_SIZE; // Rows kept in memory
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final DB db;
+    private final String tableName;
+    private final Listener listener;
+    private final Executor loader; // DB thread of the Repository, so pages see the writes requested before them
+    private final Set<Integer> hiddenIds = new HashSet<>(); // Removed from the list, but not from the DB yet
+    private ArrayList<Word> window = new ArrayList<>();
+    private int windowStart = 0;
+    private int size = 0;
+    private int generation = 0; // Incremented to discard loads started before a structural change
+    private boolean loading = false;
+    private int pendingJump = -1; // Start of the window being loaded by jumpTo()
+    private SectionIndex sections = null; // Null until the first page is loaded
+
+
+    /**
+     * Callback interface to notify the adapter about changes in the list.
+     */
+    public interface Listener {
+        void onReset();
+        void onRangeLoaded(int positionStart, int itemCount);
+        void onInserted(int position);
+        void onChanged(int position);
+        void onMoved(int fromPosition, int toPosition);
+        void onSectionsChanged();
+    }
+
+    /**
+     * Constructor. Starts loading the first page straight away.
+     * @param db (DB) - database
+     * @param tableName (String) - vocab table
+     * @param listener (Listener) - change listener
+     */
+    public PagedWordList(DB db, String tableName, Listener listener){
+        this.db = db;
+        this.tableName = tableName;
+        this.listener = listener;
+        this.loader = Repository.getInstance(null).getExecutor();
+        reload();
+    }
+
+    /**
+     * Returns the number of words in the list.
+     * @return (int) size
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Returns the section index of the list.
+     * @return (SectionIndex) sections or null if they aren't loaded yet
+     */
+    public SectionIndex getSections(){
+        return sections;
+    }
+
+    /**
+     * Returns a word at a position or null if it isn't loaded yet, in which case loading is scheduled.
+     * Also prefetches the next page when the position is close to the edge of the window.
+     * @param position (int) - position
+     * @return (Word) word or null
+     */
+    public Word get(int position){
+        int windowEnd = windowStart + window.size();
+        if (position < windowStart || position >= windowEnd) {
+            jumpTo(position);
+            return null;
+        }
+        if (position - windowStart < PREFETCH_DISTANCE && windowStart > 0) {
+            loadBefore();
+        } else if (windowEnd - position < PREFETCH_DISTANCE && windowEnd < size) {
+            loadAfter();
+        }
+        return window.get(position - windowStart);
+    }
+
+    /**
+     * Returns a word at a position if it is loaded, without scheduling any loading.
+     * @param position (int) - position
+     * @return (Word) word or null
+     */
+    public Word peek(int position){
+        return position >= windowStart && position < windowStart + window.size() ? window.get(position - windowStart) : null;
+    }
+
+    /**
+     * Replaces a loaded word. Call update() instead if the text of the word might have changed.
+     * @param position (int) - position
+     * @param word (Word) - new word
+     */
+    public void set(int position, Word word){
+        if (position >= windowStart && position < windowStart + window.size()) {
+            window.set(position - windowStart, word);
+        }
+    }
+
+    /**
+     * Updates a word in the DB and replaces it in the list. If its text changed, it is moved to its new sorted position
+     * once that is known, or the list is reloaded if it was merged into another word of the vocabulary
+     * (see DB.queueUpdateWord()).
+     * @param position (int) - position
+     * @param word (Word) - updated word with its id set
+     */
+    public void update(int position, final Word word){
+        Word old = peek(position);
+        set(position, word);
+        listener.onChanged(position);
+        final boolean renamed = old != null && old.getWord() != null && !old.getWord().equals(word.getWord());
+        if (renamed) {
+            if (sections != null) {
+                sections.remove(old.getWord());
+                sections.add(word.getWord());
+                listener.onSectionsChanged();
+            }
+            generation++; // Windows being loaded may have the word at its old position
+        }
+        final int expected = generation;
+        final Set<Integer> excluded = new HashSet<>(hiddenIds);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean mergedAway = db.queueUpdateWord(word.getId(), word, tableName); // Written to the DB by the write-behind queue
+                if (!renamed && !mergedAway) {
+                    return; // Stays where it is
+                }
+                final int to = mergedAway ? -1 : db.getWordPosition(tableName, word, excluded);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation || mergedAway) {
+                            reload();
+                            return;
+                        }
+                        boolean interrupted = loading; // A load was dropped by this update
+                        loading = false;
+                        pendingJump = -1;
+                        int index = indexOf(word.getId());
+                        if (index < 0) { // Scrolled out of the window in the meantime
+                            listener.onReset();
+                            return;
+                        }
+                        int from = windowStart + index;
+                        window.remove(index);
+                        if (to >= windowStart && to <= windowStart + window.size()) {
+                            window.add(to - windowStart, word);
+                        } else if (to < windowStart) {
+                            windowStart++; // Moved above the window, the rows of the window shift down
+                        }
+                        if (interrupted) {
+                            listener.onReset();
+                        } else if (from != to) {
+                            listener.onMoved(from, to);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes a word from the list without removing it from the DB. Call forget() once it is deleted from the DB
+     * or restore() to bring it back.
+     * @param position (int) - position
+     * @return (Word) removed word
+     */
+    public Word remove(int position){
+        Word word = window.remove(position - windowStart);
+        hiddenIds.add(word.getId());
+        size--;
+        if (sections != null) {
+            sections.remove(word.getWord());
+            listener.onSectionsChanged();
+        }
+        restartJump();
+        return word;
+    }
+
+    /**
+     * Puts a previously removed word back.
+     * @param position (int) - position
+     * @param word (Word) - the word
+     */
+    public void restore(int position, Word word){
+        hiddenIds.remove(word.getId());
+        if (position >= windowStart && position <= windowStart + window.size()) {
+            window.add(position - windowStart, word);
+        } else if (position < windowStart) {
+            windowStart++;
+        }
+        size++;
+        if (sections != null) {
+            sections.add(word.getWord());
+            listener.onSectionsChanged();
+        }
+        restartJump();
+    }
+
+    /**
+     * Called once a removed word has been deleted from the DB.
+     * @param id (int) - id of the word
+     */
+    public void forget(int id){
+        hiddenIds.remove(id);
+    }
+
+    /**
+     * Adds a new word to the DB and inserts it at its sorted position. If the vocabulary has the word already,
+     * the new meanings are merged into it and its row is refreshed instead.
+     * @param word (Word) - new word
+     */
+    public void insert(final Word word){
+        generation++; // Windows being loaded may miss the new word
+        final int expected = generation;
+        final Set<Integer> excluded = new HashSet<>(hiddenIds);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                AddedWord added = db.queueAddWord(word, tableName); // Written to the DB by the write-behind queue
+                if (added.isMerged()) {
+                    postMerged(expected, added.getWord(), db.getWordPosition(tableName, added.getWord(), excluded));
+                    return;
+                }
+                word.setId(added.getWord().getId());
+                final int position = db.getWordPosition(tableName, word, excluded);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation) {
+                            reload();
+                            return;
+                        }
+                        boolean interrupted = loading; // A load was dropped by this insert
+                        loading = false;
+                        pendingJump = -1;
+                        if (position >= windowStart && position <= windowStart + window.size()) {
+                            window.add(position - windowStart, word);
+                        } else if (position < windowStart) {
+                            windowStart++;
+                        }
+                        size++;
+                        if (sections != null) {
+                            sections.add(word.getWord());
+                            listener.onSectionsChanged();
+                        }
+                        if (interrupted) {
+                            listener.onReset(); // Rebind, so rows that weren't loaded get requested again
+                        } else {
+                            listener.onInserted(position);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Helper function of insert() to refresh the row of a word that got the meanings of a new one.
+     */
+    private void postMerged(final int expected, final Word merged, final int position){
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (expected != generation) {
+                    reload();
+                    return;
+                }
+                boolean interrupted = loading;
+                loading = false;
+                pendingJump = -1;
+                if (interrupted) {
+                    listener.onReset();
+                } else if (peek(position) != null) {
+                    set(position, merged);
+                    listener.onChanged(position);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops all the loaded rows and loads the first page again.
+     */
+    public void reload(){
+        final int expected = ++generation;
+        final Set<Integer> excluded = new HashSet<>(hiddenIds);
+        loading = true;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int count = db.getWordsCount(tableName) - excluded.size();
+                final List<Word> words = db.getWordsAfter(tableName, null, PAGE_SIZE, excluded);
+                final SectionIndex index = db.getSectionIndex(tableName, excluded);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation) {
+                            return;
+                        }
+                        loading = false;
+                        pendingJump = -1;
+                        window = new ArrayList<>(words);
+                        windowStart = 0;
+                        size = count;
+                        sections = index;
+                        listener.onReset();
+                        listener.onSectionsChanged();
+                    }
+                });
+            }
+        });
+    }
+
+
+    /**
+     * Moves the window to the start of a section, unless it is loaded already.
+     * @param section (int) - section of getSections()
+     * @return (int) position of the first word of the section
+     */
+    public int jumpToSection(int section){
+        if (sections == null || sections.size() == 0) {
+            return 0;
+        }
+        final int position = sections.getPositionForSection(section);
+        if ((position >= windowStart && position < windowStart + window.size()) || pendingJump == position) {
+            return position;
+        }
+        loading = true;
+        final int expected = ++generation; // Loads of the old window are not needed anymore
+        pendingJump = position;
+        final byte[] key = sections.getKeyForSection(section);
+        final Set<Integer> excluded = new HashSet<>(hiddenIds);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Word> words = db.getWordsFrom(tableName, key, PAGE_SIZE, excluded); // Seeks the index, unlike an OFFSET
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation) {
+                            return;
+                        }
+                        loading = false;
+                        pendingJump = -1;
+                        window = new ArrayList<>(words);
+                        windowStart = position;
+                        listener.onRangeLoaded(position, words.size());
+                    }
+                });
+            }
+        });
+        return position;
+    }
+
+
+    /**
+     * Returns the index of a word in the window or -1.
+     */
+    private int indexOf(int id){
+        for (int i = 0; i < window.size(); i++) {
+            if (window.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Positions have shifted, so a jump in flight would load the wrong rows. Start it again.
+     */
+    private void restartJump(){
+        if (pendingJump >= 0) {
+            int position = pendingJump + PAGE_SIZE / 2;
+            pendingJump = -1;
+            jumpTo(position);
+        }
+    }
+
+    /**
+     * Replaces the window with a page around a position that isn't loaded.
+     */
+    private void jumpTo(final int position){
+        if (pendingJump >= 0 && position >= pendingJump && position < pendingJump + PAGE_SIZE) {
+            return; // Already on its way
+        }
+        loading = true;
+        final int expected = ++generation; // Loads of the old window are not needed anymore
+        final int start = Math.max(0, position - PAGE_SIZE / 2);
+        pendingJump = start;
+        final Set<Integer> excluded = new HashSet<>(hiddenIds);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Word> words = db.getWordsAt(tableName, start, PAGE_SIZE, excluded);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation) {
+                            return;
+                        }
+                        loading = false;
+                        pendingJump = -1;
+                        window = new ArrayList<>(words);
+                        windowStart = start;
+                        listener.onRangeLoaded(start, words.size());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Extends the window forward from its last word.
+     */
+    private void loadAfter(){
+        if (loading || window.isEmpty()) {
+            return;
+        }
+        loading = true;
+        final int expected = generation;
+        final Word last = window.get(window.size() - 1);
+        final Set<Integer> excluded = new HashSet<>(hiddenIds);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Word> words = db.getWordsAfter(tableName, last, PAGE_SIZE, excluded);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation) {
+                            return;
+                        }
+                        loading = false;
+                        int start = windowStart + window.size();
+                        for (Word w : words) {
+                            if (!hiddenIds.contains(w.getId())) {
+                                window.add(w);
+                            }
+                        }
+                        listener.onRangeLoaded(start, windowStart + window.size() - start);
+                        if (window.size() > MAX_WINDOW) { // Drop rows far above the viewport
+                            int drop = window.size() - MAX_WINDOW;
+                            window.subList(0, drop).clear();
+                            windowStart += drop;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Extends the window backward from its first word.
+     */
+    private void loadBefore(){
+        if (loading || window.isEmpty()) {
+            return;
+        }
+        loading = true;
+        final int expected = generation;
+        final Word first = window.get(0);
+        final Set<Integer> excluded = new HashSet<>(hiddenIds);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Word> words = db.getWordsBefore(tableName, first, PAGE_SIZE, excluded);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation) {
+                            return;
+                        }
+                        loading = false;
+                        ArrayList<Word> loaded = new ArrayList<>(words.size());
+                        for (Word w : words) {
+                            if (!hiddenIds.contains(w.getId())) {
+                                loaded.add(w);
+                            }
+                        }
+                        window.addAll(0, loaded);
+                        windowStart = Math.max(0, windowStart - loaded.size());
+                        listener.onRangeLoaded(windowStart, loaded.size());
+                        if (window.size() > MAX_WINDOW) { // Drop rows far below the viewport
+                            window.subList(MAX_WINDOW, window.size()).clear();
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.misc;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayDeque;
+import java.util.List;
+import ivan.vocabulary.DB.Card;
+import ivan.vocabulary.DB.Repository;
+import ivan.vocabulary.core.ReviewScheduler;
+
+/**
+ * A review session over the cards of a vocabulary that are due when it starts, the most overdue first.
+ * Cards are loaded in batches with keyset queries on the due index and kept in a queue; the next batch is requested
+ * in the background once the queue runs low, so an answer only polls the queue and requests one row update.
+ * A failed card is asked again in this session once it's due, ReviewScheduler.RELEARN_DELAY later, as SM-2 does;
+ * if nothing else is left meanwhile, the session waits for it.
+ * All the methods must be called on the UI thread.
+ */
+public class ReviewSession {
+    public static final int BATCH_SIZE = 50; // Cards loaded by one query
+    private static final int PREFETCH_DISTANCE = 10; // Load the next batch once this few cards are left
+    private final Repository repository;
+    private final Object owner;
+    private final String tableName;
+    private final Listener listener;
+    private final long startedAt; // Cards due later are left for the next session
+    private final ArrayDeque<Card> queue = new ArrayDeque<>();
+    private final ArrayDeque<Card> relearning = new ArrayDeque<>(); // Failed cards, in the order they are due
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable wakeUp = new Runnable() {
+        @Override
+        public void run() {
+            advance();
+        }
+    };
+    private Card lastLoaded = null; // Keyset anchor of the next batch
+    private Card current = null;
+    private boolean loading = false;
+    private boolean exhausted = false; // All the due cards are loaded
+    private int reviewed = 0;
+
+
+    /**
+     * Callback interface to show the cards of the session.
+     */
+    public interface Listener {
+        /**
+         * Called when the next card is ready.
+         * @param card (Card) - card to ask, null once the session is over
+         */
+        void onCard(Card card);
+
+        /**
+         * Called when only failed cards are left and none of them is due yet. onCard() follows once one is.
+         * @param due (long) - time the next card is due, ms since the epoch
+         */
+        void onWait(long due);
+    }
+
+    /**
+     * Constructor. Starts loading the first batch straight away.
+     * @param repository (Repository) - repository
+     * @param owner (Object) - owner of the DB requests, normally the activity
+     * @param tableName (String) - vocab table
+     * @param listener (Listener) - receives the cards
+     */
+    public ReviewSession(Repository repository, Object owner, String tableName, Listener listener){
+        this.repository = repository;
+        this.owner = owner;
+        this.tableName = tableName;
+        this.listener = listener;
+        this.startedAt = System.currentTimeMillis();
+        advance();
+    }
+
+    /**
+     * Returns the card being asked.
+     * @return (Card) card or null if there is none at the moment
+     */
+    public Card getCurrent(){
+        return current;
+    }
+
+    /**
+     * Returns the number of answers given in the session.
+     * @return (int) number of answers
+     */
+    public int getReviewed(){
+        return reviewed;
+    }
+
+    /**
+     * Grades the current card, stores its new state and moves to the next card.
+     * @param grade (int) - grade of the answer, 0 to 5, see ReviewScheduler
+     */
+    public void answer(int grade){
+        if (current == null) {
+            return;
+        }
+        Card answered = current.review(grade, System.currentTimeMillis());
+        repository.saveReview(owner, answered, null); // Written on the DB thread, before the batches requested later
+        reviewed++;
+        if (grade < ReviewScheduler.PASSING_GRADE) {
+            relearning.addLast(answered); // All wait the same delay, so the deque stays in order
+        }
+        current = null;
+        advance();
+    }
+
+
+    /**
+     * Stops waiting for failed cards. Call it when the session is left, e.g. in onDestroy().
+     */
+    public void close(){
+        mainHandler.removeCallbacks(wakeUp);
+    }
+
+
+    /**
+     * Takes the next card, a failed one that is due again first, prefetching the next batch if the queue runs low.
+     */
+    private void advance(){
+        if (queue.size() <= PREFETCH_DISTANCE) {
+            load();
+        }
+        if (current != null) {
+            return;
+        }
+        mainHandler.removeCallbacks(wakeUp);
+        long now = System.currentTimeMillis();
+        Card failed = relearning.peek();
+        current = failed != null && failed.getState().due <= now ? relearning.poll() : queue.poll();
+        if (current != null) {
+            listener.onCard(current);
+        } else if (failed != null) {
+            mainHandler.postDelayed(wakeUp, failed.getState().due - now);
+            listener.onWait(failed.getState().due);
+        } else if (exhausted && !loading) {
+            listener.onCard(null);
+        }
+    }
+
+    /**
+     * Requests the next batch of cards, unless it is requested already or there are no more.
+     */
+    private void load(){
+        if (loading || exhausted) {
+            return;
+        }
+        loading = true;
+        repository.getDueCards(owner, tableName, startedAt, lastLoaded, BATCH_SIZE, new Repository.Callback<List<Card>>() {
+            @Override
+            public void onResult(List<Card> cards) {
+                loading = false;
+                exhausted = cards.size() < BATCH_SIZE;
+                if (!cards.isEmpty()) {
+                    lastLoaded = cards.get(cards.size() - 1);
+                    queue.addAll(cards);
+                }
+                advance();
+            }
+        });
+    }
+}
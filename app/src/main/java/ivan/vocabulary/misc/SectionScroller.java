@@ -0,0 +1,142 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.misc;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import ivan.vocabulary.R;
+
+/**
+ * Fast scroller that shows the sections of a WordsListAdapter as a column of letters next to the list.
+ * The thumb marks the section at the top of the list; touching or dragging over a letter opens the list at its section
+ * with one keyset query, see PagedWordList.jumpToSection(). Hidden while the list is short.
+ */
+public class SectionScroller extends View {
+    private static final int MIN_ITEMS = 200; // Shorter lists are flung through easily enough
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint thumbPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF thumb = new RectF();
+    private final float maxTextSize;
+    private RecyclerView list;
+    private WordsListAdapter adapter;
+    private Object[] sections = new Object[0];
+    private int current = -1; // Section under the thumb
+    private boolean dragging = false;
+
+    public SectionScroller(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        maxTextSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12, getResources().getDisplayMetrics());
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setColor(Color.DKGRAY);
+        thumbPaint.setColor(ContextCompat.getColor(context, R.color.colorAccent));
+        thumbPaint.setAlpha(96);
+        setVisibility(GONE);
+    }
+
+    /**
+     * Connects the scroller to a list. Call it after the adapter is set.
+     * @param list (RecyclerView) - list with a LinearLayoutManager
+     * @param adapter (WordsListAdapter) - adapter of the list
+     */
+    public void attach(RecyclerView list, WordsListAdapter adapter){
+        this.list = list;
+        this.adapter = adapter;
+        adapter.setOnSectionsChangedListener(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        });
+        list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (!dragging) {
+                    updateThumb();
+                }
+            }
+        });
+        refresh();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (sections.length == 0) {
+            return false;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                dragging = true;
+                getParent().requestDisallowInterceptTouchEvent(true); // The list must not scroll meanwhile
+                // Fall through
+            case MotionEvent.ACTION_MOVE:
+                int section = Math.max(0, Math.min(sections.length - 1, (int) (event.getY() * sections.length / getHeight())));
+                if (section != current) {
+                    current = section;
+                    int position = adapter.jumpToSection(section);
+                    ((LinearLayoutManager) list.getLayoutManager()).scrollToPositionWithOffset(position, 0);
+                    invalidate();
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                dragging = false;
+                getParent().requestDisallowInterceptTouchEvent(false);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (sections.length == 0) {
+            return;
+        }
+        float rowHeight = (float) getHeight() / sections.length;
+        textPaint.setTextSize(Math.min(maxTextSize, rowHeight * 0.8f));
+        float x = getWidth() / 2f;
+        if (current >= 0 && current < sections.length) {
+            thumb.set(0, current * rowHeight, getWidth(), (current + 1) * rowHeight);
+            canvas.drawRoundRect(thumb, getWidth() / 2f, getWidth() / 2f, thumbPaint);
+        }
+        float baseline = (rowHeight - textPaint.descent() - textPaint.ascent()) / 2f; // Centres the text in its row
+        for (int i = 0; i < sections.length; i++) {
+            canvas.drawText(sections[i].toString(), x, i * rowHeight + baseline, textPaint);
+        }
+    }
+
+
+    /**
+     * Reads the sections again, e.g. after the list was loaded or a word was added.
+     */
+    private void refresh(){
+        sections = adapter.getItemCount() >= MIN_ITEMS ? adapter.getSections() : new Object[0];
+        setVisibility(sections.length > 1 ? VISIBLE : GONE);
+        updateThumb();
+        invalidate();
+    }
+
+    /**
+     * Moves the thumb to the section of the first visible row.
+     */
+    private void updateThumb(){
+        int first = ((LinearLayoutManager) list.getLayoutManager()).findFirstVisibleItemPosition();
+        int section = first == RecyclerView.NO_POSITION || sections.length == 0 ? -1 : adapter.getSectionForPosition(first);
+        if (section != current) {
+            current = section;
+            invalidate();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.misc;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import java.util.Locale;
+
+/**
+ * Cold start markers of the application: time to the first frame of the main activity and time until the vocabularies
+ * are shown. Both are measured from the start of the process (from the first use of this class before Android 7.0)
+ * and reported once per process to logcat (tag StartupTrace) and to the diagnostics section of the settings.
+ * Time to data is also reported to the system with Activity.reportFullyDrawn().
+ * All the methods must be called on the UI thread.
+ */
+public final class StartupTrace {
+    private static final String TAG = "StartupTrace";
+    private static final long LOADED = SystemClock.elapsedRealtime(); // ms
+    private static long firstFrame = -1; // ms since start
+    private static long data = -1; // ms since start
+    private static boolean watching = false;
+
+    private StartupTrace(){}
+
+
+    /**
+     * Marks the first frame drawn by an activity. Only the first activity of the process is traced.
+     * Call it from onCreate().
+     * @param activity (Activity) - launcher activity
+     */
+    public static void watchFirstFrame(Activity activity){
+        if (watching) {
+            return;
+        }
+        watching = true;
+        final View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean drawn = false;
+
+            @Override
+            public void onDraw() {
+                if (drawn) {
+                    return;
+                }
+                drawn = true;
+                final ViewTreeObserver.OnDrawListener listener = this;
+                new Handler(Looper.getMainLooper()).postAtFrontOfQueue(new Runnable() { // Runs once the frame is out
+                    @Override
+                    public void run() {
+                        firstFrame = sinceStart();
+                        Log.i(TAG, "first frame: " + firstFrame + " ms");
+                        decor.getViewTreeObserver().removeOnDrawListener(listener); // Can't be removed while drawing
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Marks the moment the data of the launcher activity is shown. Only the first call of the process counts.
+     * @param activity (Activity) - launcher activity
+     */
+    public static void dataShown(Activity activity){
+        if (data >= 0) {
+            return;
+        }
+        data = sinceStart();
+        Log.i(TAG, "data: " + data + " ms");
+        activity.reportFullyDrawn();
+    }
+
+    /**
+     * Returns the markers as plain text.
+     * @return (String) report
+     */
+    public static String dump(){
+        return String.format(Locale.ROOT, "cold start: first frame %s, data %s",
+                firstFrame < 0 ? "-" : firstFrame + " ms", data < 0 ? "-" : data + " ms");
+    }
+
+    private static long sinceStart(){
+        long start = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartElapsedRealtime() : LOADED;
+        return SystemClock.elapsedRealtime() - start;
+    }
+}
@@ -4,21 +4,32 @@
  */
 package ivan.vocabulary.misc;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import ivan.vocabulary.DB.Vocabulary;
 import ivan.vocabulary.R;
 
 /**
  * Custom RecyclerView adapter class to display a list of vocabularies in the main activity.
+ * New data is applied as a diff computed on a background thread, so only the rows that changed are rebound.
  */
 public class VocabulariesListAdapter extends RecyclerView.Adapter<VocabulariesListAdapter.VocabularyViewHolder>  {
+    private static final Executor differ = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private List<Vocabulary> vocabularies;
     private View.OnClickListener onItemClickListener;
+    private List<Vocabulary> pendingData = null; // Data whose diff is being computed
+    private int generation = 0; // Incremented to discard diffs computed against an outdated list
 
 
     /**
@@ -26,12 +37,13 @@ public class VocabulariesListAdapter extends RecyclerView.Adapter<VocabulariesLi
      * We pass the instance of ViewHolder via itemView to the listener using setTag().
      */
     public class VocabularyViewHolder extends RecyclerView.ViewHolder {
-        private TextView name;
+        private TextView name, count;
         public VocabularyViewHolder(View view) {
             super(view);
             view.setTag(this);
             view.setOnClickListener(onItemClickListener);
             name =  view.findViewById(R.id.vocab_name);
+            count = view.findViewById(R.id.vocab_count);
         }
     }
 
@@ -43,6 +55,7 @@ public class VocabulariesListAdapter extends RecyclerView.Adapter<VocabulariesLi
     public VocabulariesListAdapter (List<Vocabulary> vocabularies, View.OnClickListener clickListener){
         this.vocabularies = vocabularies;
         this.onItemClickListener = clickListener;
+        setHasStableIds(true);
     }
 
 
@@ -66,6 +79,8 @@ public class VocabulariesListAdapter extends RecyclerView.Adapter<VocabulariesLi
         Vocabulary vocab = vocabularies.get(position);
         holder.name.setText(vocab.getName());
         holder.name.setTextSize(Helper.getCurrentFontSize()); //Set font size
+        holder.count.setText(String.valueOf(vocab.getWordCount()));
+        holder.count.setTextSize(Helper.getCurrentFontSize()-2);
     }
 
     @Override
@@ -73,13 +88,56 @@ public class VocabulariesListAdapter extends RecyclerView.Adapter<VocabulariesLi
         return vocabularies.size();
     }
 
+    @Override
+    public long getItemId(int position) {
+        return vocabularies.get(position).getId();
+    }
+
     public List<Vocabulary> getVocabularies() {
         return vocabularies;
     }
 
-    public void setData (List<Vocabulary> vocabularies){
-        this.vocabularies = vocabularies;
-        this.notifyDataSetChanged();
+    /**
+     * Replaces the data. The difference to the current list is computed in the background and then dispatched
+     * as insert, remove, move and change notifications.
+     * @param newData (List<Vocabulary>) - new list of vocabularies
+     */
+    public void setData (final List<Vocabulary> newData){
+        final int expected = ++generation;
+        if (vocabularies.isEmpty()) { // Nothing to diff against, e.g. at start up
+            pendingData = null;
+            vocabularies = newData;
+            notifyItemRangeInserted(0, newData.size());
+            return;
+        }
+        pendingData = newData;
+        final List<Vocabulary> oldData = new ArrayList<>(vocabularies);
+        differ.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new VocabulariesDiff(oldData, newData));
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation) {
+                            return;
+                        }
+                        pendingData = null;
+                        vocabularies = newData;
+                        diff.dispatchUpdatesTo(VocabulariesListAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The list was changed on the UI thread, so a diff in flight doesn't match it anymore. Compute it again.
+     */
+    private void restartDiff(){
+        if (pendingData != null) {
+            setData(pendingData);
+        }
     }
 
     public Vocabulary getVocabulary(int position) {
@@ -96,11 +154,52 @@ public class VocabulariesListAdapter extends RecyclerView.Adapter<VocabulariesLi
     }
 
     public void removeVocabulary(int position){
-         vocabularies.remove(position);
+        vocabularies.remove(position);
+        restartDiff();
     }
 
     public void restoreItem(Vocabulary vocab, int position) {
         vocabularies.add(position, vocab);
         notifyItemInserted(position);
+        restartDiff();
+    }
+
+
+    /**
+     * Compares two lists of vocabularies by id and displayed values.
+     */
+    private static class VocabulariesDiff extends DiffUtil.Callback {
+        private final List<Vocabulary> oldData, newData;
+
+        VocabulariesDiff(List<Vocabulary> oldData, List<Vocabulary> newData){
+            this.oldData = oldData;
+            this.newData = newData;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldData.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newData.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldData.get(oldPosition).getId() == newData.get(newPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Vocabulary o = oldData.get(oldPosition);
+            Vocabulary n = newData.get(newPosition);
+            return o.getWordCount() == n.getWordCount() && equal(o.getName(), n.getName()) && equal(o.getTable(), n.getTable());
+        }
+
+        private static boolean equal(String a, String b){
+            return a == null ? b == null : a.equals(b);
+        }
     }
 }
@@ -8,17 +8,24 @@ import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
-import java.util.List;
+import ivan.vocabulary.DB.DB;
 import ivan.vocabulary.DB.Word;
 import ivan.vocabulary.R;
+import ivan.vocabulary.core.SectionIndex;
 
 /**
  * Custom RecyclerView adapter class to display a list of words in a vocabulary activity.
+ * Words are paged in from the database by PagedWordList, so only the rows around the viewport are kept in memory.
+ * Changes are notified one row at a time and ids are stable, so adding or editing a word doesn't rebind the whole list.
+ * Sections of the first letters are provided for a SectionScroller.
  */
-public class WordsListAdapter extends RecyclerView.Adapter<WordsListAdapter.WordsViewHolder>  {
-    private List<Word> words;
+public class WordsListAdapter extends RecyclerView.Adapter<WordsListAdapter.WordsViewHolder> implements PagedWordList.Listener, SectionIndexer {
+    private static final Object[] NO_SECTIONS = new Object[0];
+    private PagedWordList words;
     private View.OnClickListener onItemClickListener;
+    private Runnable onSectionsChangedListener;
 
 
     /**
@@ -38,12 +45,14 @@ public class WordsListAdapter extends RecyclerView.Adapter<WordsListAdapter.Word
 
     /**
      * Constructor
-     * @param words (List<Word>) - a list of Word objects to be displayed
+     * @param db (DB) - database to page the words from
+     * @param tableName (String) - vocab table to be displayed
      * @param clickListener (View.OnClickListener) - callback on list item click
      */
-    public WordsListAdapter(List<Word> words, View.OnClickListener clickListener){
-        this.words = words;
+    public WordsListAdapter(DB db, String tableName, View.OnClickListener clickListener){
+        this.words = new PagedWordList(db, tableName, this);
         this.onItemClickListener = clickListener;
+        setHasStableIds(true);
     }
 
     /**
@@ -65,37 +74,122 @@ public class WordsListAdapter extends RecyclerView.Adapter<WordsListAdapter.Word
     public void onBindViewHolder(WordsViewHolder holder, int position) {
         Word word = words.get(position);
         holder.word.setTextSize(Helper.getCurrentFontSize());
+        holder.meaning.setTextSize(Helper.getCurrentFontSize()-2);
+        if(word == null){ // Not loaded yet, the row is rebound once its page arrives
+            holder.word.setText("");
+            holder.meaning.setText("");
+            return;
+        }
         holder.word.setText(word.getWord());
-        String[] meanings = word.getArrayOfMeanings();
+        holder.meaning.setText(word.getFirstMeaning()); // Parsed when the word was loaded
+    }
+
+    @Override
+    public int getItemCount() {
+        return words.size();
+    }
+
+    /**
+     * Returns the id of the word at a position. A row that isn't loaded yet gets a negative id derived from its
+     * position, which never clashes with a word id or with RecyclerView.NO_ID, so the ids stay stable until the word
+     * arrives with onRangeLoaded().
+     */
+    @Override
+    public long getItemId(int position) {
+        Word word = words.peek(position);
+        return word != null ? word.getId() : placeholderId(position);
+    }
+
+    private static long placeholderId(int position) {
+        return -2L - position; // RecyclerView.NO_ID is -1
+    }
+
+    @Override
+    public void onReset() {
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onRangeLoaded(int positionStart, int itemCount) {
+        notifyItemRangeChanged(positionStart, itemCount);
+    }
+
+    @Override
+    public void onInserted(int position) {
+        notifyItemInserted(position);
+    }
+
+    @Override
+    public void onChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        notifyItemMoved(fromPosition, toPosition);
+    }
 
-        if(meanings != null && meanings[0] != null){
-            holder.meaning.setTextSize(Helper.getCurrentFontSize()-2);
-            holder.meaning.setText(meanings[0]);
+    @Override
+    public void onSectionsChanged() {
+        if (onSectionsChangedListener != null) {
+            onSectionsChangedListener.run();
         }
+    }
 
+    /**
+     * Set a callback to be run whenever the sections change
+     * @param listener (Runnable) - callback, can be null
+     */
+    public void setOnSectionsChangedListener(Runnable listener) {
+        onSectionsChangedListener = listener;
     }
 
     @Override
-    public int getItemCount() {
-        return words.size();
+    public Object[] getSections() {
+        SectionIndex sections = words.getSections();
+        return sections != null ? sections.getSections() : NO_SECTIONS;
     }
 
-    public List<Word> getVocabularies() {
-        return words;
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        SectionIndex sections = words.getSections();
+        return sections != null ? sections.getPositionForSection(sectionIndex) : 0;
     }
 
-    public void setData (List<Word> vocabularies){
-        this.words = vocabularies;
-        this.notifyDataSetChanged();
+    @Override
+    public int getSectionForPosition(int position) {
+        SectionIndex sections = words.getSections();
+        return sections != null ? sections.getSectionForPosition(position) : 0;
+    }
+
+    /**
+     * Starts loading the rows of a section, see PagedWordList.jumpToSection().
+     * @param sectionIndex (int) - section
+     * @return (int) position to scroll to
+     */
+    public int jumpToSection(int sectionIndex) {
+        return words.jumpToSection(sectionIndex);
+    }
+
+    /**
+     * Adds a new word to the vocabulary and shows it at its sorted position.
+     * @param word (Word) - new word
+     */
+    public void addWord(Word word){
+        words.insert(word);
     }
 
     public Word getWord(int position) {
         return words.get(position);
     }
 
+    /**
+     * Saves an updated word and shows it, moving it if its sorted position changed.
+     * @param position (int) - position
+     * @param word (Word) - updated word
+     */
     public void setWord (int position, Word word){
-        words.set(position,word);
-        notifyItemChanged(position);
+        words.update(position, word);
     }
 
     public void removeWord(int position){
@@ -103,7 +197,15 @@ public class WordsListAdapter extends RecyclerView.Adapter<WordsListAdapter.Word
     }
 
     public void restoreItem(Word word, int position) {
-        words.add(position, word);
+        words.restore(position, word);
         notifyItemInserted(position);
     }
+
+    /**
+     * Called once a removed word has been deleted from the DB.
+     * @param word (Word) - deleted word
+     */
+    public void onWordDeleted(Word word) {
+        words.forget(word.getId());
+    }
 }
@@ -0,0 +1,149 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import ivan.vocabulary.core.SortKeys;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the change journal behind the delta exports, see DB.writeChanges() and DB.compactJournal().
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DBJournalTest {
+    private DB db;
+
+    @Before
+    public void setUp() {
+        DB.resetInstance();
+        RuntimeEnvironment.application.deleteDatabase("Vocabularies");
+        db = DB.getInstance(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        DB.resetInstance();
+    }
+
+    @Test
+    public void compactJournal_keepsDeleteWhenIdIsReusedByAnotherVocabulary() throws IOException {
+        String a = db.createVocabulary("A");
+        String b = db.createVocabulary("B");
+        db.addWord(new Word("apple", "manzana"), a);
+        int pear = (int) db.addWord(new Word("pear", "pera"), a);
+        db.markExported(a, db.writeChanges(a, new Recorder()));
+
+        db.deleteWord(pear, a);
+        int reused = (int) db.addWord(new Word("Hund", "dog"), b);
+        assertEquals("SQLite reuses the largest id", pear, reused);
+        db.compactJournal();
+
+        Recorder changes = new Recorder();
+        db.writeChanges(a, changes);
+        assertEquals(1, changes.deleted.size());
+        assertEquals(Integer.valueOf(pear), changes.deleted.get(0));
+        assertTrue(changes.upserted.isEmpty());
+    }
+
+    @Test
+    public void compactJournal_keepsLatestChangeOfWord() throws IOException {
+        String a = db.createVocabulary("A");
+        db.addWord(new Word("apple", "manzana"), a);
+        db.markExported(a, db.writeChanges(a, new Recorder()));
+
+        int pear = (int) db.addWord(new Word("pear", "pera"), a);
+        db.updateWord(pear, new Word("pear", "pera, perilla"), a);
+        db.compactJournal();
+
+        Recorder changes = new Recorder();
+        db.writeChanges(a, changes);
+        assertEquals(1, changes.upserted.size());
+        assertEquals("pear", changes.upserted.get(0));
+        assertTrue(changes.deleted.isEmpty());
+    }
+
+    @Test
+    public void migrationFromVersion1_isNotJournaled() {
+        DB.resetInstance();
+        RuntimeEnvironment.application.deleteDatabase("Vocabularies");
+        SQLiteDatabase v1 = SQLiteDatabase.openOrCreateDatabase(RuntimeEnvironment.application.getDatabasePath("Vocabularies"), null);
+        v1.execSQL("CREATE TABLE vocab_metadata (_id INTEGER PRIMARY KEY, name TEXT, t_name TEXT)");
+        v1.execSQL("INSERT INTO vocab_metadata VALUES (1, 'English', 'vocab_1')");
+        v1.execSQL("CREATE TABLE vocab_1 (_id INTEGER PRIMARY KEY, word TEXT, meanings TEXT)");
+        v1.execSQL("INSERT INTO vocab_1 (word, meanings) VALUES ('water', 'agua'), ('rain', 'lluvia')");
+        v1.setVersion(1);
+        v1.close();
+
+        db = DB.getInstance(RuntimeEnvironment.application);
+        assertEquals(2, db.getWordsCount("vocab_1"));
+        SQLiteDatabase sql = db.getReadableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(sql, Schema.JOURNAL_TABLE));
+        assertEquals(2, DatabaseUtils.queryNumEntries(sql, Schema.REVIEWS_TABLE));
+        db.addWord(new Word("snow", "nieve"), "vocab_1"); // The triggers are back
+        assertEquals(1, DatabaseUtils.queryNumEntries(sql, Schema.JOURNAL_TABLE));
+        assertEquals(3, DatabaseUtils.queryNumEntries(sql, Schema.REVIEWS_TABLE));
+        assertEquals(3, db.getWordsCount("vocab_1"));
+    }
+
+    @Test
+    public void staleSortKeys_areComputedAgainOnOpenAndNotJournaled() throws IOException {
+        String a = db.createVocabulary("A");
+        db.addWord(new Word("apple", "manzana"), a);
+        db.markExported(a, db.writeChanges(a, new Recorder()));
+        SQLiteDatabase sql = db.getWritableDatabase();
+        sql.execSQL("UPDATE " + Schema.WORDS_TABLE + " SET " + Schema.WORD_KEY_SORT_KEY + " = X'00'");
+        sql.execSQL("UPDATE " + Schema.VOCAB_METADATA_TABLE + " SET " + Schema.META_KEY_COLLATOR + " = 'old'"); // As if made before an OS update
+
+        DB.resetInstance();
+        db = DB.getInstance(RuntimeEnvironment.application);
+        sql = db.getReadableDatabase();
+        String locale = DatabaseUtils.stringForQuery(sql, "SELECT " + Schema.META_KEY_LOCALE + " FROM " + Schema.VOCAB_METADATA_TABLE, null);
+        SortKeys keys = new SortKeys(locale);
+        assertEquals(keys.getVersion(), DatabaseUtils.stringForQuery(sql, "SELECT " + Schema.META_KEY_COLLATOR + " FROM " + Schema.VOCAB_METADATA_TABLE, null));
+        Cursor cursor = sql.rawQuery("SELECT " + Schema.WORD_KEY_SORT_KEY + " FROM " + Schema.WORDS_TABLE, null);
+        try {
+            assertTrue(cursor.moveToNext());
+            assertArrayEquals(keys.key("apple"), cursor.getBlob(0));
+        } finally {
+            cursor.close();
+        }
+        Recorder changes = new Recorder();
+        db.writeChanges(a, changes);
+        assertTrue(changes.upserted.isEmpty());
+    }
+
+
+    /**
+     * Visitor that keeps the changes it receives.
+     */
+    private static final class Recorder implements DB.ChangeVisitor {
+        final List<String> upserted = new ArrayList<>();
+        final List<Integer> deleted = new ArrayList<>();
+
+        @Override
+        public void upsert(int id, String word, String meanings) {
+            upserted.add(word);
+        }
+
+        @Override
+        public void delete(int id) {
+            deleted.add(id);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import android.content.Context;
+import android.os.Environment;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import ivan.vocabulary.CSV.CSV;
+import ivan.vocabulary.CSV.CSVExporter;
+import ivan.vocabulary.CSV.CSVImporter;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Performance suite for the DB class on the JVM. Vocabularies of 1k, 10k and 100k synthetic words are seeded and the
+ * latency and throughput of the word operations, export and import are measured against them.
+ * Results are written as JSON to the file given by the dbPerf.report system property and compared with the budget
+ * in db-perf-budget.properties; the test fails when the budget is exceeded.
+ * Skipped unless the dbPerf system property is true, see app/build.gradle.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DBPerformanceTest {
+    private static final long SEED = 24042019L;
+    private static final int LATENCY_SAMPLES = 200; // Runs of every single-word operation
+    private static final int COUNT_SAMPLES = 1000;
+    private static final int LOAD_SAMPLES = 5; // Runs of getWords
+    private static final List<LatencyRecorder> results = new ArrayList<>();
+    private static final Executor CALLING_THREAD = new Executor() { // Runs the AsyncTasks synchronously
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private final int size;
+    private final Random random = new Random(SEED);
+    private final HashSet<String> usedWords = new HashSet<>(); // Duplicates would be merged and throw the counts off
+    private Context context;
+    private DB db;
+    private String table;
+
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} words")
+    public static Collection<Object[]> sizes(){
+        return Arrays.asList(new Object[][]{{1000}, {10000}, {100000}});
+    }
+
+    public DBPerformanceTest(int size){
+        this.size = size;
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue("Run with -PdbPerf", Boolean.getBoolean("dbPerf"));
+        context = RuntimeEnvironment.application;
+        DB.resetInstance();
+        context.deleteDatabase("Vocabularies");
+        db = DB.getInstance(context);
+        table = db.createVocabulary("Perf " + size);
+    }
+
+    @After
+    public void tearDown() {
+        DB.resetInstance();
+    }
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        String path = System.getProperty("dbPerf.report");
+        if (path == null || results.isEmpty()) {
+            return;
+        }
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\"budgetFactor\":" + budgetFactor() + ",\"results\":[\n");
+            for (int i = 0; i < results.size(); i++) {
+                writer.write(results.get(i).toJson());
+                writer.write(i + 1 < results.size() ? ",\n" : "\n");
+            }
+            writer.write("]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+
+    @Test
+    public void wordOperationsStayWithinBudget() throws Exception {
+        List<LatencyRecorder> measured = new ArrayList<>();
+
+        // Seed the vocabulary
+        List<Word> seed = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            seed.add(randomWord());
+        }
+        LatencyRecorder seeding = new LatencyRecorder("seed", size);
+        long start = System.nanoTime();
+        assertEquals(size, db.addWords(seed, table));
+        seeding.record(System.nanoTime() - start, size);
+        measured.add(seeding);
+
+        // Loading the whole vocabulary, first from SQLite, then possibly from the word cache
+        LatencyRecorder cold = new LatencyRecorder("getWords.cold", size);
+        start = System.nanoTime();
+        List<Word> words = db.getWords(table);
+        cold.record(System.nanoTime() - start, words.size());
+        assertEquals(size, words.size());
+        measured.add(cold);
+        LatencyRecorder load = new LatencyRecorder("getWords", size);
+        for (int i = 0; i < LOAD_SAMPLES; i++) {
+            start = System.nanoTime();
+            int loaded = db.getWords(table).size();
+            load.record(System.nanoTime() - start, loaded);
+        }
+        measured.add(load);
+
+        LatencyRecorder count = new LatencyRecorder("getWordsCount", size);
+        for (int i = 0; i < COUNT_SAMPLES; i++) {
+            start = System.nanoTime();
+            db.getWordsCount(table);
+            count.record(System.nanoTime() - start, 0);
+        }
+        measured.add(count);
+
+        LatencyRecorder add = new LatencyRecorder("addWord", size);
+        for (int i = 0; i < LATENCY_SAMPLES; i++) {
+            Word word = randomWord();
+            start = System.nanoTime();
+            db.addWord(word, table);
+            add.record(System.nanoTime() - start, 1);
+        }
+        measured.add(add);
+
+        LatencyRecorder update = new LatencyRecorder("updateWord", size);
+        for (int i = 0; i < LATENCY_SAMPLES; i++) {
+            Word old = words.get(random.nextInt(words.size()));
+            Word updated = randomWord();
+            start = System.nanoTime();
+            db.updateWord(old.getId(), updated, table);
+            update.record(System.nanoTime() - start, 1);
+        }
+        measured.add(update);
+
+        LatencyRecorder delete = new LatencyRecorder("deleteWord", size);
+        for (int i = 0; i < LATENCY_SAMPLES; i++) {
+            Word old = words.remove(random.nextInt(words.size()));
+            start = System.nanoTime();
+            db.deleteWord(old.getId(), table);
+            delete.record(System.nanoTime() - start, 1);
+        }
+        measured.add(delete);
+        int remaining = size; // Added and deleted the same number of words
+        assertEquals(remaining, db.getWordsCount(table));
+
+        // Export into a .csv file and import it into a new vocabulary
+        Environment.getExternalStorageDirectory().mkdirs();
+        LatencyRecorder export = new LatencyRecorder("export", size);
+        CSVExporter exporter = new CSVExporter("perf_" + size, new Vocabulary("Perf " + size, table), null);
+        start = System.nanoTime();
+        exporter.executeOnExecutor(CALLING_THREAD);
+        assertTrue(exporter.get());
+        export.record(System.nanoTime() - start, remaining);
+        measured.add(export);
+
+        String importTable = db.createVocabulary("Imported " + size);
+        LatencyRecorder imported = new LatencyRecorder("import", size);
+        InputStream input = new FileInputStream(CSV.getLastFilePath());
+        CSVImporter importer = new CSVImporter(input, importTable, null);
+        start = System.nanoTime();
+        importer.executeOnExecutor(CALLING_THREAD);
+        int rows = importer.get();
+        imported.record(System.nanoTime() - start, rows);
+        assertEquals(remaining, rows);
+        measured.add(imported);
+
+        synchronized (results) {
+            results.addAll(measured);
+        }
+        List<String> exceeded = new ArrayList<>();
+        Properties budget = loadBudget();
+        for (LatencyRecorder r : measured) {
+            checkBudget(r, budget, exceeded);
+        }
+        assertTrue("Regression budget exceeded:\n" + exceeded, exceeded.isEmpty());
+    }
+
+
+    /**
+     * Generates a word that looks like real data: 3-12 letters and 0-4 meanings. Every word is a new one.
+     */
+    private Word randomWord(){
+        ArrayList<String> meanings = new ArrayList<>();
+        for (int m = random.nextInt(5); m > 0; m--) {
+            meanings.add(randomText(2 + random.nextInt(10)));
+        }
+        String word;
+        do {
+            word = randomText(3 + random.nextInt(10));
+        } while (!usedWords.add(word));
+        return new Word(word, meanings);
+    }
+
+    private String randomText(int length){
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static double budgetFactor(){
+        return Double.parseDouble(System.getProperty("dbPerf.budgetFactor", "1.0"));
+    }
+
+    private static Properties loadBudget() throws IOException {
+        Properties budget = new Properties();
+        InputStream in = DBPerformanceTest.class.getResourceAsStream("/db-perf-budget.properties");
+        assertNotNull("db-perf-budget.properties is missing", in);
+        try {
+            budget.load(in);
+        } finally {
+            in.close();
+        }
+        return budget;
+    }
+
+    /**
+     * Compares a result with its budget, the size-specific key wins over the general one.
+     */
+    private static void checkBudget(LatencyRecorder r, Properties budget, List<String> exceeded){
+        double factor = budgetFactor();
+        String p95 = budget.getProperty(r.operation + "." + r.vocabularySize + ".p95Us", budget.getProperty(r.operation + ".p95Us"));
+        if (p95 != null && r.percentileMicros(95) > Long.parseLong(p95.trim()) * factor) {
+            exceeded.add(r.operation + " @" + r.vocabularySize + ": p95 " + r.percentileMicros(95) + " us > " + p95 + " us");
+        }
+        String min = budget.getProperty(r.operation + "." + r.vocabularySize + ".minWordsPerSec", budget.getProperty(r.operation + ".minWordsPerSec"));
+        if (min != null && r.wordsPerSecond() < Double.parseDouble(min.trim()) / factor) {
+            exceeded.add(r.operation + " @" + r.vocabularySize + ": " + (long) r.wordsPerSecond() + " words/s < " + min + " words/s");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latencies of one operation and summarizes them for the performance report.
+ */
+class LatencyRecorder {
+    final String operation;
+    final int vocabularySize;
+    private long[] samples = new long[64]; // ns
+    private int count = 0;
+    private long words = 0; // Words processed by all the samples, for throughput
+
+    /**
+     * Constructor
+     * @param operation (String) - name of the measured operation
+     * @param vocabularySize (int) - size of the vocabulary it ran against
+     */
+    LatencyRecorder(String operation, int vocabularySize){
+        this.operation = operation;
+        this.vocabularySize = vocabularySize;
+    }
+
+    /**
+     * Records one run of the operation.
+     * @param nanos (long) - duration
+     * @param wordsProcessed (long) - number of words the run handled
+     */
+    void record(long nanos, long wordsProcessed){
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+        words += wordsProcessed;
+    }
+
+    int count(){
+        return count;
+    }
+
+    long percentileMicros(double percentile){
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1000;
+    }
+
+    long meanMicros(){
+        return count == 0 ? 0 : totalNanos() / count / 1000;
+    }
+
+    long maxMicros(){
+        return percentileMicros(100);
+    }
+
+    /**
+     * Words handled per second over all the samples.
+     * @return (double) throughput
+     */
+    double wordsPerSecond(){
+        long total = totalNanos();
+        return total == 0 ? 0 : words * 1e9 / total;
+    }
+
+    private long totalNanos(){
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += samples[i];
+        }
+        return total;
+    }
+
+    /**
+     * Returns the summary as a JSON object.
+     * @return (String) JSON
+     */
+    String toJson(){
+        return String.format(java.util.Locale.ROOT,
+                "{\"operation\":\"%s\",\"vocabularySize\":%d,\"samples\":%d,\"meanUs\":%d,\"p50Us\":%d,\"p95Us\":%d,\"maxUs\":%d,\"wordsPerSec\":%.1f}",
+                operation, vocabularySize, count, meanMicros(), percentileMicros(50), percentileMicros(95), maxMicros(), wordsPerSecond());
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.DB;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the write-behind queue: a failed flush keeps the writes, and a flush can't fail halfway on the unique index.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class WriteBehindQueueTest {
+    private DB db;
+
+    @Before
+    public void setUp() {
+        DB.resetInstance();
+        RuntimeEnvironment.application.deleteDatabase("Vocabularies");
+        db = DB.getInstance(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        DB.resetInstance();
+    }
+
+    @Test
+    public void flush_keepsWritesWhenSinkFails() {
+        FailingSink sink = new FailingSink();
+        WriteBehindQueue queue = new WriteBehindQueue(sink);
+        int id = queue.insert("vocab_1", new Word("apple", "manzana"));
+        sink.fail = true;
+        try {
+            queue.flush();
+            fail("The failure must reach the caller");
+        } catch (IllegalStateException e) {
+            assertTrue(queue.hasPending("vocab_1", id));
+        }
+        assertEquals("The reserved id is kept", id + 1, queue.insert("vocab_1", new Word("pear", "pera")));
+        sink.fail = false;
+        queue.flush();
+        assertFalse(queue.hasPending(null));
+        assertEquals(2, sink.applied.get("vocab_1").size());
+        queue.shutdown();
+    }
+
+    @Test
+    public void flush_appliesSwappedRenames() {
+        String a = db.createVocabulary("A");
+        int first = (int) db.addWord(new Word("a", "1"), a);
+        int second = (int) db.addWord(new Word("b", "2"), a);
+        db.queueUpdateWord(first, new Word("c", "1"), a);
+        db.queueUpdateWord(second, new Word("a", "2"), a);
+        db.queueUpdateWord(first, new Word("b", "1"), a); // Takes the key "b" from the second word, written after it
+        db.flushWrites();
+        reopen(); // Read the table, not the word cache
+
+        List<Word> words = db.getWords(a);
+        assertEquals(2, words.size());
+        for (Word word : words) {
+            assertEquals(word.getId() == first ? "b" : "a", word.getWord());
+        }
+    }
+
+    @Test
+    public void flush_appliesDeletesFirst() {
+        String a = db.createVocabulary("A");
+        int apple = (int) db.addWord(new Word("apple", "manzana"), a);
+        int pear = (int) db.addWord(new Word("pear", "pera"), a);
+        db.queueUpdateWord(pear, new Word("pear", "pera, perilla"), a); // Queued before the delete
+        db.queueDeleteWord(apple, a);
+        db.queueUpdateWord(pear, new Word("apple", "pera, perilla"), a); // Takes the key of the deleted word
+        db.flushWrites();
+        reopen(); // Read the table, not the word cache
+
+        List<Word> words = db.getWords(a);
+        assertEquals(1, words.size());
+        assertEquals(pear, words.get(0).getId());
+        assertEquals("apple", words.get(0).getWord());
+    }
+
+    private void reopen() {
+        DB.resetInstance();
+        db = DB.getInstance(RuntimeEnvironment.application);
+    }
+
+
+    /**
+     * Sink that keeps what it is given, or fails when told to.
+     */
+    private static final class FailingSink implements WriteBehindQueue.Sink {
+        final Map<String, LinkedHashMap<Integer, WriteBehindQueue.Write>> applied = new LinkedHashMap<>();
+        boolean fail = false;
+
+        @Override
+        public void apply(Map<String, LinkedHashMap<Integer, WriteBehindQueue.Write>> writes) {
+            if (fail) {
+                throw new IllegalStateException("Disk full");
+            }
+            for (Map.Entry<String, LinkedHashMap<Integer, WriteBehindQueue.Write>> entry : writes.entrySet()) {
+                applied.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+            }
+        }
+
+        @Override
+        public long maxWordId() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The Corpus class generates vocabulary data that looks like real user data, so benchmark runs are comparable.
+ * The same seed always gives the same words. Words are 3-12 letters long and have 0-4 meanings of 1-3 words each;
+ * a few words have accents and a few meanings contain a comma or quotes, so the quoting paths are exercised too.
+ */
+final class Corpus {
+    private static final long SEED = 24042019L;
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+    private static final String ACCENTED = "áéíóúñüöäç";
+
+    final String[] words;
+    final String[] meaningsText; // As typed by the user, comma separated
+    final String[] meaningsStored; // Joined by Meanings.SEPARATOR
+    final String[] vocabNames;
+
+    /**
+     * Constructor
+     * @param size (int) - number of words
+     */
+    Corpus(int size){
+        Random random = new Random(SEED);
+        words = new String[size];
+        meaningsText = new String[size];
+        meaningsStored = new String[size];
+        vocabNames = new String[size];
+        for (int i = 0; i < size; i++) {
+            words[i] = word(random, 3 + random.nextInt(10));
+            List<String> meanings = new ArrayList<>();
+            for (int m = random.nextInt(5); m > 0; m--) {
+                meanings.add(meaning(random));
+            }
+            meaningsText[i] = Meanings.join(meanings, ',');
+            meaningsStored[i] = Meanings.encode(meanings);
+            vocabNames[i] = vocabName(random);
+        }
+    }
+
+    /**
+     * Returns the corpus as a .csv document.
+     * @return (String) rows of "word,meanings"
+     */
+    String toCsv(){
+        StringWriter writer = new StringWriter(words.length * 32);
+        try {
+            for (int i = 0; i < words.length; i++) {
+                CsvCodec.writeRow(writer, words[i], Meanings.decode(meaningsStored[i]));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // A StringWriter doesn't throw
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Returns the corpus as single lines, one per row.
+     * @return (String[]) rows
+     */
+    String[] toLines(){
+        String[] lines = toCsv().split("\r\n");
+        return lines.length == 1 && lines[0].isEmpty() ? new String[0] : lines;
+    }
+
+
+    private static String word(Random random, int length){
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(40) == 0) {
+                sb.append(ACCENTED.charAt(random.nextInt(ACCENTED.length())));
+            } else {
+                sb.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String meaning(Random random){
+        StringBuilder sb = new StringBuilder();
+        for (int w = 1 + random.nextInt(3); w > 0; w--) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(word(random, 2 + random.nextInt(8)));
+        }
+        switch (random.nextInt(50)) {
+            case 0:
+                sb.append(", etc"); // Comma inside a meaning, quoted in .csv files
+                break;
+            case 1:
+                sb.insert(0, '"').append('"');
+                break;
+            default:
+        }
+        return sb.toString();
+    }
+
+    private static String vocabName(Random random){
+        StringBuilder sb = new StringBuilder();
+        for (int w = 1 + random.nextInt(3); w > 0; w--) {
+            if (sb.length() > 0) {
+                sb.append(random.nextInt(4) == 0 ? " - " : " ");
+            }
+            sb.append(word(random, 3 + random.nextInt(8)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding a whole vocabulary into .csv rows and decoding the rows back into fields.
+ */
+@State(Scope.Benchmark)
+public class CsvCodecBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int words;
+
+    private Corpus corpus;
+    private List<String>[] meanings;
+    private String[] lines;
+
+    @Setup
+    @SuppressWarnings("unchecked") // Array of lists
+    public void setup(){
+        corpus = new Corpus(words);
+        meanings = new List[words];
+        for (int i = 0; i < words; i++) {
+            meanings[i] = Meanings.decode(corpus.meaningsStored[i]);
+        }
+        lines = corpus.toLines();
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh) throws IOException {
+        Writer writer = new BlackholeWriter(bh); // Measures encoding, not the destination
+        for (int i = 0; i < words; i++) {
+            CsvCodec.writeRow(writer, corpus.words[i], meanings[i]);
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh){
+        for (String line : lines) {
+            bh.consume(CsvCodec.decodeRow(line));
+        }
+    }
+
+
+    /**
+     * A writer that hands everything to the blackhole.
+     */
+    private static class BlackholeWriter extends Writer {
+        private final Blackhole bh;
+
+        BlackholeWriter(Blackhole bh){
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int c) {
+            bh.consume(c);
+        }
+
+        @Override
+        public void write(String str) {
+            bh.consume(str);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            bh.consume(cbuf);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
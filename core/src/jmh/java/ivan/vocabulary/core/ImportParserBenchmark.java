@@ -0,0 +1,39 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing a whole .csv file into rows, as done by an import.
+ */
+@State(Scope.Benchmark)
+public class ImportParserBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int words;
+
+    private String csv;
+
+    @Setup
+    public void setup(){
+        csv = new Corpus(words).toCsv();
+    }
+
+    @Benchmark
+    public void parseFile(Blackhole bh) throws IOException {
+        ImportParser parser = new ImportParser(new StringReader(csv));
+        ImportParser.Row row;
+        while ((row = parser.next()) != null) {
+            bh.consume(row);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Meaning normalization for a whole vocabulary: parsing user input, joining into the stored form,
+ * and decoding the stored form the way words are loaded from the database.
+ */
+@State(Scope.Benchmark)
+public class MeaningsBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int words;
+
+    private Corpus corpus;
+
+    @Setup
+    public void setup(){
+        corpus = new Corpus(words);
+    }
+
+    @Benchmark
+    public void parseAndVerify(Blackhole bh){
+        for (String text : corpus.meaningsText) {
+            bh.consume(Meanings.verify(Meanings.parse(text)));
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh){
+        for (String text : corpus.meaningsText) {
+            bh.consume(Meanings.encode(Meanings.parse(text)));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh){
+        for (String stored : corpus.meaningsStored) {
+            bh.consume(Meanings.decode(stored));
+        }
+    }
+
+    @Benchmark
+    public void decodeToArray(Blackhole bh){
+        for (String stored : corpus.meaningsStored) {
+            List<String> meanings = Meanings.decode(stored);
+            bh.consume(Meanings.toArray(meanings));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.File;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Writing a whole database into a snapshot file and reading it back, vocabularies of 1000 words each.
+ */
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    private static final int VOCABULARY_SIZE = 1000;
+
+    @Param({"10000", "500000"})
+    public int words;
+
+    private Corpus corpus;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        corpus = new Corpus(words);
+        file = File.createTempFile("snapshot", ".bin");
+        write();
+    }
+
+    @TearDown
+    public void tearDown(){
+        file.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        Snapshot.Writer writer = new Snapshot.Writer(file);
+        try {
+            for (int i = 0; i < words; i++) {
+                if (i % VOCABULARY_SIZE == 0) {
+                    writer.vocabulary(i / VOCABULARY_SIZE + 1, corpus.vocabNames[i], TableNames.sanitize(corpus.vocabNames[i]), "en");
+                }
+                writer.word(i + 1, corpus.words[i], corpus.meaningsStored[i]);
+                writer.review(ReviewScheduler.DEFAULT_EASE, i % 30, i % 5, i * 1000L); // Every word has a review state
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Benchmark
+    public void read(final Blackhole bh) throws IOException {
+        Snapshot.Reader reader = new Snapshot.Reader(file);
+        try {
+            reader.accept(new Snapshot.Visitor() {
+                @Override
+                public void vocabulary(long id, String name, String table, String locale) {
+                    bh.consume(name);
+                }
+
+                @Override
+                public void word(long id, String word, String meanings) {
+                    bh.consume(word);
+                    bh.consume(meanings);
+                }
+
+                @Override
+                public void review(int ease, int interval, int repetitions, long due) {
+                    bh.consume(due);
+                }
+            });
+        } finally {
+            reader.close();
+        }
+    }
+}
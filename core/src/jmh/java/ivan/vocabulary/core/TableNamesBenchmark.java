@@ -0,0 +1,35 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Deriving table names from vocabulary names.
+ */
+@State(Scope.Benchmark)
+public class TableNamesBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int names;
+
+    private String[] vocabNames;
+
+    @Setup
+    public void setup(){
+        vocabNames = new Corpus(names).vocabNames;
+    }
+
+    @Benchmark
+    public void sanitize(Blackhole bh){
+        for (String name : vocabNames) {
+            bh.consume(TableNames.sanitize(name));
+        }
+    }
+}
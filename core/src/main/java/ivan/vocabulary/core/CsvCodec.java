@@ -0,0 +1,164 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CsvCodec class encodes and decodes "word,meanings" rows according to RFC 4180: fields containing commas,
+ * quotes or line breaks are quoted, quotes are doubled and rows end with CRLF. Each meaning is a field of its own.
+ */
+public final class CsvCodec {
+
+    private CsvCodec(){}
+
+
+    /**
+     * Writes a single row: the word followed by one field per meaning, so a meaning may contain a comma.
+     * A single meaning with a comma is followed by an empty field, otherwise the row would be read back as
+     * a "word,meanings" row with comma separated meanings, see ImportParser.parseRow().
+     * @param writer (Writer) - destination
+     * @param word (String) - word
+     * @param meanings (List<String>) - meanings, can be empty
+     * @throws IOException on write failure
+     */
+    public static void writeRow(Writer writer, String word, List<String> meanings) throws IOException {
+        writeField(writer, word);
+        writer.write(',');
+        for (int i = 0; i < meanings.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeField(writer, meanings.get(i));
+        }
+        if (meanings.size() == 1 && meanings.get(0).indexOf(',') >= 0) {
+            writer.write(',');
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Writes a single field, quoting it only when it contains a comma, a quote or a line break.
+     * @param writer (Writer) - destination
+     * @param field (String) - field value, null is written as an empty field
+     * @throws IOException on write failure
+     */
+    public static void writeField(Writer writer, String field) throws IOException {
+        if (field == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0, l = field.length(); i < l && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0, l = field.length(); i < l; i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                writer.write('"'); // Escape quote by doubling it
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Splits a row into fields according to RFC 4180.
+     * @param row (String) - a row, possibly spanning several lines joined with line breaks
+     * @return (List<String>) fields or null if the row ends inside a quoted field and needs more lines
+     */
+    public static List<String> decodeRow(String row){
+        RowDecoder decoder = new RowDecoder();
+        return decoder.feed(row) ? decoder.take() : null;
+    }
+
+
+    /**
+     * Incremental RFC 4180 decoder: a row is fed line by line, so a quoted field spanning several lines
+     * is decoded in a single pass instead of decoding the joined text again for every line.
+     */
+    public static final class RowDecoder {
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private boolean quoted = false;
+        private int lines = 0;
+
+        /**
+         * Decodes the next line of the row.
+         * @param line (String) - a line without its line break
+         * @return (boolean) true if the row is complete, false if it ends inside a quoted field and needs more lines
+         */
+        public boolean feed(String line){
+            int i = 0, l = line.length();
+            while (i < l) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < l && line.charAt(i + 1) == '"') { // Escaped quote
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c != '\r') {
+                    field.append(c);
+                }
+                i++;
+            }
+            lines++;
+            if (quoted) {
+                field.append('\n'); // The line break belongs to the quoted field
+                return false;
+            }
+            fields.add(field.toString());
+            field.setLength(0);
+            return true;
+        }
+
+        /**
+         * Returns the number of lines fed since the row started.
+         * @return (int) lines
+         */
+        public int getLines() {
+            return lines;
+        }
+
+        /**
+         * Returns the fields of the complete row and starts a new one.
+         * @return (List<String>) fields
+         */
+        public List<String> take(){
+            List<String> row = new ArrayList<>(fields);
+            reset();
+            return row;
+        }
+
+        /**
+         * Drops the row fed so far, e.g. when a quoted field is never closed.
+         */
+        public void reset(){
+            fields.clear();
+            field.setLength(0);
+            quoted = false;
+            lines = 0;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ImportParser class reads "word,meanings" rows (plain or RFC 4180 quoted) one at a time from a .csv stream.
+ * A quoted field may span several lines, up to MAX_ROW_LINES. Blank lines are skipped.
+ * A quote that is never closed doesn't swallow the rest of the file: its line is read as a plain row, the lines after it
+ * are parsed again and the line number is kept, see getMalformedRows() and getFirstMalformedLine().
+ */
+public class ImportParser {
+    public static final int MAX_ROW_LINES = 100;
+    private final BufferedReader reader;
+    private final CsvCodec.RowDecoder decoder = new CsvCodec.RowDecoder();
+    private final List<String> held = new ArrayList<>(); // Lines of the row being decoded
+    private final ArrayDeque<String> replay = new ArrayDeque<>(); // Lines to parse again after an unclosed quote
+    private int lineNumber = 0; // Lines consumed so far
+    private int malformedRows = 0;
+    private int firstMalformedLine = 0;
+
+
+    /**
+     * A parsed row.
+     */
+    public static class Row {
+        public final String word;
+        public final List<String> meanings; // Normalized, null if the row has no meanings field
+
+        Row(String word, List<String> meanings){
+            this.word = word;
+            this.meanings = meanings;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param reader (Reader) - .csv data, buffered by the parser
+     */
+    public ImportParser(Reader reader){
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Reads the next row.
+     * @return (Row) parsed row or null at the end of the data
+     * @throws IOException on read failure
+     */
+    public Row next() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            held.add(line);
+            if (!decoder.feed(line)) {
+                if (decoder.getLines() > MAX_ROW_LINES) {
+                    return recover();
+                }
+                continue;
+            }
+            held.clear();
+            Row row = parseRow(decoder.take());
+            if (row != null) {
+                return row;
+            }
+        }
+        return held.isEmpty() ? null : recover(); // A quoted field left open at the end of the data
+    }
+
+    /**
+     * Returns the number of rows whose quoted field was never closed.
+     * @return (int) malformed rows, 0 if the data was well-formed
+     */
+    public int getMalformedRows() {
+        return malformedRows;
+    }
+
+    /**
+     * Returns the line number of the first row whose quoted field was never closed.
+     * @return (int) 1-based line number, 0 if there is none
+     */
+    public int getFirstMalformedLine() {
+        return firstMalformedLine;
+    }
+
+
+    /**
+     * Helper function to read the next line, the lines to parse again first.
+     */
+    private String readLine() throws IOException {
+        String line = replay.pollFirst();
+        if (line == null) {
+            line = reader.readLine();
+        }
+        if (line != null) {
+            lineNumber++;
+        }
+        return line;
+    }
+
+    /**
+     * Helper function to handle a quoted field that isn't closed: the line that opened it is read as a plain row,
+     * split at the first comma with the quotes kept, and the lines held after it are parsed again.
+     */
+    private Row recover() throws IOException {
+        String first = held.get(0);
+        for (int i = held.size() - 1; i > 0; i--) {
+            replay.addFirst(held.get(i));
+        }
+        lineNumber -= held.size() - 1;
+        held.clear();
+        decoder.reset();
+        malformedRows++;
+        if (firstMalformedLine == 0) {
+            firstMalformedLine = lineNumber;
+        }
+        Row row = parseRow(Arrays.asList(first.split(",", 2)));
+        return row != null ? row : next();
+    }
+
+
+    /**
+     * Parses a single "word,meanings" line.
+     * @param line (String) - a line of the file
+     * @return (Row) parsed row or null if the line is blank or ends inside a quoted field
+     */
+    public static Row parseLine(String line){
+        List<String> fields = CsvCodec.decodeRow(line);
+        return fields == null ? null : parseRow(fields);
+    }
+
+    /**
+     * Builds a row from decoded fields. The first field is the word. A row with two fields is a "word,meanings" row,
+     * its meanings are separated by commas. In a longer row every field is a meaning, so a quoted meaning
+     * may contain a comma, see CsvCodec.writeRow(). For unquoted rows both match split(",", 2).
+     * @param fields (List<String>) - decoded fields of a row
+     * @return (Row) parsed row or null if the row is blank
+     */
+    public static Row parseRow(List<String> fields){
+        String word = fields.get(0);
+        if (fields.size() == 1) {
+            return word.trim().isEmpty() ? null : new Row(word, null);
+        }
+        if (fields.size() == 2) {
+            return new Row(word, Meanings.parse(fields.get(1)));
+        }
+        return new Row(word, Meanings.verify(fields.subList(1, fields.size())));
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies. Values are counted in log-linear buckets of microseconds:
+ * exact below 16 us, then 8 buckets per power of two, so a percentile is off by at most 12.5%.
+ * Recording is a handful of atomic increments and never blocks, any thread can record while another reads.
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR = 16; // Values below are counted exactly
+    private static final int SUB_BUCKETS = 8; // Buckets per power of two above LINEAR
+    private static final int SUB_BITS = 3;
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+
+    /**
+     * Records one call.
+     * @param nanos (long) - duration of the call
+     * @param rowCount (long) - number of rows the call read or wrote
+     */
+    public void record(long nanos, long rowCount){
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos / 1000));
+        count.incrementAndGet();
+        rows.addAndGet(rowCount);
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Clears all the counters. Calls recorded at the same time may be partly lost.
+     */
+    public void reset(){
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        rows.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     * Returns a consistent-enough copy of the counters to compute percentiles from.
+     * @return (Snapshot) snapshot
+     */
+    public Snapshot snapshot(){
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, rows.get(), totalNanos.get(), maxNanos.get());
+    }
+
+    /**
+     * Helper function to find the bucket of a value.
+     * @param micros (long) value
+     * @return (int) bucket index
+     */
+    static int bucket(long micros){
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros); // >= 4
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Helper function to find the highest value counted by a bucket.
+     * @param bucket (int) bucket index
+     * @return (long) value in microseconds
+     */
+    static long upperBound(int bucket){
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+
+    /**
+     * Immutable view of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long rows;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] buckets, long count, long rows, long totalNanos, long maxNanos){
+            this.buckets = buckets;
+            this.count = count;
+            this.rows = rows;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMeanMicros() {
+            return count == 0 ? 0 : totalNanos / count / 1000;
+        }
+
+        public long getMaxMicros() {
+            return maxNanos / 1000;
+        }
+
+        /**
+         * Returns a percentile of the recorded latencies, as the upper bound of the bucket it falls in
+         * (capped by the max).
+         * @param percentile (double) - 0 to 100
+         * @return (long) latency in microseconds
+         */
+        public long percentileMicros(double percentile){
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), getMaxMicros());
+                }
+            }
+            return getMaxMicros();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Meanings class normalizes the meanings of a word and converts them between their forms:
+ * the comma separated text typed by the user or found in a .csv file, the list kept by a word,
+ * and the stored form, where the meanings are joined by SEPARATOR so a meaning may contain a comma.
+ */
+public final class Meanings {
+    public static final char SEPARATOR = '\u001F'; // ASCII unit separator, never typed by the user and a token break for FTS
+    public static final List<String> NONE = Collections.emptyList();
+
+    private Meanings(){}
+
+
+    /**
+     * Splits user input on comas into a list of trimmed, non-empty meanings.
+     * @param text (String) input, can be null
+     * @return (List<String>) meanings
+     */
+    public static List<String> parse(String text){
+        List<String> result = new ArrayList<>();
+        if (text == null) {
+            return result;
+        }
+        int start = 0;
+        int length = text.length();
+        while (start <= length) {
+            int end = text.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            addTrimmed(result, text, start, end);
+            start = end + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Turns the stored form back into a list.
+     * @param stored (String) meanings in the stored form, can be null
+     * @return (List<String>) unmodifiable list of meanings
+     */
+    public static List<String> decode(String stored){
+        if (stored == null || stored.isEmpty()) {
+            return NONE;
+        }
+        if (stored.indexOf(SEPARATOR) < 0) {
+            return Collections.singletonList(stored);
+        }
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        int length = stored.length();
+        while (start <= length) {
+            int end = stored.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = length;
+            }
+            result.add(stored.substring(start, end));
+            start = end + 1;
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Joins meanings into the stored form.
+     * @param meanings (List<String>) meanings, already verified
+     * @return (String) stored form, empty if there are no meanings
+     */
+    public static String encode(List<String> meanings){
+        return join(meanings, SEPARATOR);
+    }
+
+    /**
+     * Turns the stored form into comma separated text, e.g. for a .csv file.
+     * @param stored (String) meanings in the stored form, can be null
+     * @return (String) text or null
+     */
+    public static String toText(String stored){
+        return stored == null ? null : stored.replace(SEPARATOR, ',');
+    }
+
+    /**
+     * Verifies each meaning entry: meanings are trimmed and empty ones are dropped.
+     * @param meanings (List<String>) input
+     * @return (List<String>) output
+     */
+    public static List<String> verify(List<String> meanings){
+        List<String> result = new ArrayList<>(meanings.size());
+        for (String m : meanings) {
+            if (m != null) {
+                addTrimmed(result, m.replace(SEPARATOR, ' '), 0, m.length());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges two lists of meanings: the first one followed by the meanings of the second one it doesn't have yet.
+     * @param meanings (List<String>) meanings, already verified
+     * @param added (List<String>) meanings to add, already verified
+     * @return (List<String>) merged meanings, the first list itself if nothing was added
+     */
+    public static List<String> merge(List<String> meanings, List<String> added){
+        List<String> result = null;
+        for (String m : added) {
+            if (!meanings.contains(m) && (result == null || !result.contains(m))) {
+                if (result == null) {
+                    result = new ArrayList<>(meanings);
+                }
+                result.add(m);
+            }
+        }
+        return result == null ? meanings : result;
+    }
+
+    /**
+     * Returns the meanings as an array.
+     * @param meanings (List<String>) meanings
+     * @return (String[]) array of meanings or null if there are none
+     */
+    public static String[] toArray(List<String> meanings){
+        return meanings.isEmpty() ? null : meanings.toArray(new String[meanings.size()]);
+    }
+
+    /**
+     * Joins meanings with a separator.
+     * @param meanings (List<String>) meanings
+     * @param separator (char) separator
+     * @return (String) joined meanings
+     */
+    public static String join(List<String> meanings, char separator){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < meanings.size(); i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(meanings.get(i));
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Adds text[start, end) to the list, trimmed, unless it is blank.
+     */
+    private static void addTrimmed(List<String> list, String text, int start, int end){
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start < end) {
+            list.add(text.substring(start, end));
+        }
+    }
+}
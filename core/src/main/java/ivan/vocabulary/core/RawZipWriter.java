@@ -0,0 +1,284 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The RawZipWriter class writes a ZIP archive out of entries that were compressed beforehand, possibly on several
+ * threads at once. java.util.zip.ZipOutputStream compresses every entry itself on the writing thread, which makes
+ * the compression serial; here each entry is deflated into a StagedEntry by its own thread and the writer only copies
+ * the compressed bytes. No ZIP64: entries and the archive must stay below 4 GB, and there can be at most 65535 entries.
+ */
+public final class RawZipWriter implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int VERSION = 20; // 2.0, deflate
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int METHOD_DEFLATED = 8;
+    private final OutputStream out;
+    private final List<Central> entries = new ArrayList<>();
+    private long offset = 0;
+    private boolean finished = false;
+
+
+    /**
+     * Constructor
+     * @param out (OutputStream) - destination of the archive, should be buffered
+     */
+    public RawZipWriter(OutputStream out){
+        this.out = out;
+    }
+
+    /**
+     * Copies a staged entry into the archive. The staged file is left in place, see StagedEntry.delete().
+     * @param entry (StagedEntry) - closed staged entry
+     * @throws IOException if the entry can't be read or the archive written, or a limit of the format is exceeded
+     */
+    public void put(StagedEntry entry) throws IOException {
+        if (!entry.closed) {
+            throw new IllegalStateException("Entry " + entry.name + " isn't closed");
+        }
+        if (entries.size() == MAX_ENTRIES || entry.size > MAX_SIZE || entry.compressedSize > MAX_SIZE || offset > MAX_SIZE) {
+            throw new IOException("Archive is too big");
+        }
+        byte[] name = entry.name.getBytes(UTF_8);
+        Central central = new Central(name, entry.crc, entry.compressedSize, entry.size, dosTime(entry.time), offset);
+        // Local file header
+        writeInt(0x04034b50);
+        writeShort(VERSION);
+        writeShort(FLAG_UTF8);
+        writeShort(METHOD_DEFLATED);
+        writeInt(central.dosTime);
+        writeInt((int) central.crc);
+        writeInt((int) central.compressedSize);
+        writeInt((int) central.size);
+        writeShort(name.length);
+        writeShort(0); // Extra field
+        write(name, name.length);
+        // Data
+        InputStream in = new FileInputStream(entry.file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                write(buffer, read);
+            }
+        } finally {
+            in.close();
+        }
+        entries.add(central);
+    }
+
+    /**
+     * Writes the central directory. No entries can be added afterwards.
+     * @throws IOException if the archive can't be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long start = offset;
+        for (Central c : entries) {
+            writeInt(0x02014b50);
+            writeShort(VERSION); // Made by
+            writeShort(VERSION); // Needed to extract
+            writeShort(FLAG_UTF8);
+            writeShort(METHOD_DEFLATED);
+            writeInt(c.dosTime);
+            writeInt((int) c.crc);
+            writeInt((int) c.compressedSize);
+            writeInt((int) c.size);
+            writeShort(c.name.length);
+            writeShort(0); // Extra field
+            writeShort(0); // Comment
+            writeShort(0); // Disk number
+            writeShort(0); // Internal attributes
+            writeInt(0); // External attributes
+            writeInt((int) c.offset);
+            write(c.name, c.name.length);
+        }
+        long directorySize = offset - start;
+        if (offset > MAX_SIZE) {
+            throw new IOException("Archive is too big");
+        }
+        writeInt(0x06054b50);
+        writeShort(0); // Disk number
+        writeShort(0); // Disk with the central directory
+        writeShort(entries.size());
+        writeShort(entries.size());
+        writeInt((int) directorySize);
+        writeInt((int) start);
+        writeShort(0); // Comment
+        out.flush();
+    }
+
+    /**
+     * Finishes the archive and closes the stream.
+     * @throws IOException if the archive can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void write(byte[] b, int length) throws IOException {
+        out.write(b, 0, length);
+        offset += length;
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        offset += 2;
+    }
+
+    private void writeInt(int v) throws IOException {
+        writeShort(v & 0xffff);
+        writeShort((v >>> 16) & 0xffff);
+    }
+
+    /**
+     * Helper function to convert a time into the MS-DOS format of ZIP headers: date in the high, time in the low half.
+     */
+    private static int dosTime(long time){
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01
+        }
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+
+
+    /**
+     * Central directory record of a written entry.
+     */
+    private static final class Central {
+        final byte[] name;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final int dosTime;
+        final long offset;
+
+        Central(byte[] name, long crc, long compressedSize, long size, int dosTime, long offset){
+            this.name = name;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dosTime = dosTime;
+            this.offset = offset;
+        }
+    }
+
+
+    /**
+     * One archive entry being compressed into a file. Write the content and close it, then add it with put().
+     * Each staged entry is meant to be written by a single thread, different entries can be written in parallel.
+     */
+    public static final class StagedEntry extends OutputStream {
+        private final String name;
+        private final File file;
+        private final long time = System.currentTimeMillis();
+        private final Deflater deflater;
+        private final DeflaterOutputStream out;
+        private final CRC32 crc32 = new CRC32();
+        private long crc;
+        private long size = 0;
+        private long compressedSize = 0;
+        private boolean closed = false;
+
+        /**
+         * Constructor
+         * @param name (String) - name of the entry in the archive
+         * @param file (File) - file to keep the compressed data in, e.g. a temporary file
+         * @param level (int) - compression level, see Deflater
+         * @throws IOException if the file can't be created
+         */
+        public StagedEntry(String name, File file, int level) throws IOException {
+            this.name = name;
+            this.file = file;
+            this.deflater = new Deflater(level, true); // Raw deflate data, as stored in ZIP archives
+            this.out = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024), deflater, 64 * 1024);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            crc32.update(b);
+            size++;
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            crc32.update(b, off, len);
+            size += len;
+            out.write(b, off, len);
+        }
+
+        /**
+         * Finishes the compression. Safe to call more than once.
+         * @throws IOException if the file can't be written
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                out.finish();
+                out.close();
+            } finally {
+                deflater.end();
+            }
+            crc = crc32.getValue();
+            compressedSize = file.length();
+            closed = true;
+        }
+
+        /**
+         * Closes the entry if needed and removes its file.
+         */
+        public void delete(){
+            try {
+                close();
+            } catch (IOException e) {
+                // The file goes anyway
+            }
+            file.delete();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+/**
+ * The ReviewScheduler class schedules the reviews of a word with the SM-2 algorithm of SuperMemo. Every answer is
+ * graded from 0 (blackout) to 5 (perfect). A passing grade (3 and up) moves the next review further away: one day,
+ * six days, then the previous interval times the ease of the word. The ease goes down with hard answers and up with
+ * easy ones, never below MIN_EASE. A failed word starts over with the same ease and comes back in the same session,
+ * after RELEARN_DELAY. The ease is kept in thousandths, so the state fits into integer columns.
+ */
+public final class ReviewScheduler {
+    public static final int MIN_EASE = 1300;
+    public static final int DEFAULT_EASE = 2500;
+    public static final int MAX_INTERVAL = 36500; // Days, keeps the due time far from overflowing
+    public static final int PASSING_GRADE = 3;
+    public static final long DAY = 24 * 60 * 60 * 1000L;
+    public static final long RELEARN_DELAY = 10 * 60 * 1000L; // A failed word is shown again after 10 minutes
+
+    private ReviewScheduler(){}
+
+
+    /**
+     * Review state of a word. Immutable.
+     */
+    public static final class State {
+        public final int ease;        // Thousandths, 2500 is 2.5
+        public final int interval;    // Days until the next review after a passing one
+        public final int repetitions; // Passing reviews in a row
+        public final long due;        // Time of the next review, ms since the epoch
+
+        public State(int ease, int interval, int repetitions, long due){
+            this.ease = ease;
+            this.interval = interval;
+            this.repetitions = repetitions;
+            this.due = due;
+        }
+
+        /**
+         * Returns the state of a word that was never reviewed.
+         * @param due (long) - time the word becomes due, e.g. when it was added
+         * @return (State) state
+         */
+        public static State create(long due){
+            return new State(DEFAULT_EASE, 0, 0, due);
+        }
+    }
+
+
+    /**
+     * Computes the state of a word after an answer. Constant time, no allocation beyond the result.
+     * @param state (State) - state before the answer
+     * @param grade (int) - grade of the answer, 0 to 5
+     * @param now (long) - time of the answer, ms since the epoch
+     * @return (State) state after the answer
+     */
+    public static State review(State state, int grade, long now){
+        if (grade < 0 || grade > 5) {
+            throw new IllegalArgumentException("Grade must be 0 to 5: " + grade);
+        }
+        if (grade < PASSING_GRADE) {
+            return new State(state.ease, 1, 0, now + RELEARN_DELAY);
+        }
+        int interval;
+        if (state.repetitions == 0) {
+            interval = 1;
+        } else if (state.repetitions == 1) {
+            interval = 6;
+        } else {
+            interval = (int) Math.min(MAX_INTERVAL, Math.round((double) state.interval * state.ease / 1000));
+        }
+        int miss = 5 - grade;
+        int ease = Math.max(MIN_EASE, state.ease + 100 - miss * (80 + miss * 20)); // EF' = EF + 0.1 - (5-q) * (0.08 + (5-q) * 0.02)
+        return new State(ease, interval, state.repetitions + 1, now + interval * DAY);
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * The SectionIndex class maps the first letters of a sorted list of words to positions in the list, e.g. to drive
+ * a fast scroller. Letters that differ only in case or accents ("e", "E", "é") share a section, as they are
+ * interleaved by the collation order (see SortKeys). Words that don't start with a letter go into OTHER sections.
+ * The index is built from the groups of a single grouped query, in the order of the list, and then kept up to date
+ * word by word. Every section remembers the smallest sort key it had, so a list can be opened at a section with
+ * a keyset query instead of counting the rows in front of it. Not thread-safe.
+ */
+public final class SectionIndex {
+    public static final String OTHER = "#";
+    private final Locale locale;
+    private final Collator collator;
+    private final SortKeys keys;
+    private final ArrayList<Section> sections = new ArrayList<>();
+    private int[] starts = null; // Position of every section, computed when needed
+
+    private static final class Section {
+        final String label;
+        int count;
+        byte[] firstKey; // Smallest sort key seen in the section, it may belong to a word that is gone by now
+
+        Section(String label, int count, byte[] firstKey){
+            this.label = label;
+            this.count = count;
+            this.firstKey = firstKey;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param locale (String) - BCP 47 language tag the words are sorted by, null or empty for the root locale
+     */
+    public SectionIndex(String locale){
+        this.keys = new SortKeys(locale);
+        this.locale = this.keys.getLocale().isEmpty() ? Locale.ROOT : Locale.forLanguageTag(this.keys.getLocale());
+        collator = Collator.getInstance(this.locale);
+        collator.setStrength(Collator.PRIMARY); // Case and accents don't start a new section
+    }
+
+    /**
+     * Adds a group of words that start with the same character. Groups must come in the order of their smallest
+     * sort key; groups of the same section are merged.
+     * @param first (String) - first character of the words, null for null words
+     * @param count (int) - number of words
+     * @param firstKey (byte[]) - smallest sort key in the group
+     */
+    public void addGroup(String first, int count, byte[] firstKey){
+        String label = labelOf(first);
+        Section last = sections.isEmpty() ? null : sections.get(sections.size() - 1);
+        if (last != null && sameSection(last.label, label)) {
+            last.count += count;
+        } else {
+            sections.add(new Section(label, count, firstKey));
+        }
+        starts = null;
+    }
+
+    /**
+     * Counts a word added to the list.
+     * @param word (String) - the word
+     */
+    public void add(String word){
+        String label = labelOf(word);
+        byte[] key = keys.key(word);
+        int index = find(label);
+        if (index >= 0) {
+            Section section = sections.get(index);
+            section.count++;
+            if (SortKeys.compare(key, section.firstKey) < 0) {
+                section.firstKey = key;
+            }
+        } else {
+            index = 0;
+            while (index < sections.size() && SortKeys.compare(sections.get(index).firstKey, key) <= 0) {
+                index++;
+            }
+            sections.add(index, new Section(label, 1, key));
+        }
+        starts = null;
+    }
+
+    /**
+     * Counts a word removed from the list. A section is dropped with its last word.
+     * @param word (String) - the word
+     */
+    public void remove(String word){
+        int index = find(labelOf(word));
+        if (index >= 0 && --sections.get(index).count <= 0) {
+            sections.remove(index);
+        }
+        starts = null;
+    }
+
+    /**
+     * Returns the labels of the sections in the order of the list.
+     * @return (String[]) labels, e.g. "A", "B", ...
+     */
+    public String[] getSections(){
+        String[] labels = new String[sections.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = sections.get(i).label;
+        }
+        return labels;
+    }
+
+    /**
+     * Returns the number of sections.
+     * @return (int) number of sections
+     */
+    public int size(){
+        return sections.size();
+    }
+
+    /**
+     * Returns the position of the first word of a section.
+     * @param section (int) - section, clamped to the existing ones
+     * @return (int) position, 0 if there are no sections
+     */
+    public int getPositionForSection(int section){
+        if (sections.isEmpty()) {
+            return 0;
+        }
+        return starts()[Math.max(0, Math.min(section, sections.size() - 1))];
+    }
+
+    /**
+     * Returns the section a position belongs to.
+     * @param position (int) - position in the list
+     * @return (int) section, 0 if there are no sections
+     */
+    public int getSectionForPosition(int position){
+        int[] starts = starts();
+        int low = 0, high = starts.length - 1; // Last section that starts at or before the position
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(low, 0);
+    }
+
+    /**
+     * Returns a sort key no greater than the key of the first word of a section and greater than the keys of the
+     * words of the sections before it, so a keyset query from it starts at the section.
+     * @param section (int) - section
+     * @return (byte[]) sort key
+     */
+    public byte[] getKeyForSection(int section){
+        return sections.get(section).firstKey;
+    }
+
+
+    /**
+     * Returns the positions of the sections, computing them once after every change.
+     */
+    private int[] starts(){
+        if (starts == null) {
+            starts = new int[sections.size()];
+            int position = 0;
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = position;
+                position += sections.get(i).count;
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Returns the index of the section with a label or -1. There are a few dozen sections at most.
+     */
+    private int find(String label){
+        for (int i = 0; i < sections.size(); i++) {
+            if (sameSection(sections.get(i).label, label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameSection(String a, String b){
+        return a.equals(b) || (!a.equals(OTHER) && !b.equals(OTHER) && collator.compare(a, b) == 0);
+    }
+
+    /**
+     * Returns the label of the section of a word: its first letter in upper case without accents, or OTHER.
+     * Accents are kept where the language has a letter of its own, e.g. "Ñ" in Spanish.
+     */
+    private String labelOf(String word){
+        if (word == null || word.isEmpty()) {
+            return OTHER;
+        }
+        int first = word.codePointAt(0);
+        if (!Character.isLetter(first)) {
+            return OTHER;
+        }
+        String letter = new String(Character.toChars(first)).toUpperCase(locale);
+        String base = Normalizer.normalize(letter, Normalizer.Form.NFD).substring(0, 1);
+        return !base.equals(letter) && collator.compare(base, letter) == 0 ? base : letter;
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * The Snapshot class defines a compact binary file holding all the vocabularies with their words, ids included,
+ * for full backups. The file is a sequence of length-prefixed records:
+ *   header    "VSNP", int version
+ *   record    byte VOCABULARY, long id, string name, string table, string locale
+ *   record    byte WORD, long id, string word, string meanings - the word belongs to the last vocabulary
+ *   record    byte REVIEW, int ease, int interval, int repetitions, long due - review state of the last word, optional
+ *   trailer   byte END, int vocabularies, int words, long CRC32 of all the preceding bytes
+ * Numbers are big-endian; a string is an int number of UTF-8 bytes followed by the bytes, -1 for null.
+ * Version 1 has no locales and no REVIEW records; it is still read, its vocabularies have a null locale and its words
+ * no review state.
+ * The writer goes through a FileChannel with a large buffer, the reader maps the whole file into memory.
+ */
+public final class Snapshot {
+    public static final int VERSION = 2;
+    private static final int MIN_VERSION = 1; // Oldest version the reader accepts
+    private static final int MAGIC = 0x56534E50; // "VSNP"
+    private static final byte VOCABULARY = 1, WORD = 2, REVIEW = 3, END = 0;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 1 + 4 + 4 + 8;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Snapshot(){}
+
+
+    /**
+     * Receives the content of a snapshot, vocabulary by vocabulary. Words follow the vocabulary they belong to.
+     */
+    public interface Visitor {
+        /**
+         * A vocabulary, followed by its words.
+         * @param locale (String) - BCP 47 language tag its words are sorted by, "" for the root locale, null if unknown
+         */
+        void vocabulary(long id, String name, String table, String locale) throws IOException;
+
+        void word(long id, String word, String meanings) throws IOException;
+
+        /**
+         * Review state of the word visited last, see ReviewScheduler.State. Not called for words without one.
+         */
+        void review(int ease, int interval, int repetitions, long due) throws IOException;
+    }
+
+
+    /**
+     * Writes a snapshot file. Visit the vocabularies and their words, then close it to write the trailer.
+     * A snapshot that wasn't closed has no trailer and is rejected by the reader.
+     */
+    public static final class Writer implements Visitor, Closeable {
+        private final FileOutputStream file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE); // Heap buffer: CRC32 can't read direct ones before Java 8
+        private final CRC32 crc = new CRC32();
+        private int vocabularies = 0;
+        private int words = 0;
+        private boolean reviewable = false; // The last record is a word without a review state
+        private boolean closed = false;
+
+        /**
+         * Constructor
+         * @param file (File) - destination, overwritten
+         * @throws IOException if the file can't be created
+         */
+        public Writer(File file) throws IOException {
+            this.file = new FileOutputStream(file);
+            this.channel = this.file.getChannel();
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        @Override
+        public void vocabulary(long id, String name, String table, String locale) throws IOException {
+            ensure(1 + 8);
+            buffer.put(VOCABULARY).putLong(id);
+            putString(name);
+            putString(table);
+            putString(locale);
+            vocabularies++;
+            reviewable = false;
+        }
+
+        @Override
+        public void word(long id, String word, String meanings) throws IOException {
+            if (vocabularies == 0) {
+                throw new IllegalStateException("A word must follow its vocabulary");
+            }
+            ensure(1 + 8);
+            buffer.put(WORD).putLong(id);
+            putString(word);
+            putString(meanings);
+            words++;
+            reviewable = true;
+        }
+
+        @Override
+        public void review(int ease, int interval, int repetitions, long due) throws IOException {
+            if (!reviewable) {
+                throw new IllegalStateException("A review state must follow its word");
+            }
+            ensure(1 + 4 + 4 + 4 + 8);
+            buffer.put(REVIEW).putInt(ease).putInt(interval).putInt(repetitions).putLong(due);
+            reviewable = false;
+        }
+
+        public int getWordCount() {
+            return words;
+        }
+
+        /**
+         * Writes the trailer, forces the file to the disk and closes it.
+         * @throws IOException if the file can't be written
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                ensure(TRAILER_SIZE);
+                buffer.put(END).putInt(vocabularies).putInt(words);
+                crc.update(buffer.array(), 0, buffer.position());
+                buffer.putLong(crc.getValue());
+                drain();
+                channel.force(false);
+            } finally {
+                file.close();
+            }
+        }
+
+        private void putString(String s) throws IOException {
+            if (s == null) {
+                ensure(4);
+                buffer.putInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(UTF_8);
+            ensure(4);
+            buffer.putInt(bytes.length);
+            if (bytes.length <= buffer.capacity()) {
+                ensure(bytes.length);
+                buffer.put(bytes);
+            } else { // Bigger than the buffer, written straight away
+                flush();
+                crc.update(bytes, 0, bytes.length);
+                write(ByteBuffer.wrap(bytes));
+            }
+        }
+
+        /**
+         * Helper function to make room for a number of bytes, writing the buffer out if needed.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            crc.update(buffer.array(), 0, buffer.position());
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+        }
+    }
+
+
+    /**
+     * Reads a snapshot file through a memory mapping. The whole file is verified when it's opened,
+     * so a damaged snapshot is rejected before anything is visited.
+     */
+    public static final class Reader implements Closeable {
+        private final FileInputStream file;
+        private final MappedByteBuffer map;
+        private final int version;
+        private final int vocabularies;
+        private final int words;
+        private byte[] bytes = new byte[256]; // Reused for decoding strings
+
+        /**
+         * Opens, maps and verifies a snapshot.
+         * @param file (File) - snapshot file
+         * @throws IOException if the file can't be read or isn't a valid snapshot
+         */
+        public Reader(File file) throws IOException {
+            this.file = new FileInputStream(file);
+            try {
+                FileChannel channel = this.file.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot is too big to be mapped");
+                }
+                if (size < HEADER_SIZE + TRAILER_SIZE) {
+                    throw new IOException("Not a snapshot");
+                }
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                map.order(ByteOrder.BIG_ENDIAN);
+                if (map.getInt(0) != MAGIC) {
+                    throw new IOException("Not a snapshot");
+                }
+                version = map.getInt(4);
+                if (version < MIN_VERSION || version > VERSION) {
+                    throw new IOException("Unsupported snapshot version " + version);
+                }
+                int trailer = (int) size - TRAILER_SIZE;
+                if (map.get(trailer) != END || map.getLong((int) size - 8) != checksum(map, (int) size - 8)) {
+                    throw new IOException("Snapshot is damaged");
+                }
+                vocabularies = map.getInt(trailer + 1);
+                words = map.getInt(trailer + 5);
+            } catch (IOException e) {
+                this.file.close();
+                throw e;
+            }
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getVocabularyCount() {
+            return vocabularies;
+        }
+
+        public int getWordCount() {
+            return words;
+        }
+
+        /**
+         * Visits the content of the snapshot in the order it was written.
+         * @param visitor (Visitor) - receives the vocabularies and the words
+         * @throws IOException if the content doesn't match the trailer, or the visitor fails
+         */
+        public void accept(Visitor visitor) throws IOException {
+            ByteBuffer in = map.duplicate(); // Own position, so the snapshot can be visited again
+            in.position(HEADER_SIZE);
+            int v = 0;
+            int w = 0;
+            boolean reviewable = false;
+            try {
+                while (true) {
+                    byte tag = in.get();
+                    if (tag == VOCABULARY) {
+                        long id = in.getLong();
+                        visitor.vocabulary(id, getString(in), getString(in), version >= 2 ? getString(in) : null);
+                        v++;
+                        reviewable = false;
+                    } else if (tag == WORD && v > 0) {
+                        long id = in.getLong();
+                        visitor.word(id, getString(in), getString(in));
+                        w++;
+                        reviewable = version >= 2;
+                    } else if (tag == REVIEW && reviewable) {
+                        visitor.review(in.getInt(), in.getInt(), in.getInt(), in.getLong());
+                        reviewable = false;
+                    } else if (tag == END) {
+                        break;
+                    } else {
+                        throw new IOException("Snapshot is damaged");
+                    }
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Snapshot is damaged", e);
+            }
+            if (v != vocabularies || w != words || in.position() != map.limit() - TRAILER_SIZE + 1) {
+                throw new IOException("Snapshot is damaged");
+            }
+        }
+
+        /**
+         * Releases the file. The mapping itself goes away once it's garbage collected.
+         * @throws IOException if the file can't be closed
+         */
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+        private String getString(ByteBuffer in) throws IOException {
+            int length = in.getInt();
+            if (length == -1) {
+                return null;
+            }
+            if (length < 0 || length > in.remaining()) {
+                throw new IOException("Snapshot is damaged");
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.get(bytes, 0, length);
+            return new String(bytes, 0, length, UTF_8);
+        }
+
+        /**
+         * Helper function to compute the CRC32 of the first bytes of a buffer, a chunk at a time.
+         */
+        private static long checksum(ByteBuffer map, int length){
+            ByteBuffer in = map.duplicate();
+            in.position(0);
+            CRC32 crc = new CRC32();
+            byte[] chunk = new byte[64 * 1024];
+            for (int left = length; left > 0; ) {
+                int n = Math.min(left, chunk.length);
+                in.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+                left -= n;
+            }
+            return crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.text.Collator;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * The SortKeys class computes locale-aware collation keys of words, so words can be sorted alphabetically by comparing
+ * bytes, e.g. by an index over a BLOB column. Keys are made by java.text.Collator (ICU on Android) at tertiary
+ * strength: "miércoles" sorts between "miel" and "mijo", and case and accents only decide between otherwise equal words.
+ * Keys of different locales can't be compared with each other, and neither can keys made by different versions of the
+ * collation data, e.g. before and after an OS update; see getVersion().
+ */
+public final class SortKeys {
+    // Version of the ICU data of the device, the Java version off Android
+    private static final String RUNTIME_VERSION = System.getProperty("android.icu.library.version", System.getProperty("java.version", ""));
+    // Words whose keys tell collation data apart: accents, case, contractions, expansions and a few scripts
+    private static final String[] PROBES = {"a", "A", "\u00e1", "a\u0301", "\u00e4", "ae", "\u00e6", "b", "ch", "cz", "ll", "\u00f1", "\u00df", "ss",
+            "\u00f8", "\u00e5", "\u0142", "\u00fe", "\u0456", "\u0457", "\u0491", "\u0451", "\u03c9", "\u0627", "\u05d0", "\u0915", "\u65e5\u672c",
+            "\uac00", "1", "10", "-", " ", "'", "\ud83d\ude00"};
+    private final String locale;
+    private final Collator collator;
+    private String version; // Computed on first use
+
+    /**
+     * Constructor
+     * @param locale (String) - BCP 47 language tag, e.g. "es" or "uk-UA". Null or empty for the root locale.
+     */
+    public SortKeys(String locale){
+        this.locale = locale == null ? "" : locale;
+        collator = Collator.getInstance(this.locale.isEmpty() ? Locale.ROOT : Locale.forLanguageTag(this.locale));
+        collator.setStrength(Collator.TERTIARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION); // Composed and decomposed accents sort the same
+    }
+
+    /**
+     * Returns the language tag of the keys.
+     * @return (String) language tag, empty for the root locale
+     */
+    public String getLocale() {
+        return locale;
+    }
+
+    /**
+     * Returns the version of the keys: the version of the collation data of the runtime followed by a fingerprint of
+     * the keys of a set of probe words. java.text.Collator has no version of its own, and the fingerprint catches the
+     * data changes the runtime version doesn't show. Stored keys of another version have to be computed again.
+     * @return (String) version, e.g. "63.2/1c291ca3"
+     */
+    public synchronized String getVersion(){
+        if (version == null) {
+            CRC32 crc = new CRC32();
+            for (String probe : PROBES) {
+                crc.update(collator.getCollationKey(probe).toByteArray());
+            }
+            version = RUNTIME_VERSION + "/" + Long.toHexString(crc.getValue());
+        }
+        return version;
+    }
+
+    /**
+     * Computes the key of a word. Collators aren't thread-safe, so the calls are serialised.
+     * @param text (String) - word, can be null
+     * @return (byte[]) key or null for null
+     */
+    public synchronized byte[] key(String text){
+        return text == null ? null : collator.getCollationKey(text).toByteArray();
+    }
+
+    /**
+     * Compares keys byte by byte as unsigned values, then by length, which is how SQLite compares BLOBs. Null comes first.
+     * @param a (byte[]) - key, can be null
+     * @param b (byte[]) - key, can be null
+     * @return (int) negative, zero or positive as a is less than, equal to or greater than b
+     */
+    public static int compare(byte[] a, byte[] b){
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int x = a[i] & 0xff;
+            int y = b[i] & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length - b.length;
+    }
+}
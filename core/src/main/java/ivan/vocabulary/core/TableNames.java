@@ -0,0 +1,51 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+/**
+ * The TableNames class derives the table name (t_name) of a vocabulary from its name.
+ */
+public final class TableNames {
+    private static final int MAX_LENGTH = 14; // Longer names are truncated
+
+    private TableNames(){}
+
+
+    /**
+     * Supports the DB table naming policy: the name is truncated, the characters -+.^:, are removed
+     * and runs of white space become a single underscore.
+     * Same result as the regular expressions used before, in a single pass.
+     * @param s (String) input
+     * @return (String) output
+     */
+    public static String sanitize(String s){
+        int length = s.length() > MAX_LENGTH + 1 ? MAX_LENGTH : s.length();
+        StringBuilder sb = new StringBuilder(length);
+        boolean inSpace = false;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '-' || c == '+' || c == '.' || c == '^' || c == ':' || c == ',') {
+                continue; // Removed before spaces are collapsed, so "a - b" becomes "a_b"
+            }
+            if (isSpace(c)) {
+                if (!inSpace) {
+                    sb.append('_');
+                    inSpace = true;
+                }
+                continue;
+            }
+            inSpace = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Same characters as \s in java.util.regex.
+     */
+    private static boolean isSpace(char c){
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
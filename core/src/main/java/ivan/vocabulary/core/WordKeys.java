@@ -0,0 +1,46 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * The WordKeys class derives the key two words must share to be duplicates of each other. The key is the word in
+ * Unicode compatibility form (NFKC), trimmed, with runs of white space collapsed to a single space and in lower case.
+ * Accents are kept: "el" and "él" are different words.
+ */
+public final class WordKeys {
+
+    private WordKeys(){}
+
+
+    /**
+     * Normalizes a word into its duplicate key.
+     * @param word (String) input, can be null
+     * @return (String) key, null for null
+     */
+    public static String of(String word){
+        if (word == null) {
+            return null;
+        }
+        String normalized = Normalizer.isNormalized(word, Normalizer.Form.NFKC) ? word : Normalizer.normalize(word, Normalizer.Form.NFKC);
+        StringBuilder sb = new StringBuilder(normalized.length());
+        boolean inSpace = false;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                inSpace = sb.length() > 0; // Leading white space is dropped
+                continue;
+            }
+            if (inSpace) {
+                sb.append(' ');
+                inSpace = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the RFC 4180 rows: what CsvCodec writes, ImportParser must read back unchanged.
+ */
+public class CsvCodecTest {
+
+    @Test
+    public void roundTrip_keepsMeaningsWithCommas() throws IOException {
+        List<List<String>> meanings = Arrays.asList(
+                Arrays.asList("water", "rain"),
+                Arrays.asList("to take, to grab", "to catch"),
+                Collections.singletonList("to take, to grab"), // Read as two meanings without the trailing field
+                Collections.singletonList("agua"),
+                Collections.<String>emptyList(),
+                Arrays.asList("say \"hi\"", "line\nbreak"));
+        StringWriter writer = new StringWriter();
+        for (int i = 0; i < meanings.size(); i++) {
+            CsvCodec.writeRow(writer, "word, " + i, meanings.get(i));
+        }
+
+        ImportParser parser = new ImportParser(new StringReader(writer.toString()));
+        for (int i = 0; i < meanings.size(); i++) {
+            ImportParser.Row row = parser.next();
+            assertEquals("word, " + i, row.word);
+            assertEquals(meanings.get(i), row.meanings);
+        }
+        assertNull(parser.next());
+        assertEquals(0, parser.getMalformedRows());
+    }
+
+    @Test
+    public void writeRow_quotesOnlyWhenNeeded() throws IOException {
+        StringWriter writer = new StringWriter();
+        CsvCodec.writeRow(writer, "agua", Arrays.asList("water", "rain"));
+        CsvCodec.writeRow(writer, "tomar", Collections.singletonList("to take, to grab"));
+        CsvCodec.writeRow(writer, "nada", Collections.<String>emptyList());
+        assertEquals("agua,water,rain\r\ntomar,\"to take, to grab\",\r\nnada,\r\n", writer.toString());
+    }
+
+    @Test
+    public void decodeRow_handlesQuotesAndEmptyFields() {
+        assertEquals(Arrays.asList("a", "", "c"), CsvCodec.decodeRow("a,,c"));
+        assertEquals(Arrays.asList("", ""), CsvCodec.decodeRow(","));
+        assertEquals(Collections.singletonList(""), CsvCodec.decodeRow(""));
+        assertEquals(Arrays.asList("say \"hi\"", "x"), CsvCodec.decodeRow("\"say \"\"hi\"\"\",x"));
+        assertEquals(Arrays.asList("a,b", ""), CsvCodec.decodeRow("\"a,b\","));
+        assertEquals(Arrays.asList("", "b"), CsvCodec.decodeRow("\"\",b"));
+        assertEquals(Collections.singletonList("it\"s"), CsvCodec.decodeRow("it\"s")); // A quote inside a plain field is kept
+    }
+
+    @Test
+    public void decodeRow_dropsCarriageReturns() {
+        assertEquals(Arrays.asList("agua", "water"), CsvCodec.decodeRow("agua,water\r"));
+        assertEquals(Arrays.asList("agua", "water"), CsvCodec.decodeRow("\"agua\",\"water\"\r"));
+    }
+
+    @Test
+    public void decodeRow_needsMoreLinesForOpenQuote() {
+        assertNull(CsvCodec.decodeRow("word,\"first line"));
+        assertNull(CsvCodec.decodeRow("\"\"\""));
+    }
+
+    @Test
+    public void rowDecoder_joinsLinesOfQuotedField() {
+        CsvCodec.RowDecoder decoder = new CsvCodec.RowDecoder();
+        assertFalse(decoder.feed("word,\"first"));
+        assertFalse(decoder.feed(""));
+        assertTrue(decoder.feed("last\",next"));
+        assertEquals(3, decoder.getLines());
+        assertEquals(Arrays.asList("word", "first\n\nlast", "next"), decoder.take());
+        assertEquals(0, decoder.getLines());
+        assertTrue(decoder.feed("a,b")); // take() started a new row
+        assertEquals(Arrays.asList("a", "b"), decoder.take());
+    }
+
+    @Test
+    public void rowDecoder_resetDropsOpenRow() {
+        CsvCodec.RowDecoder decoder = new CsvCodec.RowDecoder();
+        assertFalse(decoder.feed("\"never closed"));
+        decoder.reset();
+        assertTrue(decoder.feed("a,b"));
+        assertEquals(Arrays.asList("a", "b"), decoder.take());
+    }
+
+    @Test
+    public void writeField_escapesQuotesAndLineBreaks() throws IOException {
+        StringWriter writer = new StringWriter();
+        CsvCodec.writeField(writer, "plain");
+        CsvCodec.writeField(writer, "say \"hi\"");
+        CsvCodec.writeField(writer, "a\r\nb");
+        assertEquals("plain\"say \"\"hi\"\"\"\"a\r\nb\"", writer.toString());
+    }
+}
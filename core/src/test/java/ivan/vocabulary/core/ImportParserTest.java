@@ -0,0 +1,108 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the .csv import: plain and quoted rows, blank lines, and rows whose quote is never closed.
+ */
+public class ImportParserTest {
+
+    @Test
+    public void next_readsPlainAndQuotedRows() throws IOException {
+        ImportParser parser = parser("agua,water, rain\r\n\r\n\"tomar\",\"to take, to grab\",to catch\nsolo\n  \nnada,\n");
+        ImportParser.Row row = parser.next();
+        assertEquals("agua", row.word);
+        assertEquals(Arrays.asList("water", "rain"), row.meanings);
+        row = parser.next();
+        assertEquals("tomar", row.word);
+        assertEquals(Arrays.asList("to take, to grab", "to catch"), row.meanings);
+        row = parser.next();
+        assertEquals("solo", row.word);
+        assertNull(row.meanings);
+        row = parser.next(); // Blank lines are skipped
+        assertEquals("nada", row.word);
+        assertEquals(Collections.<String>emptyList(), row.meanings);
+        assertNull(parser.next());
+        assertEquals(0, parser.getMalformedRows());
+        assertEquals(0, parser.getFirstMalformedLine());
+    }
+
+    @Test
+    public void next_readsQuotedFieldOverSeveralLines() throws IOException {
+        ImportParser parser = parser("word,\"line one\nline two\",second\nnext,row\n");
+        ImportParser.Row row = parser.next();
+        assertEquals(Arrays.asList("line one\nline two", "second"), row.meanings);
+        assertEquals("next", parser.next().word);
+        assertNull(parser.next());
+        assertEquals(0, parser.getMalformedRows());
+    }
+
+    @Test
+    public void next_unclosedQuoteAtEndKeepsLinesAfterIt() throws IOException {
+        ImportParser parser = parser("a,1\nb,\"open\nc,3\nd,4\n");
+        assertEquals("a", parser.next().word);
+        ImportParser.Row row = parser.next(); // Read as a plain row, the quote is kept
+        assertEquals("b", row.word);
+        assertEquals(Collections.singletonList("\"open"), row.meanings);
+        row = parser.next();
+        assertEquals("c", row.word);
+        assertEquals(Collections.singletonList("3"), row.meanings);
+        assertEquals("d", parser.next().word);
+        assertNull(parser.next());
+        assertEquals(1, parser.getMalformedRows());
+        assertEquals(2, parser.getFirstMalformedLine());
+    }
+
+    @Test
+    public void next_unclosedQuoteIsCappedAtMaxRowLines() throws IOException {
+        StringBuilder data = new StringBuilder("\"broken,x\n");
+        for (int i = 0; i < ImportParser.MAX_ROW_LINES + 50; i++) {
+            data.append("w").append(i).append(",m\n");
+        }
+        data.append("last,\"never closed\n");
+        ImportParser parser = parser(data.toString());
+        assertEquals("\"broken", parser.next().word);
+        for (int i = 0; i < ImportParser.MAX_ROW_LINES + 50; i++) { // None of the lines after it is lost
+            assertEquals("w" + i, parser.next().word);
+        }
+        assertEquals("last", parser.next().word);
+        assertNull(parser.next());
+        assertEquals(2, parser.getMalformedRows());
+        assertEquals(1, parser.getFirstMalformedLine());
+    }
+
+    @Test
+    public void next_keepsLineNumberAfterRecovery() throws IOException {
+        ImportParser parser = parser("a,1\nb,2\nc,\"open\nd,4\ne,5\n");
+        int rows = 0;
+        while (parser.next() != null) {
+            rows++;
+        }
+        assertEquals(5, rows);
+        assertEquals(1, parser.getMalformedRows());
+        assertEquals(3, parser.getFirstMalformedLine()); // Not the line the end of the data was found at
+    }
+
+    @Test
+    public void parseLine_splitsMeaningsOfTwoFieldRow() {
+        ImportParser.Row row = ImportParser.parseLine("agua, water ,, rain ");
+        assertEquals("agua", row.word);
+        assertEquals(Arrays.asList("water", "rain"), row.meanings);
+        assertNull(ImportParser.parseLine("   "));
+        assertNull(ImportParser.parseLine("word,\"open"));
+    }
+
+    private static ImportParser parser(String data) {
+        return new ImportParser(new StringReader(data));
+    }
+}
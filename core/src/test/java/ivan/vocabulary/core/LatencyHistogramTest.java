@@ -0,0 +1,87 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the latency histogram: bucket bounds and percentiles.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucket_isExactBelowSixteen() {
+        for (int micros = 0; micros < 16; micros++) {
+            assertEquals(micros, LatencyHistogram.bucket(micros));
+            assertEquals(micros, LatencyHistogram.upperBound(micros));
+        }
+        assertEquals(16, LatencyHistogram.bucket(16));
+        assertEquals(16, LatencyHistogram.bucket(17)); // Buckets of 2 between 16 and 32
+        assertEquals(17, LatencyHistogram.bucket(18));
+        assertEquals(17, LatencyHistogram.upperBound(16));
+        assertEquals(24, LatencyHistogram.bucket(32));
+    }
+
+    @Test
+    public void bucket_containsItsValues() {
+        int previous = -1;
+        for (long micros = 0; micros < (1L << 40); micros = micros < 100 ? micros + 1 : micros + micros / 7) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(bucket >= previous); // Buckets grow with the value
+            assertTrue(micros <= LatencyHistogram.upperBound(bucket));
+            assertTrue(bucket == 0 || micros > LatencyHistogram.upperBound(bucket - 1));
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void bucket_errorIsAtMostOneEighth() {
+        for (int bucket = 16; bucket < 16 + 30 * 8; bucket++) {
+            long lower = LatencyHistogram.upperBound(bucket - 1) + 1;
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(upper - lower + 1 <= lower / 8 + 1);
+        }
+    }
+
+    @Test
+    public void bucket_handlesLargestValue() {
+        long micros = Long.MAX_VALUE / 1000;
+        assertTrue(micros <= LatencyHistogram.upperBound(LatencyHistogram.bucket(micros)));
+        new LatencyHistogram().record(Long.MAX_VALUE, 1); // Lands in the last bucket
+    }
+
+    @Test
+    public void percentile_followsRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L, 2);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(200, snapshot.getRows());
+        assertEquals(50, snapshot.getMeanMicros()); // 50.5 rounded down
+        assertEquals(100, snapshot.getMaxMicros());
+        assertEquals(1, snapshot.percentileMicros(0));
+        assertEquals(15, snapshot.percentileMicros(15));
+        long median = snapshot.percentileMicros(50);
+        assertTrue(median >= 50 && median <= 50 + 50 / 8);
+        assertEquals(100, snapshot.percentileMicros(100)); // Capped by the max
+    }
+
+    @Test
+    public void reset_clearsCounters() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000, 1);
+        histogram.record(-1, 0); // Counted as 0
+        assertEquals(0, histogram.snapshot().percentileMicros(50));
+        histogram.reset();
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.percentileMicros(99));
+        assertEquals(0, snapshot.getMaxMicros());
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import org.junit.Test;
+
+import static ivan.vocabulary.core.ReviewScheduler.DAY;
+import static ivan.vocabulary.core.ReviewScheduler.DEFAULT_EASE;
+import static ivan.vocabulary.core.ReviewScheduler.MAX_INTERVAL;
+import static ivan.vocabulary.core.ReviewScheduler.MIN_EASE;
+import static ivan.vocabulary.core.ReviewScheduler.RELEARN_DELAY;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the SM-2 schedule: intervals, ease and due times.
+ */
+public class ReviewSchedulerTest {
+    private static final long NOW = 1556064000000L; // 24.04.2019
+
+    @Test
+    public void firstReviews_oneDaySixDaysThenEase() {
+        ReviewScheduler.State state = ReviewScheduler.State.create(NOW);
+        state = ReviewScheduler.review(state, 4, NOW); // 4 leaves the ease as it is
+        assertEquals(1, state.interval);
+        assertEquals(1, state.repetitions);
+        assertEquals(DEFAULT_EASE, state.ease);
+        assertEquals(NOW + DAY, state.due);
+        state = ReviewScheduler.review(state, 4, state.due);
+        assertEquals(6, state.interval);
+        assertEquals(2, state.repetitions);
+        state = ReviewScheduler.review(state, 4, state.due);
+        assertEquals(15, state.interval); // 6 * 2.5
+        assertEquals(3, state.repetitions);
+        state = ReviewScheduler.review(state, 4, state.due);
+        assertEquals(38, state.interval); // 15 * 2.5, rounded
+    }
+
+    @Test
+    public void ease_followsGrades() {
+        ReviewScheduler.State state = ReviewScheduler.State.create(NOW);
+        assertEquals(DEFAULT_EASE + 100, ReviewScheduler.review(state, 5, NOW).ease);
+        assertEquals(DEFAULT_EASE, ReviewScheduler.review(state, 4, NOW).ease);
+        assertEquals(DEFAULT_EASE - 140, ReviewScheduler.review(state, 3, NOW).ease);
+    }
+
+    @Test
+    public void ease_neverBelowFloor() {
+        ReviewScheduler.State state = ReviewScheduler.State.create(NOW);
+        for (int i = 0; i < 20; i++) {
+            state = ReviewScheduler.review(state, 3, state.due);
+            assertTrue(state.ease >= MIN_EASE);
+        }
+        assertEquals(MIN_EASE, state.ease);
+        ReviewScheduler.State failed = ReviewScheduler.review(state, 0, state.due);
+        assertEquals(MIN_EASE, failed.ease);
+    }
+
+    @Test
+    public void lapse_resetsRepetitionsAndKeepsEase() {
+        ReviewScheduler.State mature = new ReviewScheduler.State(2000, 40, 5, NOW);
+        ReviewScheduler.State failed = ReviewScheduler.review(mature, 2, NOW);
+        assertEquals(2000, failed.ease);
+        assertEquals(0, failed.repetitions);
+        assertEquals(1, failed.interval);
+        assertEquals(NOW + RELEARN_DELAY, failed.due);
+        ReviewScheduler.State relearned = ReviewScheduler.review(failed, 4, failed.due);
+        assertEquals(1, relearned.interval); // Starts over
+        assertEquals(1, relearned.repetitions);
+    }
+
+    @Test
+    public void due_ordersByOutcome() {
+        ReviewScheduler.State state = new ReviewScheduler.State(DEFAULT_EASE, 10, 3, NOW);
+        long failed = ReviewScheduler.review(state, 1, NOW).due;
+        long passed = ReviewScheduler.review(state, 3, NOW).due;
+        long fresh = ReviewScheduler.review(ReviewScheduler.State.create(NOW), 5, NOW).due;
+        assertTrue(NOW < failed);
+        assertTrue(failed < fresh);
+        assertTrue(fresh < passed);
+        long due = NOW;
+        state = ReviewScheduler.State.create(NOW);
+        for (int i = 0; i < 30; i++) { // Each passing review is due later than the previous one, up to the cap
+            state = ReviewScheduler.review(state, 5, state.due);
+            assertTrue(state.due > due);
+            assertTrue(state.interval <= MAX_INTERVAL);
+            due = state.due;
+        }
+        assertEquals(MAX_INTERVAL, state.interval);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void review_rejectsInvalidGrade() {
+        ReviewScheduler.review(ReviewScheduler.State.create(NOW), 6, NOW);
+    }
+}
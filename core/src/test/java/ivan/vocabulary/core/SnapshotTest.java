@@ -0,0 +1,223 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip tests of the snapshot format: what the Writer writes, the Reader must give back unchanged.
+ */
+public class SnapshotTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("snapshot", ".vsnp");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void roundTrip_keepsEverything() throws IOException {
+        Recorder expected = new Recorder();
+        Snapshot.Writer writer = new Snapshot.Writer(file);
+        visit(writer, expected);
+        writer.close();
+        assertEquals(4, writer.getWordCount());
+
+        Snapshot.Reader reader = new Snapshot.Reader(file);
+        try {
+            assertEquals(2, reader.getVocabularyCount());
+            assertEquals(4, reader.getWordCount());
+            Recorder actual = new Recorder();
+            reader.accept(actual);
+            assertEquals(expected.records, actual.records);
+            Recorder again = new Recorder(); // The reader can be visited more than once
+            reader.accept(again);
+            assertEquals(expected.records, again.records);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void roundTrip_emptySnapshot() throws IOException {
+        new Snapshot.Writer(file).close();
+        Snapshot.Reader reader = new Snapshot.Reader(file);
+        try {
+            assertEquals(0, reader.getVocabularyCount());
+            assertEquals(0, reader.getWordCount());
+            Recorder actual = new Recorder();
+            reader.accept(actual);
+            assertTrue(actual.records.isEmpty());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void reader_readsVersion1() throws IOException {
+        writeVersion1(false);
+        Snapshot.Reader reader = new Snapshot.Reader(file);
+        try {
+            assertEquals(1, reader.getVersion());
+            Recorder actual = new Recorder();
+            reader.accept(actual);
+            assertEquals(Arrays.asList(Arrays.<Object>asList("vocabulary", 1L, "English", "vocab_1", null),
+                    Arrays.<Object>asList("word", 10L, "water", "agua")), actual.records);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsReviewInVersion1() throws IOException {
+        writeVersion1(true);
+        Snapshot.Reader reader = new Snapshot.Reader(file);
+        try {
+            reader.accept(new Recorder());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writer_rejectsReviewWithoutWord() throws IOException {
+        Snapshot.Writer writer = new Snapshot.Writer(file);
+        try {
+            writer.vocabulary(1, "English", "vocab_1", "en");
+            writer.review(ReviewScheduler.DEFAULT_EASE, 1, 1, 0);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsDamagedFile() throws IOException {
+        Snapshot.Writer writer = new Snapshot.Writer(file);
+        visit(writer, new Recorder());
+        writer.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(20);
+            raf.write(raf.read() ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        new Snapshot.Reader(file).close();
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsUnclosedFile() throws IOException {
+        Snapshot.Writer writer = new Snapshot.Writer(file);
+        writer.vocabulary(1, "English", "vocab_1", "en");
+        // Not closed, so there is no trailer
+        new Snapshot.Reader(file).close();
+    }
+
+    /**
+     * Helper function to write a version 1 snapshot byte by byte: one vocabulary without a locale and one word.
+     * @param review (boolean) - add a review record, which version 1 doesn't have
+     */
+    private void writeVersion1(boolean review) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x56534E50); // "VSNP"
+        out.writeInt(1);
+        out.writeByte(1); // VOCABULARY
+        out.writeLong(1);
+        writeString(out, "English");
+        writeString(out, "vocab_1");
+        out.writeByte(2); // WORD
+        out.writeLong(10);
+        writeString(out, "water");
+        writeString(out, "agua");
+        if (review) {
+            out.writeByte(3); // REVIEW
+            out.writeInt(ReviewScheduler.DEFAULT_EASE);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeLong(0);
+        }
+        out.writeByte(0); // END
+        out.writeInt(1);
+        out.writeInt(1);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            bytes.writeTo(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Helper function to visit the same content into a snapshot and a recorder.
+     */
+    private static void visit(Snapshot.Visitor out, Recorder expected) throws IOException {
+        StringBuilder longMeaning = new StringBuilder(); // Bigger than the buffer of the writer
+        while (longMeaning.length() < 300 * 1024) {
+            longMeaning.append("значение, ");
+        }
+        for (Snapshot.Visitor v : Arrays.asList(out, expected)) {
+            v.vocabulary(1, "Español", "vocab_1", "es");
+            v.word(10, "ñandú", "rhea, 🐦");
+            v.review(ReviewScheduler.MIN_EASE, 15, 3, 1556064000000L);
+            v.word(11, "agua", ""); // Empty meanings
+            v.word(12, "", null);
+            v.vocabulary(2, "Русский", "vocab_2", ""); // Root locale
+            v.word(20, "привет", longMeaning.toString());
+            v.review(ReviewScheduler.DEFAULT_EASE, 0, 0, 0);
+        }
+    }
+
+
+    /**
+     * Visitor that keeps every record as a list of its fields.
+     */
+    private static final class Recorder implements Snapshot.Visitor {
+        final List<List<Object>> records = new ArrayList<>();
+
+        @Override
+        public void vocabulary(long id, String name, String table, String locale) {
+            records.add(Arrays.<Object>asList("vocabulary", id, name, table, locale));
+        }
+
+        @Override
+        public void word(long id, String word, String meanings) {
+            records.add(Arrays.<Object>asList("word", id, word, meanings));
+        }
+
+        @Override
+        public void review(int ease, int interval, int repetitions, long due) {
+            records.add(Arrays.<Object>asList("review", ease, interval, repetitions, due));
+        }
+    }
+}
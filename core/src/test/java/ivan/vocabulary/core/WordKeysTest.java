@@ -0,0 +1,41 @@
+/**
+ * @author: Ivan Mykolenko
+ * @date: 24.04.2019
+ */
+package ivan.vocabulary.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the duplicate key: which words are the same word.
+ */
+public class WordKeysTest {
+
+    @Test
+    public void of_ignoresCaseAndWhiteSpace() {
+        assertEquals("ice cream", WordKeys.of("  Ice \t  CREAM\n"));
+        assertEquals("ice cream", WordKeys.of("ice\u00a0cream")); // No-break space
+        assertEquals(WordKeys.of("Apple"), WordKeys.of("apple "));
+    }
+
+    @Test
+    public void of_normalizesCompatibilityForms() {
+        assertEquals(WordKeys.of("caf\u00e9"), WordKeys.of("cafe\u0301")); // Composed and decomposed accent
+        assertEquals("fi", WordKeys.of("\ufb01")); // Ligature
+        assertEquals("abc", WordKeys.of("\uff21\uff22\uff23")); // Full width letters
+    }
+
+    @Test
+    public void of_keepsAccents() {
+        assertFalse(WordKeys.of("el").equals(WordKeys.of("\u00e9l")));
+    }
+
+    @Test
+    public void of_handlesNullAndBlank() {
+        assertNull(WordKeys.of(null));
+        assertEquals("", WordKeys.of(""));
+        assertEquals("", WordKeys.of("  \t "));
+    }
+}